@@ -0,0 +1,152 @@
+package com.campaignworkbench.benchmark;
+
+import com.campaignworkbench.campaignrenderer.ModuleRenderer;
+import com.campaignworkbench.campaignrenderer.TemplateRenderer;
+import com.campaignworkbench.workspace.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Generates the inputs for the benchmarks, and the temporary workspace the renderer benchmarks render from
+ */
+final class BenchmarkFiles {
+
+    // Modules write personalization for the template as strings, as the demo modules do
+    private static final String PERSO_FUNCTION =
+            "<% function perso(strPerso) { return '<' + '%' + strPerso + '%' + '>'; } %>\r\n";
+
+    private BenchmarkFiles() {}
+
+    /**
+     * @return a new empty workspace, to be deleted with {@link #deleteWorkspace}
+     */
+    static Workspace createWorkspace() {
+        Workspace.createWorkspaceRootFolder();
+        return new Workspace("Benchmark " + System.nanoTime(), true);
+    }
+
+    /**
+     * Closes a workspace, so its folders are no longer watched, then deletes it
+     */
+    static void deleteWorkspace(Workspace workspace) throws IOException {
+        workspace.close();
+        try (Stream<Path> paths = Files.walk(workspace.getRootFolderPath())) {
+            for (Path path : paths.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    /**
+     * Clears the caches the renderer keeps between renders
+     */
+    static void clearCaches() {
+        TemplateRenderer.getScriptCache().clear();
+        TemplateRenderer.getExpansionCache().clear();
+        TemplateRenderer.getXmlContextCache().clear();
+        ModuleRenderer.getModuleOutputCache().clear();
+    }
+
+    /**
+     * @return template source of roughly the given size, that includes the given module and block
+     */
+    static String templateSource(int size, String moduleName, String blockName) {
+        StringBuilder source = new StringBuilder(size + 256);
+        source.append("<html>\r\n<body>\r\n<table>\r\n<%@ include module='").append(moduleName).append("' %>\r\n")
+                .append("<% for each (var item in rtEvent.ctx.items.item) { %>\r\n")
+                .append("<tr><td><%= item.@name %></td><td><%= item.@price %></td>")
+                .append("<td><%= formatDate(item.@date, \"%D/%m/%4Y\") %></td></tr>\r\n<% } %>\r\n</table>\r\n");
+        for (int row = 0; source.length() < size; row++) {
+            source.append("<p class=\"row\" style=\"font-family: 'Arial'\">Paragraph ").append(row)
+                    .append(" for <%= rtEvent.ctx.customer.@firstName %> <%= rtEvent.ctx.customer.@lastName %></p>\r\n")
+                    .append("<% if (").append(row).append(" % 2 == 0) { %><p>even</p><% } %>\r\n");
+        }
+        source.append("<%@ include view='").append(blockName).append("' %>\r\n</body>\r\n</html>\r\n");
+        return source.toString();
+    }
+
+    /**
+     * @return data context XML of roughly the given size, listing items for the template to loop over
+     */
+    static String dataContext(int size) {
+        StringBuilder context = new StringBuilder(size + 256);
+        context.append("<ctx>\n  <customer firstName=\"Ann\" lastName=\"O'Neil\"/>\n  <items>\n");
+        for (int item = 0; context.length() < size; item++) {
+            context.append("    <item name=\"Item ").append(item)
+                    .append("\" price=\"").append(item % 100).append(".99\" date=\"2025-0").append(item % 9 + 1)
+                    .append("-1").append(item % 10).append("T10:15:30.5Z\"/>\n");
+        }
+        context.append("  </items>\n</ctx>\n");
+        return context.toString();
+    }
+
+    /**
+     * @return Campaign timestamps totalling roughly the given number of characters
+     */
+    static List<String> timestamps(int size) {
+        return Stream.iterate(0, i -> i + 1)
+                .map(i -> "2025-0" + (i % 9 + 1) + "-1" + (i % 10) + "T0" + (i % 10) + ":30:00." + (i % 1000) + "Z")
+                .limit(Math.max(1, size / 24))
+                .toList();
+    }
+
+    /**
+     * Creates a template of roughly the given size, with a data context of the same size, that includes a
+     * small module and block
+     */
+    static Template createTemplate(Workspace workspace, int sizeKb, int size) throws IOException {
+        String name = "Render_" + sizeKb + "KB";
+
+        ContextXml moduleContext = (ContextXml) addFile(workspace, name + "_ModuleContext", WorkspaceFileType.CONTEXT,
+                "<ctx HEADER=\"Your order\" ITEM=\"Item\" PRICE=\"Price\"/>");
+        EtmModule header = (EtmModule) addFile(workspace, name + "_Header", WorkspaceFileType.MODULE,
+                PERSO_FUNCTION + "<h1><%= ctx.@HEADER %>, <%= perso('=rtEvent.ctx.customer.@firstName') %></h1>\r\n"
+                        + "<tr><th><%= ctx.@ITEM %></th><th><%= ctx.@PRICE %></th></tr>\r\n");
+        header.setDataContextFile(moduleContext);
+        addFile(workspace, name + "_SignOff", WorkspaceFileType.BLOCK,
+                "<p>Regards,<br/>The \"Workbench\" team</p>\r\n");
+
+        ContextXml dataContext = (ContextXml) addFile(workspace, name + "_Data", WorkspaceFileType.CONTEXT, dataContext(size));
+        ContextXml messageContext = (ContextXml) addFile(workspace, name + "_Message", WorkspaceFileType.CONTEXT,
+                "<delivery><message><subject>Benchmark</subject></message></delivery>");
+
+        Template template = (Template) addFile(workspace, name, WorkspaceFileType.TEMPLATE,
+                templateSource(size, header.getBaseFileName(), name + "_SignOff"));
+        template.setDataContextFile(dataContext);
+        template.setMessageContextFile(messageContext);
+        return template;
+    }
+
+    /**
+     * Creates a module whose source is roughly the given size, with a small data context
+     */
+    static EtmModule createModule(Workspace workspace, int sizeKb, int size) throws IOException {
+        String name = "Module_" + sizeKb + "KB";
+
+        ContextXml dataContext = (ContextXml) addFile(workspace, name + "_Data", WorkspaceFileType.CONTEXT,
+                "<ctx HEADER=\"Sale\" ITEM=\"Item\" PRICE=\"Price\" TOTAL_PRICE=\"Total\"/>");
+
+        StringBuilder source = new StringBuilder(size + 256).append(PERSO_FUNCTION);
+        for (int row = 0; source.length() < size; row++) {
+            source.append("<tr><td><%= ctx.@ITEM %> ").append(row).append("</td><td><%= ctx.@PRICE %></td>")
+                    .append("<td><%= perso('=rtEvent.ctx.items.item[").append(row % 10).append("].@price') %></td></tr>\r\n");
+        }
+
+        EtmModule module = (EtmModule) addFile(workspace, name, WorkspaceFileType.MODULE, source.toString());
+        module.setDataContextFile(dataContext);
+        return module;
+    }
+
+    private static WorkspaceFile addFile(Workspace workspace, String baseName, WorkspaceFileType fileType, String content) throws IOException {
+        // Strip the * from the extension filter
+        String fileName = baseName + fileType.extensionFilter().substring(1);
+        Files.writeString(workspace.getRootFolderPath().resolve(fileType.getFolderName()).resolve(fileName), content);
+        workspace.addWorkspaceFile(fileName, fileType);
+        return workspace.getWorkspaceFile(baseName, fileType);
+    }
+}
@@ -0,0 +1,47 @@
+package com.campaignworkbench.benchmark;
+
+import com.campaignworkbench.ide.editor.richtextfx.CampaignStyler;
+import com.campaignworkbench.ide.editor.richtextfx.XmlFormatter;
+import org.fxmisc.richtext.model.StyleSpans;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks the editor code run on the whole of a file: syntax styling a template and formatting a data
+ * context, generated at each size
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EditorBenchmark {
+
+    @Param({"1", "10", "100", "1024", "10240"})
+    private int sizeKb;
+
+    private final CampaignStyler styler = new CampaignStyler();
+    private final XmlFormatter xmlFormatter = new XmlFormatter();
+    private String templateSource;
+    private String dataContext;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        int size = sizeKb * 1024;
+        templateSource = BenchmarkFiles.templateSource(size, "Header", "SignOff");
+        dataContext = BenchmarkFiles.dataContext(size);
+    }
+
+    @Benchmark
+    public StyleSpans<Collection<String>> style() {
+        return styler.style(templateSource);
+    }
+
+    @Benchmark
+    public String formatXml() {
+        return xmlFormatter.format(dataContext, 2);
+    }
+}
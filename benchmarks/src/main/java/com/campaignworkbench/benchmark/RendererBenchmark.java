@@ -0,0 +1,105 @@
+package com.campaignworkbench.benchmark;
+
+import com.campaignworkbench.campaignrenderer.CampaignFunctions;
+import com.campaignworkbench.campaignrenderer.ModuleRenderer;
+import com.campaignworkbench.campaignrenderer.RendererExecutionMode;
+import com.campaignworkbench.campaignrenderer.SharedScope;
+import com.campaignworkbench.campaignrenderer.TemplateRenderResult;
+import com.campaignworkbench.campaignrenderer.TemplateRenderer;
+import com.campaignworkbench.workspace.EtmModule;
+import com.campaignworkbench.workspace.Template;
+import com.campaignworkbench.workspace.Workspace;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks template rendering with warm and cold caches, module rendering and date formatting, against a
+ * generated template, module and data context of each size written to a temporary workspace. Templates are
+ * rendered in each execution mode, to compare interpreted and compiled execution.
+ * The Rhino context for module rendering is entered on the benchmark thread, so the state is per thread.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+// The 10 MB template's output, and the caches kept between warm renders, outgrow the default heap
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class RendererBenchmark {
+
+    /**
+     * The mode templates are executed in. Only used by the template benchmarks, so the others don't run once
+     * for each mode.
+     */
+    @State(Scope.Benchmark)
+    public static class ExecutionMode {
+
+        @Param({"INTERPRETED", "COMPILED", "ADAPTIVE"})
+        private RendererExecutionMode executionMode;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            TemplateRenderer.setExecutionMode(executionMode);
+        }
+    }
+
+    @Param({"1", "10", "100", "1024", "10240"})
+    private int sizeKb;
+
+    private Workspace workspace;
+    private Template template;
+    private EtmModule module;
+    private List<String> timestamps;
+    private Context cx;
+    private Scriptable scope;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        int size = sizeKb * 1024;
+        workspace = BenchmarkFiles.createWorkspace();
+        template = BenchmarkFiles.createTemplate(workspace, sizeKb, size);
+        module = BenchmarkFiles.createModule(workspace, sizeKb, size);
+        timestamps = BenchmarkFiles.timestamps(size);
+
+        cx = Context.enter();
+        cx.setOptimizationLevel(-1);
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        scope = SharedScope.newRenderScope(cx);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Context.exit();
+        BenchmarkFiles.clearCaches();
+        BenchmarkFiles.deleteWorkspace(workspace);
+    }
+
+    @Benchmark
+    public TemplateRenderResult render(ExecutionMode executionMode) {
+        return TemplateRenderer.render(workspace, template);
+    }
+
+    @Benchmark
+    public TemplateRenderResult renderColdCaches(ExecutionMode executionMode) {
+        BenchmarkFiles.clearCaches();
+        return TemplateRenderer.render(workspace, template);
+    }
+
+    @Benchmark
+    public String renderModule() {
+        return ModuleRenderer.renderModule(workspace, module, cx, scope);
+    }
+
+    @Benchmark
+    public void formatDate(Blackhole blackhole) {
+        for (String timestamp : timestamps) {
+            blackhole.consume(CampaignFunctions.formatDate(timestamp, "%D %Bl %4Y"));
+        }
+    }
+}
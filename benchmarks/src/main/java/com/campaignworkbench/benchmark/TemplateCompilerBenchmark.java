@@ -0,0 +1,148 @@
+package com.campaignworkbench.benchmark;
+
+import com.campaignworkbench.campaignrenderer.ModuleRenderer;
+import com.campaignworkbench.campaignrenderer.TemplateCompiler;
+import com.campaignworkbench.workspace.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the single-pass template compiler against the previous preprocess, transform and escape pipeline,
+ * which is reproduced here. Run with -prof gc to compare the allocation per compile (gc.alloc.rate.norm).
+ * Both render included modules through the memoized module renderer, on the calling thread, and the module
+ * output is cached before measuring, so the comparison covers compiling the template alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TemplateCompilerBenchmark {
+
+    @Param({"1", "10", "100", "1024", "10240"})
+    private int sizeKb;
+
+    private Workspace workspace;
+    private Template template;
+    private String templateSource;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workspace = BenchmarkFiles.createWorkspace();
+        template = BenchmarkFiles.createTemplate(workspace, sizeKb, sizeKb * 1024);
+        templateSource = template.getWorkspaceFileContent();
+
+        // Fill the module output cache, so neither side renders modules while measured
+        TemplateCompiler.compile(workspace, template, templateSource);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        BenchmarkFiles.clearCaches();
+        BenchmarkFiles.deleteWorkspace(workspace);
+    }
+
+    @Benchmark
+    public String singlePass() {
+        return TemplateCompiler.compile(workspace, template, templateSource);
+    }
+
+    @Benchmark
+    public String legacyPipeline() {
+        return LegacyPipeline.compile(workspace, template, templateSource);
+    }
+
+    /**
+     * The template pipeline as it was before the single-pass compiler: expand directives into a copy of the source,
+     * transform that copy to JavaScript, and escape each text chunk with chained replaces
+     */
+    private static final class LegacyPipeline {
+
+        static String compile(Workspace workspace, WorkspaceFile workspaceFile, String source) {
+            return transformToJavaScript(preprocess(workspace, workspaceFile, source));
+        }
+
+        private static String preprocess(Workspace workspace, WorkspaceFile workspaceFile, String source) {
+            StringBuilder out = new StringBuilder();
+            int pos = 0;
+
+            while (pos < source.length()) {
+                int start = source.indexOf("<%@", pos);
+                if (start == -1) {
+                    out.append(source.substring(pos));
+                    break;
+                }
+
+                out.append(source, pos, start);
+
+                int end = source.indexOf("%>", start);
+                String directive = source.substring(start + 3, end).trim();
+
+                if (directive.startsWith("include")) {
+                    if (directive.contains("module=")) {
+                        EtmModule module = (EtmModule) workspace.getWorkspaceFile(extractQuoted(directive, "module"), WorkspaceFileType.MODULE);
+                        String moduleOutput = ModuleRenderer.renderModule(workspace, module);
+                        out.append(preprocess(workspace, workspaceFile, moduleOutput));
+                    } else if (directive.contains("view=")) {
+                        PersoBlock block = (PersoBlock) workspace.getWorkspaceFile(extractQuoted(directive, "view"), WorkspaceFileType.BLOCK);
+                        out.append(preprocess(workspace, block, block.getWorkspaceFileContent()));
+                    }
+                }
+                pos = end + 2;
+            }
+
+            return out.toString();
+        }
+
+        private static String transformToJavaScript(String source) {
+            StringBuilder js = new StringBuilder();
+            js.append("var out = new java.lang.StringBuilder();\n");
+
+            int pos = 0;
+            while (pos < source.length()) {
+                int start = source.indexOf("<%", pos);
+                if (start == -1) {
+                    appendText(js, source.substring(pos));
+                    break;
+                }
+
+                appendText(js, source.substring(pos, start));
+
+                int end = source.indexOf("%>", start);
+                String code = source.substring(start + 2, end).trim();
+
+                if (code.startsWith("=")) {
+                    js.append("out.append(")
+                            .append(code.substring(1).trim())
+                            .append(");\n");
+                } else {
+                    js.append(code).append("\n");
+                }
+
+                pos = end + 2;
+            }
+
+            js.append("out.toString();");
+            return js.toString();
+        }
+
+        private static void appendText(StringBuilder js, String text) {
+            if (text.isEmpty()) return;
+            text = text.replace("\\", "\\\\")
+                    .replace("\"", "\\\"")
+                    .replace("\r\n", "\n")
+                    .replace("\r", "\n")
+                    .replace("\n", "\\n");
+            js.append("out.append(\"").append(text).append("\");\n");
+        }
+
+        private static String extractQuoted(String directive, String key) {
+            int quotePos = directive.indexOf(key + "=") + key.length() + 1;
+            char quote = directive.charAt(quotePos);
+            return directive.substring(quotePos + 1, directive.indexOf(quote, quotePos + 1));
+        }
+    }
+}
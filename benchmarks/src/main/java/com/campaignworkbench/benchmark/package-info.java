@@ -0,0 +1,9 @@
+/**
+ * Contains JMH benchmarks of the renderer and editor code that scales with the size of a file.
+ * Build with mvn package and run with java -jar benchmarks/target/benchmarks.jar
+ *
+ * @since 1.0
+ * @author mroshaw
+ * @version 1.0
+ */
+package com.campaignworkbench.benchmark;
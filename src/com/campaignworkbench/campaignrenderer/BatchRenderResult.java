@@ -0,0 +1,29 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.workspace.Template;
+
+import java.nio.file.Path;
+
+/**
+ * Outcome of rendering a single template as part of a batch
+ * @param template the template that was rendered
+ * @param outputFile the file the HTML was written to, or null if the render failed
+ * @param elapsedNanos wall time taken to render and write the template
+ * @param error the exception that caused the render to fail, or null if it succeeded
+ */
+public record BatchRenderResult(Template template, Path outputFile, long elapsedNanos, Exception error) {
+
+    /**
+     * @return true if the template rendered and was written successfully
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * @return wall time taken in milliseconds
+     */
+    public double elapsedMillis() {
+        return elapsedNanos / 1_000_000.0;
+    }
+}
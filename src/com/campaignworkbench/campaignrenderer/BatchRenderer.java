@@ -0,0 +1,117 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.workspace.Template;
+import com.campaignworkbench.workspace.Workspace;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Headless entry point that renders every template in a workspace, without starting the JavaFX user interface.
+ * Templates are rendered concurrently on a work-stealing pool and the HTML written to an output folder.
+ * <p>
+ * Usage: BatchRenderer &lt;workspace name&gt; &lt;output folder&gt; [--threads n]
+ */
+public final class BatchRenderer {
+
+    private static final String OUTPUT_FILE_EXTENSION = ".html";
+
+    private BatchRenderer() {}
+
+    /**
+     * Main entry point for batch rendering
+     * @param args workspace name, output folder, and optionally the number of threads to use
+     */
+    public static void main(String[] args) {
+        if (args.length != 2 && args.length != 4) {
+            System.err.println("Usage: BatchRenderer <workspace name> <output folder> [--threads n]");
+            System.exit(2);
+        }
+
+        String workspaceName = args[0];
+        Path outputFolder = Path.of(args[1]);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (args.length == 4 && args[2].equals("--threads")) {
+            parallelism = Integer.parseInt(args[3]);
+        }
+
+        long start = System.nanoTime();
+        Workspace workspace = new Workspace(workspaceName, false);
+        List<BatchRenderResult> results = renderAll(workspace, outputFolder, parallelism);
+        double totalMillis = (System.nanoTime() - start) / 1_000_000.0;
+
+        int failures = 0;
+        for (BatchRenderResult result : results) {
+            if (result.isSuccess()) {
+                System.out.printf("OK    %10.1f ms  %s -> %s%n", result.elapsedMillis(), result.template().getFileName(), result.outputFile());
+            } else {
+                failures++;
+                System.out.printf("FAIL  %10.1f ms  %s: %s%n", result.elapsedMillis(), result.template().getFileName(), result.error().getMessage());
+            }
+        }
+        System.out.printf("Rendered %d of %d templates in %.1f ms using %d threads%n",
+                results.size() - failures, results.size(), totalMillis, parallelism);
+
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /**
+     * Renders every template in the workspace against its data and message contexts
+     * @param workspace the workspace containing the templates
+     * @param outputFolder folder to write the HTML to, created if it does not exist
+     * @param parallelism number of templates to render concurrently
+     * @return a result for each template, in workspace order
+     */
+    public static List<BatchRenderResult> renderAll(Workspace workspace, Path outputFolder, int parallelism) {
+        try {
+            Files.createDirectories(outputFolder);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Unable to create output folder: " + outputFolder, ioe);
+        }
+
+        List<Template> templates = List.copyOf(workspace.getTemplates());
+        List<Callable<BatchRenderResult>> tasks = new ArrayList<>(templates.size());
+        for (Template template : templates) {
+            tasks.add(() -> renderTemplate(workspace, template, outputFolder));
+        }
+
+        ExecutorService executor = Executors.newWorkStealingPool(parallelism);
+        try {
+            List<BatchRenderResult> results = new ArrayList<>(templates.size());
+            List<Future<BatchRenderResult>> futures = executor.invokeAll(tasks);
+            for (Future<BatchRenderResult> future : futures) {
+                results.add(future.get());
+            }
+            return results;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Batch render was interrupted", ie);
+        } catch (ExecutionException ee) {
+            // renderTemplate captures its own failures, so this is unexpected
+            throw new IllegalStateException("Batch render failed", ee.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static BatchRenderResult renderTemplate(Workspace workspace, Template template, Path outputFolder) {
+        long start = System.nanoTime();
+        try {
+            TemplateRenderResult renderResult = TemplateRenderer.render(workspace, template);
+            Path outputFile = outputFolder.resolve(template.getBaseFileName() + OUTPUT_FILE_EXTENSION);
+            Files.writeString(outputFile, renderResult.renderedOutput(), StandardCharsets.UTF_8);
+            return new BatchRenderResult(template, outputFile, System.nanoTime() - start, null);
+        } catch (Exception exception) {
+            return new BatchRenderResult(template, null, System.nanoTime() - start, exception);
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package com.campaignworkbench.campaignrenderer;
+
+/**
+ * Outcome of rendering a template for every recipient in a bulk render
+ * @param recipientCount number of recipient records read
+ * @param failureCount number of recipients that failed to render
+ * @param elapsedNanos wall time taken to compile the template and render every recipient
+ */
+public record BulkRenderSummary(int recipientCount, int failureCount, long elapsedNanos) {
+
+    /**
+     * @return true if every recipient rendered and was written successfully
+     */
+    public boolean isSuccess() {
+        return failureCount == 0;
+    }
+
+    /**
+     * @return wall time taken in milliseconds
+     */
+    public double elapsedMillis() {
+        return elapsedNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return recipients rendered per second
+     */
+    public double recipientsPerSecond() {
+        return elapsedNanos == 0 ? 0 : recipientCount / (elapsedNanos / 1_000_000_000.0);
+    }
+}
@@ -0,0 +1,221 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.ide.IdeException;
+import com.campaignworkbench.workspace.Template;
+import com.campaignworkbench.workspace.Workspace;
+import com.campaignworkbench.workspace.WorkspaceFileType;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLEventWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Renders one template for every recipient in a multi-record XML file, as a delivery would in production.
+ * <p>
+ * Each child element of the recipients file root is a recipient data context, typically a &lt;ctx&gt; element.
+ * The template is expanded and compiled once, then every recipient is executed in parallel on threads that each
+ * hold a Rhino context for their lifetime. Records are streamed from the file and each page is written to disk
+ * as soon as it is rendered, with the number of recipients in flight bounded, so memory use does not grow with the
+ * number of recipients.
+ * <p>
+ * Usage: BulkRenderer &lt;workspace name&gt; &lt;template name&gt; &lt;recipients file&gt; &lt;output folder&gt; [--threads n]
+ */
+public final class BulkRenderer {
+
+    private static final String OUTPUT_FILE_EXTENSION = ".html";
+    private static final String RECIPIENT_ELEMENT_NAME = "ctx";
+
+    // Records read ahead of the workers, per thread
+    private static final int RECORDS_IN_FLIGHT_PER_THREAD = 4;
+
+    private BulkRenderer() {}
+
+    /**
+     * Main entry point for bulk rendering
+     * @param args workspace name, template name, recipients file, output folder, and optionally the number of threads to use
+     */
+    public static void main(String[] args) {
+        if (args.length != 4 && args.length != 6) {
+            System.err.println("Usage: BulkRenderer <workspace name> <template name> <recipients file> <output folder> [--threads n]");
+            System.exit(2);
+        }
+
+        String workspaceName = args[0];
+        String templateName = args[1];
+        Path recipientsFile = Path.of(args[2]);
+        Path outputFolder = Path.of(args[3]);
+        int parallelism = Runtime.getRuntime().availableProcessors();
+        if (args.length == 6 && args[4].equals("--threads")) {
+            parallelism = Integer.parseInt(args[5]);
+        }
+
+        Workspace workspace = new Workspace(workspaceName, false);
+        Template template = (Template) workspace.getWorkspaceFile(templateName, WorkspaceFileType.TEMPLATE);
+        if (template == null) {
+            System.err.println("Template not found in workspace: " + templateName);
+            System.exit(2);
+        }
+
+        BulkRenderSummary summary = render(workspace, template, recipientsFile, outputFolder, parallelism);
+        System.out.printf("Rendered %d of %d recipients in %.1f ms (%.0f per second) using %d threads%n",
+                summary.recipientCount() - summary.failureCount(), summary.recipientCount(),
+                summary.elapsedMillis(), summary.recipientsPerSecond(), parallelism);
+
+        System.exit(summary.isSuccess() ? 0 : 1);
+    }
+
+    /**
+     * Renders a template for every recipient in a recipients file, writing one HTML file per recipient.
+     * Failures are reported as they occur and do not stop the remaining recipients from rendering.
+     * @param workspace the workspace containing the template and its modules and blocks
+     * @param template the template to render. The message context must be set, the data context is not used
+     * @param recipientsFile XML file whose root element contains one element per recipient
+     * @param outputFolder folder to write the HTML to, created if it does not exist
+     * @param parallelism number of recipients to render concurrently
+     * @return summary of the bulk render
+     */
+    public static BulkRenderSummary render(Workspace workspace, Template template, Path recipientsFile, Path outputFolder, int parallelism) {
+        if (!template.isMessageContextSet()) {
+            throw new IdeException("Message context is not set on template: " + template.getFileName(), null);
+        }
+
+        try {
+            Files.createDirectories(outputFolder);
+        } catch (IOException ioe) {
+            throw new IllegalArgumentException("Unable to create output folder: " + outputFolder, ioe);
+        }
+
+        long start = System.nanoTime();
+        // The message context is the same for every recipient, so is parsed once
+        XmlContextCache.ParsedXmlContext messageContext =
+                TemplateRenderer.loadContext(template, template.getMessageContextAbsoluteFilePath(), false);
+        ScriptCache.CachedScript cachedScript = compile(workspace, template);
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(parallelism, parallelism, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), new RendererThreadFactory("bulk-renderer"));
+        Semaphore recordsInFlight = new Semaphore(parallelism * RECORDS_IN_FLIGHT_PER_THREAD);
+        AtomicInteger failureCount = new AtomicInteger();
+        int recipientCount = 0;
+
+        XMLInputFactory inputFactory = XMLInputFactory.newFactory();
+        inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        inputFactory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        XMLOutputFactory outputFactory = XMLOutputFactory.newFactory();
+
+        try (InputStream inputStream = Files.newInputStream(recipientsFile)) {
+            XMLEventReader reader = inputFactory.createXMLEventReader(inputStream);
+            int depth = 0;
+            while (reader.hasNext()) {
+                XMLEvent event = reader.nextEvent();
+                if (event.isStartElement() && depth == 1) {
+                    StartElement recordElement = event.asStartElement();
+                    String recordContent = readRecord(reader, recordElement, outputFactory);
+                    String recipientContext = RECIPIENT_ELEMENT_NAME.equals(recordElement.getName().getLocalPart())
+                            ? "<rtEvent>" + recordContent + "</rtEvent>"
+                            : recordContent;
+
+                    int recipientIndex = ++recipientCount;
+                    String recipientName = recipientsFile.getFileName() + "[" + recipientIndex + "]";
+                    Path outputFile = outputFolder.resolve(
+                            String.format("%s_%06d%s", template.getBaseFileName(), recipientIndex, OUTPUT_FILE_EXTENSION));
+
+                    // Block the reader until a worker is free, so records are not all held in memory
+                    recordsInFlight.acquire();
+                    executor.execute(() -> {
+                        try {
+                            renderRecipient(template, cachedScript, recipientName, recipientContext, messageContext, outputFile);
+                        } catch (Exception exception) {
+                            failureCount.incrementAndGet();
+                            System.err.println("FAIL  recipient " + recipientIndex + ": " + exception.getMessage());
+                        } finally {
+                            recordsInFlight.release();
+                        }
+                    });
+                } else if (event.isStartElement()) {
+                    depth++;
+                } else if (event.isEndElement()) {
+                    depth--;
+                }
+            }
+            reader.close();
+
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        } catch (IOException | XMLStreamException exception) {
+            throw new IdeException("An error occurred reading the recipients file: " + recipientsFile, exception);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Bulk render was interrupted", ie);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        return new BulkRenderSummary(recipientCount, failureCount.get(), System.nanoTime() - start);
+    }
+
+    /**
+     * Expands and compiles the template once, for every recipient to share
+     */
+    private static ScriptCache.CachedScript compile(Workspace workspace, Template template) {
+        Context cx = TemplateRenderer.enterContext();
+        try {
+            return TemplateRenderer.compile(workspace, template, cx, true);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static void renderRecipient(Template template, ScriptCache.CachedScript cachedScript, String recipientName, String recipientContext,
+                                        XmlContextCache.ParsedXmlContext messageContext, Path outputFile) throws IOException {
+        // Reuses the context held by the worker thread
+        Context cx = TemplateRenderer.enterContext();
+        try {
+            Scriptable scope = SharedScope.newRenderScope(cx);
+            TemplateRenderer.parseContext(template, recipientContext, recipientName).bind(cx, scope, "rtEvent");
+            messageContext.bind(cx, scope, "message");
+            String output = TemplateRenderer.execute(template, cachedScript, cx, scope);
+            Files.writeString(outputFile, output, StandardCharsets.UTF_8);
+        } finally {
+            Context.exit();
+        }
+    }
+
+    /**
+     * Copies a single record, from its start element to its matching end element, into a string
+     */
+    private static String readRecord(XMLEventReader reader, StartElement recordElement, XMLOutputFactory outputFactory) throws XMLStreamException {
+        StringWriter recordWriter = new StringWriter();
+        XMLEventWriter writer = outputFactory.createXMLEventWriter(recordWriter);
+        writer.add(recordElement);
+
+        int depth = 1;
+        while (depth > 0) {
+            XMLEvent event = reader.nextEvent();
+            if (event.isStartElement()) {
+                depth++;
+            } else if (event.isEndElement()) {
+                depth--;
+            }
+            writer.add(event);
+        }
+        writer.close();
+        return recordWriter.toString();
+    }
+}
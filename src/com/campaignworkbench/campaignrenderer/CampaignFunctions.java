@@ -28,9 +28,9 @@ public class CampaignFunctions {
     public static Object parseTimeStamp(String timestamp) {
         try {
             Instant instant = Instant.parse(timestamp); // parse ISO-8601
-            // Convert to JS Date in Rhino
+            // Convert to JS Date in Rhino, using the shared standard objects rather than creating new ones
             Context cx = Context.getCurrentContext();
-            return cx.newObject(cx.initStandardObjects(), "Date", new Object[]{instant.toEpochMilli()});
+            return cx.newObject(SharedScope.getSharedScope(cx), "Date", new Object[]{instant.toEpochMilli()});
         } catch (DateTimeParseException ex) {
             throw new IllegalArgumentException("Error parsing timestamp: " + timestamp, ex);
         }
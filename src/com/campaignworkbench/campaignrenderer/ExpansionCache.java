@@ -0,0 +1,96 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.util.FileStamp;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of the JavaScript each template compiles to, keyed on the template file. Each entry records
+ * the files read to produce it, being the template, the modules and blocks it includes, and the modules'
+ * data contexts. An entry is only used while none of those files have changed, and entries are removed
+ * when the workspace reports a change that affects the template. All methods are thread safe.
+ */
+public final class ExpansionCache {
+
+    /**
+     * The result of compiling a template
+     * @param generatedJavaScript the JavaScript generated from the template and everything it includes
+     * @param scriptCacheKey key of the compiled script in the script cache
+     * @param dependencies every file read while compiling, with its stamp from before it was read
+     */
+    public record Expansion(String generatedJavaScript, String scriptCacheKey, Map<Path, FileStamp> dependencies) {
+
+        /**
+         * @return true if none of the files the expansion was built from have changed
+         */
+        boolean isCurrent() {
+            for (Map.Entry<Path, FileStamp> dependency : dependencies.entrySet()) {
+                if (!dependency.getValue().matches(dependency.getKey())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private final LinkedHashMap<Path, Expansion> entries;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of expansions to hold
+     */
+    public ExpansionCache(int maxEntries) {
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Path, Expansion> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * @param templateFile full path to the template
+     * @return the expansion of the template, or null if it is not cached or any file it was built from has changed
+     */
+    public Expansion get(Path templateFile) {
+        Expansion expansion;
+        synchronized (this) {
+            expansion = entries.get(templateFile);
+        }
+        // Check the files outside the lock, as it touches the file system
+        if (expansion == null || !expansion.isCurrent()) {
+            return null;
+        }
+        return expansion;
+    }
+
+    /**
+     * @param templateFile full path to the template
+     * @param expansion the expansion of the template
+     */
+    public synchronized void put(Path templateFile, Expansion expansion) {
+        entries.put(templateFile, expansion);
+    }
+
+    /**
+     * @param templateFile full path to the template
+     * @return the expansion that was removed, or null if none was cached
+     */
+    public synchronized Expansion remove(Path templateFile) {
+        return entries.remove(templateFile);
+    }
+
+    /**
+     * Removes all expansions from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return number of expansions currently held
+     */
+    public synchronized int size() { return entries.size(); }
+}
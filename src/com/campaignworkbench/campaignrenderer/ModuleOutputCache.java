@@ -0,0 +1,98 @@
+package com.campaignworkbench.campaignrenderer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * LRU cache of rendered module output. A module's output depends only on its source and its data context,
+ * so entries are keyed on a hash of both. The cache is bounded by the number of entries and by the total
+ * length of the output held. All methods are thread safe.
+ */
+public final class ModuleOutputCache {
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final LinkedHashMap<String, String> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentChars;
+    private long hitCount;
+    private long missCount;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of module outputs to hold
+     * @param maxChars maximum total length of the module outputs to hold
+     */
+    public ModuleOutputCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Looks up the output of a module, recording a hit or a miss
+     * @param key hash of the module source and data context
+     * @return the module output, or null if not present
+     */
+    public synchronized String get(String key) {
+        String output = entries.get(key);
+        if (output == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return output;
+    }
+
+    /**
+     * Adds module output to the cache, evicting the least recently used entries if the cache is full
+     * @param key hash of the module source and data context
+     * @param output the rendered module output
+     */
+    public synchronized void put(String key, String output) {
+        if (output.length() > maxChars) {
+            return;
+        }
+
+        String previous = entries.put(key, output);
+        if (previous != null) {
+            currentChars -= previous.length();
+        }
+        currentChars += output.length();
+
+        Iterator<Map.Entry<String, String>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentChars > maxChars) && iterator.hasNext()) {
+            currentChars -= iterator.next().getValue().length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Removes all module output from the cache. Statistics are retained.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentChars = 0;
+    }
+
+    /**
+     * @return number of module renders avoided
+     */
+    public synchronized long getHitCount() { return hitCount; }
+
+    /**
+     * @return number of modules that had to be rendered
+     */
+    public synchronized long getMissCount() { return missCount; }
+
+    /**
+     * @return number of module outputs currently held
+     */
+    public synchronized int size() { return entries.size(); }
+
+    @Override
+    public synchronized String toString() {
+        return "Module cache: " + entries.size() + " outputs (~" + (currentChars * 2 / 1024) + " KB), "
+                + hitCount + " hits, " + missCount + " misses";
+    }
+}
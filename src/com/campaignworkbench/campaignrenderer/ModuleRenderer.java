@@ -1,12 +1,20 @@
 package com.campaignworkbench.campaignrenderer;
 
 import com.campaignworkbench.ide.IdeException;
+import com.campaignworkbench.util.HashUtil;
 import com.campaignworkbench.workspace.EtmModule;
 import com.campaignworkbench.workspace.Workspace;
+import com.campaignworkbench.workspace.WorkspaceFile;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Scriptable;
 
-import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
 
 /**
  * Renders a Module into template source.
@@ -14,35 +22,145 @@ import java.nio.file.Path;
  */
 public final class ModuleRenderer {
 
+    // Module output is reused for as long as the module source and its data context are unchanged
+    private static final int MODULE_CACHE_MAX_ENTRIES = 512;
+    private static final long MODULE_CACHE_MAX_CHARS = 16L * 1024 * 1024;
+    private static final ModuleOutputCache moduleOutputCache = new ModuleOutputCache(MODULE_CACHE_MAX_ENTRIES, MODULE_CACHE_MAX_CHARS);
+
+    private static final ExecutorService moduleExecutor = Executors.newFixedThreadPool(
+            Runtime.getRuntime().availableProcessors(), new RendererThreadFactory("module-renderer"));
+
     private ModuleRenderer() {}
 
+    /**
+     * @return the cache of rendered module output, for access to hit and miss statistics
+     */
+    public static ModuleOutputCache getModuleOutputCache() {
+        return moduleOutputCache;
+    }
+
+    /**
+     * Renders a module in a scope of its own, holding only the standard objects and the module's data context.
+     * The output is memoized on the module source and data context, so a module included several times, or by
+     * several templates, is only rendered once.
+     * @param workspace the workspace containing the module
+     * @param module the module to render
+     * @return template source generated by the module
+     */
+    public static String renderModule(Workspace workspace, EtmModule module) {
+        checkDataContext(module);
+        return renderModule(workspace, module, module.getWorkspaceFileContent());
+    }
+
+    /**
+     * Renders a module from the given source, such as unsaved text in an editor, rather than from its file.
+     * The output is memoized in the same way, so a module whose source hasn't changed is not rendered again.
+     * @param workspace the workspace containing the module
+     * @param module the module to render
+     * @param moduleSource source of the module
+     * @return template source generated by the module
+     */
+    public static String renderModule(Workspace workspace, EtmModule module, String moduleSource) {
+        checkDataContext(module);
+
+        XmlContextCache.ParsedXmlContext dataContext =
+                TemplateRenderer.loadContext(module, module.getDataContextAbsoluteFilePath(), false);
+        String cacheKey = HashUtil.sha256(moduleSource, dataContext.contentHash());
+
+        String output = moduleOutputCache.get(cacheKey);
+        if (output == null) {
+            Context cx = TemplateRenderer.enterContext();
+            try {
+                output = render(module, moduleSource, dataContext, cx, SharedScope.newRenderScope(cx));
+            } finally {
+                Context.exit();
+            }
+            moduleOutputCache.put(cacheKey, output);
+        }
+        return output;
+    }
+
+    /**
+     * Starts rendering modules concurrently, each on its own thread and Rhino context. The modules must finish by
+     * the deadline of the render on the current thread, if it has one.
+     * @param workspace the workspace containing the modules
+     * @param modules the modules to render
+     * @return the pending output of each module
+     */
+    public static Map<EtmModule, Future<String>> renderModulesAsync(Workspace workspace, Collection<EtmModule> modules) {
+        return renderModulesAsync(workspace, modules, WorkspaceFile::getWorkspaceFileContent);
+    }
+
+    /**
+     * Starts rendering modules concurrently, from the given sources rather than their files
+     * @param workspace the workspace containing the modules
+     * @param modules the modules to render
+     * @param sources gives the source of each module
+     * @return the pending output of each module
+     */
+    public static Map<EtmModule, Future<String>> renderModulesAsync(Workspace workspace, Collection<EtmModule> modules,
+                                                                    Function<WorkspaceFile, String> sources) {
+        Long deadline = RendererContextFactory.getDeadline(Context.getCurrentContext());
+        Map<EtmModule, Future<String>> moduleOutputs = new HashMap<>();
+        for (EtmModule module : modules) {
+            moduleOutputs.put(module, moduleExecutor.submit(() -> renderModuleBefore(deadline, workspace, module, sources)));
+        }
+        return moduleOutputs;
+    }
+
+    private static String renderModuleBefore(Long deadline, Workspace workspace, EtmModule module,
+                                             Function<WorkspaceFile, String> sources) {
+        // The module thread already holds a context, so this only gives access to it
+        Context cx = TemplateRenderer.enterContext();
+        Long previousDeadline = RendererContextFactory.setDeadline(cx, deadline);
+        try {
+            checkDataContext(module);
+            return renderModule(workspace, module, sources.apply(module));
+        } finally {
+            RendererContextFactory.setDeadline(cx, previousDeadline);
+            Context.exit();
+        }
+    }
+
+    /**
+     * Renders a module in the given scope, without memoizing the output
+     * @param workspace the workspace containing the module
+     * @param module the module to render
+     * @param cx the current Rhino context
+     * @param scope scope to render the module in
+     * @return template source generated by the module
+     */
     public static String renderModule(
             Workspace workspace,
             EtmModule module,
             Context cx,
             Scriptable scope
     ) {
+        checkDataContext(module);
+        XmlContextCache.ParsedXmlContext dataContext =
+                TemplateRenderer.loadContext(module, module.getDataContextAbsoluteFilePath(), false);
+        return render(module, module.getWorkspaceFileContent(), dataContext, cx, scope);
+    }
 
+    private static void checkDataContext(EtmModule module) {
         // Get the module context
         if(!module.isDataContextSet())
         {
             throw new IdeException("Data context is not set on module: " + module.getFileName(), null);
         }
+    }
 
-        Path xmlContextFile = module.getAbsoluteFilePath();
-        String xmlContextContent = module.getDataContextContent();
-
-        String moduleSource = module.getWorkspaceFileContent();
+    private static String render(
+            EtmModule module,
+            String moduleSource,
+            XmlContextCache.ParsedXmlContext dataContext,
+            Context cx,
+            Scriptable scope
+    ) {
         String moduleFileName = module.getBaseFileName();
         String js = "";
         try {
-            cx.evaluateString(
-                    scope,
-                    "var ctx = new XML(`" + xmlContextContent + "`);",
-                    xmlContextFile.getFileName().toString(),
-                    1,
-                    null
-            );
+            dataContext.bind(cx, scope, "ctx");
 
             js =
                     "var out = new java.lang.StringBuilder();\n" +
@@ -63,53 +181,39 @@ public final class ModuleRenderer {
                     rhinoException
             );
         }
+        catch (RendererContextFactory.ScriptInterruptedError interrupted) {
+            throw interrupted.toRendererException(module, js);
+        }
     }
 
     /**
      * Converts module syntax into JavaScript that writes template source.
-     * This is deliberately simpler than TemplateRenderer.
+     * This is deliberately simpler than TemplateCompiler, as modules do not support directives.
      */
     private static String transformModuleToJavaScript(String source) {
-        StringBuilder js = new StringBuilder();
+        StringBuilder js = new StringBuilder(source.length() + (source.length() >> 3));
+        int length = source.length();
         int pos = 0;
 
-        while (pos < source.length()) {
+        while (pos < length) {
             int start = source.indexOf("<%", pos);
             if (start == -1) {
-                appendText(js, source.substring(pos));
+                TemplateCompiler.appendText(js, source, pos, length);
                 break;
             }
 
-            appendText(js, source.substring(pos, start));
+            TemplateCompiler.appendText(js, source, pos, start);
 
-            int end = source.indexOf("%>", start);
+            int end = source.indexOf("%>", start + 2);
             if (end == -1) {
                 throw new IllegalArgumentException("Unclosed <% in module");
             }
 
-            String code = source.substring(start + 2, end).trim();
-
-            if (code.startsWith("=")) {
-                js.append("out.append(")
-                        .append(code.substring(1).trim())
-                        .append(");\n");
-            } else {
-                js.append(code).append("\n");
-            }
+            TemplateCompiler.appendCode(js, source, start + 2, end);
 
             pos = end + 2;
         }
 
         return js.toString();
     }
-
-    private static void appendText(StringBuilder js, String text) {
-        if (text.isEmpty()) return;
-        text = text.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\r\n", "\n")
-                .replace("\r", "\n")
-                .replace("\n", "\\n");
-        js.append("out.append(\"").append(text).append("\");\n");
-    }
-}
\ No newline at end of file
+}
@@ -0,0 +1,98 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.workspace.WorkspaceFile;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+
+/**
+ * Creates the Rhino contexts used for rendering. Every context periodically checks whether the thread running it
+ * has been interrupted or has passed its render deadline, and if so stops the script, so a template that loops
+ * forever can be cancelled.
+ */
+final class RendererContextFactory extends ContextFactory {
+
+    // Instructions executed between checks, small enough to stop a loop promptly
+    private static final int INSTRUCTION_OBSERVER_THRESHOLD = 10_000;
+
+    private static final Object DEADLINE_KEY = new Object();
+
+    @Override
+    protected Context makeContext() {
+        Context cx = super.makeContext();
+        // Also makes compiled scripts count their instructions
+        cx.setInstructionObserverThreshold(INSTRUCTION_OBSERVER_THRESHOLD);
+        return cx;
+    }
+
+    @Override
+    protected void observeInstructionCount(Context cx, int instructionCount) {
+        if (Thread.currentThread().isInterrupted()) {
+            throw new ScriptInterruptedError(false, currentLine());
+        }
+        if (getDeadline(cx) instanceof Long deadline && System.nanoTime() - deadline > 0) {
+            throw new ScriptInterruptedError(true, currentLine());
+        }
+    }
+
+    private static int currentLine() {
+        // Rhino only gives the position of the running script in the errors it creates
+        return Context.reportRuntimeError("Script stopped").lineNumber();
+    }
+
+    /**
+     * @param cx the current Rhino context, or null if there isn't one
+     * @return the System.nanoTime() by which scripts run in the context must finish, or null if there is no limit
+     */
+    static Long getDeadline(Context cx) {
+        return cx == null ? null : (Long) cx.getThreadLocal(DEADLINE_KEY);
+    }
+
+    /**
+     * Sets the time by which scripts run in a context must finish
+     * @param cx the current Rhino context
+     * @param deadline System.nanoTime() by which scripts must finish, or null for no limit
+     * @return the previous deadline, to restore when the render ends
+     */
+    static Long setDeadline(Context cx, Long deadline) {
+        Long previous = getDeadline(cx);
+        if (deadline == null) {
+            cx.removeThreadLocal(DEADLINE_KEY);
+        } else {
+            cx.putThreadLocal(DEADLINE_KEY, deadline);
+        }
+        return previous;
+    }
+
+    /**
+     * Thrown out of a running script to stop it. An Error rather than an exception, so it can't be caught by
+     * the script.
+     */
+    static final class ScriptInterruptedError extends Error {
+
+        private final boolean timedOut;
+        private final int line;
+
+        ScriptInterruptedError(boolean timedOut, int line) {
+            super(timedOut ? "Script did not finish within the time limit" : "Script was cancelled", null, false, false);
+            this.timedOut = timedOut;
+            this.line = line;
+        }
+
+        /**
+         * @param workspaceFile the template or module that was running
+         * @param sourceCode the script that was running
+         * @return the error to report for the stopped script
+         */
+        RendererExecutionException toRendererException(WorkspaceFile workspaceFile, String sourceCode) {
+            return new RendererExecutionException(
+                    (timedOut ? "Execution timed out: " : "Execution cancelled: ") + workspaceFile.getFileName(),
+                    workspaceFile,
+                    sourceCode,
+                    line,
+                    getMessage(),
+                    timedOut ? "Check for loops that never end, or increase the render timeout" : "Run the template again",
+                    this
+            );
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.campaignworkbench.campaignrenderer;
+
+/**
+ * Determines how the renderer executes the JavaScript generated from a template
+ */
+public enum RendererExecutionMode {
+    /**
+     * Always run templates in the Rhino interpreter. Cheapest to compile, slowest to run.
+     */
+    INTERPRETED,
+    /**
+     * Always compile templates to JVM bytecode. Slower to compile, fastest to run.
+     */
+    COMPILED,
+    /**
+     * Interpret templates until they have run a number of times, then compile them to JVM bytecode
+     */
+    ADAPTIVE;
+
+    /**
+     * Number of executions after which an adaptive template is considered hot
+     */
+    public static final int HOT_TEMPLATE_THRESHOLD = 3;
+
+    /**
+     * @param executionCount number of times the template has already run
+     * @return true if the template should be compiled to JVM bytecode
+     */
+    public boolean isBytecodeRequired(int executionCount) {
+        return switch (this) {
+            case INTERPRETED -> false;
+            case COMPILED -> true;
+            case ADAPTIVE -> executionCount >= HOT_TEMPLATE_THRESHOLD;
+        };
+    }
+}
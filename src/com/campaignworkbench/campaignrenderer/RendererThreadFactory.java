@@ -0,0 +1,38 @@
+package com.campaignworkbench.campaignrenderer;
+
+import org.mozilla.javascript.Context;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates daemon threads that hold a Rhino context for their whole lifetime. Renders on these threads
+ * reuse the thread's context rather than creating and configuring a new one for every task.
+ */
+public final class RendererThreadFactory implements ThreadFactory {
+
+    private final String namePrefix;
+    private final AtomicInteger threadCount = new AtomicInteger();
+
+    /**
+     * Constructor
+     * @param namePrefix prefix for the name of each thread created
+     */
+    public RendererThreadFactory(String namePrefix) {
+        this.namePrefix = namePrefix;
+    }
+
+    @Override
+    public Thread newThread(Runnable runnable) {
+        Thread thread = new Thread(() -> {
+            TemplateRenderer.enterContext();
+            try {
+                runnable.run();
+            } finally {
+                Context.exit();
+            }
+        }, namePrefix + "-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+    }
+}
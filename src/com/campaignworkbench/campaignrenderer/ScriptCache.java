@@ -0,0 +1,176 @@
+package com.campaignworkbench.campaignrenderer;
+
+import org.mozilla.javascript.Script;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * LRU cache of compiled Rhino scripts, keyed on a content hash of the JavaScript generated from a template.
+ * The cache is bounded both by the number of entries and by an estimate of the memory held by each entry,
+ * evicting the least recently used scripts first. All methods are thread safe.
+ */
+public final class ScriptCache {
+
+    /**
+     * The form a script has been compiled into
+     */
+    public enum ScriptForm {
+        /** Compiled for the Rhino interpreter */
+        INTERPRETED,
+        /** Compiled to JVM bytecode */
+        BYTECODE,
+        /** Bytecode was requested, but the script exceeded a class file limit so is interpreted */
+        INTERPRETED_FALLBACK
+    }
+
+    /**
+     * A compiled script along with the JavaScript it was compiled from
+     * @param generatedJavaScript the JavaScript source generated from the expanded template
+     * @param script the compiled Rhino script
+     * @param form the form the script has been compiled into
+     * @param executionCount number of times the script has been executed, carried over when a script is recompiled
+     */
+    public record CachedScript(String generatedJavaScript, Script script, ScriptForm form, AtomicInteger executionCount) {
+
+        /**
+         * @return true if the script was meant to be bytecode but exceeded a class file limit, so is interpreted
+         */
+        public boolean isInterpretedFallback() {
+            return form == ScriptForm.INTERPRETED_FALLBACK;
+        }
+
+        /**
+         * @return approximate number of bytes retained by this entry, covering the source and the compiled form
+         */
+        long estimatedSize() {
+            return (long) generatedJavaScript.length() * BYTES_PER_SOURCE_CHAR;
+        }
+    }
+
+    // Two bytes per retained UTF-16 char, doubled again to account for the compiled script
+    private static final int BYTES_PER_SOURCE_CHAR = 4;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, CachedScript> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentBytes;
+    private long hitCount;
+    private long missCount;
+    private long evictionCount;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of compiled scripts to hold
+     * @param maxBytes maximum estimated memory, in bytes, to hold
+     */
+    public ScriptCache(int maxEntries, long maxBytes) {
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Looks up a compiled script, recording a hit or a miss
+     * @param key content hash of the generated JavaScript
+     * @return the cached script, or null if not present
+     */
+    public synchronized CachedScript get(String key) {
+        CachedScript cachedScript = entries.get(key);
+        if (cachedScript == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return cachedScript;
+    }
+
+    /**
+     * Adds a compiled script to the cache, evicting the least recently used entries if the cache is full.
+     * Scripts that are larger than the whole cache are not stored.
+     * @param key content hash of the generated JavaScript
+     * @param cachedScript the compiled script to store
+     */
+    public synchronized void put(String key, CachedScript cachedScript) {
+        long size = cachedScript.estimatedSize();
+        if (size > maxBytes) {
+            return;
+        }
+
+        CachedScript previous = entries.put(key, cachedScript);
+        if (previous != null) {
+            currentBytes -= previous.estimatedSize();
+        }
+        currentBytes += size;
+        evict();
+    }
+
+    /**
+     * Removes a compiled script from the cache
+     * @param key content hash of the generated JavaScript
+     */
+    public synchronized void remove(String key) {
+        CachedScript removed = entries.remove(key);
+        if (removed != null) {
+            currentBytes -= removed.estimatedSize();
+        }
+    }
+
+    /**
+     * Removes all compiled scripts from the cache. Statistics are retained.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentBytes = 0;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<String, CachedScript>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentBytes > maxBytes) && iterator.hasNext()) {
+            currentBytes -= iterator.next().getValue().estimatedSize();
+            iterator.remove();
+            evictionCount++;
+        }
+    }
+
+    /**
+     * @return number of lookups that found a compiled script
+     */
+    public synchronized long getHitCount() { return hitCount; }
+
+    /**
+     * @return number of lookups that required the template to be compiled
+     */
+    public synchronized long getMissCount() { return missCount; }
+
+    /**
+     * @return number of scripts evicted to keep the cache within its bounds
+     */
+    public synchronized long getEvictionCount() { return evictionCount; }
+
+    /**
+     * @return number of compiled scripts currently held
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * @return estimated memory, in bytes, currently held by the cache
+     */
+    public synchronized long getEstimatedBytes() { return currentBytes; }
+
+    /**
+     * @return number of scripts currently held that fell back to the interpreter as they exceeded a class file limit
+     */
+    public synchronized long getInterpretedFallbackCount() {
+        return entries.values().stream().filter(CachedScript::isInterpretedFallback).count();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Script cache: " + entries.size() + " scripts (~" + (currentBytes / 1024) + " KB), "
+                + hitCount + " hits, " + missCount + " misses, " + evictionCount + " evictions, "
+                + getInterpretedFallbackCount() + " interpreted fallbacks";
+    }
+}
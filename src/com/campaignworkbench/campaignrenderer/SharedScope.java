@@ -0,0 +1,82 @@
+package com.campaignworkbench.campaignrenderer;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Provides a single, sealed top level scope containing the JavaScript standard objects and the
+ * Campaign functions. The scope is built once per process and shared by every render, which then
+ * only needs a lightweight child scope of its own.
+ */
+public final class SharedScope {
+
+    private static volatile ScriptableObject sharedScope;
+
+    private SharedScope() {}
+
+    /**
+     * Creates an empty top level scope for a single render. Variables declared by the render are held
+     * in this scope, while standard objects and functions are inherited from the shared scope.
+     * @param cx the current Rhino context
+     * @return new scope whose prototype is the shared scope
+     */
+    public static Scriptable newRenderScope(Context cx) {
+        ScriptableObject parentScope = getSharedScope(cx);
+        Scriptable renderScope = cx.newObject(parentScope);
+        renderScope.setPrototype(parentScope);
+        renderScope.setParentScope(null);
+        return renderScope;
+    }
+
+    /**
+     * Returns the shared scope, creating it on first use
+     * @param cx the current Rhino context
+     * @return the sealed shared scope
+     */
+    public static ScriptableObject getSharedScope(Context cx) {
+        ScriptableObject scope = sharedScope;
+        if (scope == null) {
+            synchronized (SharedScope.class) {
+                scope = sharedScope;
+                if (scope == null) {
+                    scope = createSharedScope(cx);
+                    sharedScope = scope;
+                }
+            }
+        }
+        return scope;
+    }
+
+    private static ScriptableObject createSharedScope(Context cx) {
+        ScriptableObject scope = cx.initStandardObjects(null, true);
+        injectStandardFunctions(cx, scope);
+
+        // Standard objects such as XML and Packages are loaded lazily, so load them before sealing
+        for (Object id : scope.getAllIds()) {
+            if (id instanceof String name) {
+                ScriptableObject.getProperty(scope, name);
+            }
+        }
+        scope.sealObject();
+        return scope;
+    }
+
+    private static void injectStandardFunctions(Context cx, Scriptable scope) {
+        cx.evaluateString(scope,
+                "var formatDate = function(d,f){" +
+                        " return com.campaignworkbench.campaignrenderer.CampaignFunctions.formatDate(d,f);" +
+                        "};",
+                "campaignFunctions.js", 1, null);
+
+        cx.evaluateString(scope,
+                "var parseTimeStamp = function(s){" +
+                        " return com.campaignworkbench.campaignrenderer.CampaignFunctions.parseTimeStamp(s);" +
+                        "};",
+                "campaignFunctions.js", 1, null);
+
+        cx.evaluateString(scope,
+                "var System = Packages.java.lang.System;",
+                "jsImports.js", 1, null);
+    }
+}
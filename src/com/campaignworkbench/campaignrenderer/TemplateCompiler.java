@@ -0,0 +1,323 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.util.FileStamp;
+import com.campaignworkbench.workspace.*;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Compiles template source into the JavaScript that renders it, in a single pass.
+ * <p>
+ * The source is scanned once for &lt;%@ directives, &lt;%= expressions and &lt;% code blocks. Included modules
+ * and blocks are compiled in place as they are found, and the JavaScript is written straight into one buffer,
+ * with text escaped a character at a time rather than through a chain of String.replace calls.
+ * <p>
+ * Modules included directly by the template, or by its blocks, are found before compiling and rendered
+ * concurrently, so a template with several modules only waits for the slowest of them.
+ */
+public final class TemplateCompiler {
+
+    private static final String PREAMBLE = "var out = new java.lang.StringBuilder();\n";
+    private static final String EPILOGUE = "out.toString();";
+
+    private TemplateCompiler() {}
+
+    /**
+     * Compiles template source, and any modules and blocks it includes, into JavaScript
+     * @param workspace the workspace containing the included modules and blocks
+     * @param workspaceFile the file the source was read from
+     * @param source the template source
+     * @return JavaScript that evaluates to the rendered output
+     */
+    public static String compile(Workspace workspace, WorkspaceFile workspaceFile, String source) {
+        return compile(workspace, workspaceFile, source, new HashMap<>());
+    }
+
+    /**
+     * Compiles template source, and any modules and blocks it includes, into JavaScript, recording every file read
+     * @param workspace the workspace containing the included modules and blocks
+     * @param workspaceFile the file the source was read from
+     * @param source the template source
+     * @param dependencies map to add each included module, block and module data context to, with its stamp from
+     *                     before it was read
+     * @return JavaScript that evaluates to the rendered output
+     */
+    public static String compile(Workspace workspace, WorkspaceFile workspaceFile, String source, Map<Path, FileStamp> dependencies) {
+        return compile(workspace, workspaceFile, source, dependencies, WorkspaceFile::getWorkspaceFileContent);
+    }
+
+    /**
+     * Compiles template source into JavaScript, reading each included module and block from the given sources
+     * rather than its file, such as the unsaved text in an editor
+     * @param workspace the workspace containing the included modules and blocks
+     * @param workspaceFile the file the source was read from
+     * @param source the template source
+     * @param dependencies map to add each included module, block and module data context to, with its stamp from
+     *                     before it was read
+     * @param sources gives the source of each included module and block
+     * @return JavaScript that evaluates to the rendered output
+     */
+    public static String compile(Workspace workspace, WorkspaceFile workspaceFile, String source, Map<Path, FileStamp> dependencies,
+                                 Function<WorkspaceFile, String> sources) {
+        // Only worth handing modules to other threads if there is more than one to render
+        Set<EtmModule> includedModules = new LinkedHashSet<>();
+        findIncludedModules(workspace, source, includedModules, new HashSet<>(), sources);
+        includedModules.forEach(module -> addModuleDependencies(module, dependencies));
+        Map<EtmModule, Future<String>> moduleOutputs = includedModules.size() > 1
+                ? ModuleRenderer.renderModulesAsync(workspace, includedModules, sources)
+                : Map.of();
+
+        // Escaping and the generated statements add roughly an eighth to the size of the text
+        StringBuilder js = new StringBuilder(PREAMBLE.length() + source.length() + (source.length() >> 3) + EPILOGUE.length());
+        js.append(PREAMBLE);
+        try {
+            compileInto(js, workspace, workspaceFile, source, moduleOutputs, dependencies, sources);
+        } catch (RuntimeException | Error exception) {
+            // Stop modules still rendering for a template that has failed or been cancelled
+            moduleOutputs.values().forEach(pendingOutput -> pendingOutput.cancel(true));
+            throw exception;
+        }
+        js.append(EPILOGUE);
+        return js.toString();
+    }
+
+    private static void compileInto(StringBuilder js, Workspace workspace, WorkspaceFile workspaceFile, String source,
+                                    Map<EtmModule, Future<String>> moduleOutputs, Map<Path, FileStamp> dependencies,
+                                    Function<WorkspaceFile, String> sources) {
+        int length = source.length();
+        int pos = 0;
+
+        while (pos < length) {
+            int start = source.indexOf("<%", pos);
+            if (start == -1) {
+                appendText(js, source, pos, length);
+                break;
+            }
+
+            appendText(js, source, pos, start);
+
+            boolean directive = start + 2 < length && source.charAt(start + 2) == '@';
+            int end = source.indexOf("%>", start + 2);
+            if (end == -1) {
+                throw new IllegalArgumentException(directive ? "Unclosed <%@ directive" : "Unclosed <% tag");
+            }
+
+            if (directive) {
+                compileDirective(js, workspace, workspaceFile, source, source.substring(start + 3, end).trim(), moduleOutputs, dependencies, sources);
+            } else {
+                appendCode(js, source, start + 2, end);
+            }
+
+            pos = end + 2;
+        }
+    }
+
+    private static void compileDirective(StringBuilder js, Workspace workspace, WorkspaceFile workspaceFile, String source, String directive,
+                                         Map<EtmModule, Future<String>> moduleOutputs, Map<Path, FileStamp> dependencies,
+                                         Function<WorkspaceFile, String> sources) {
+        if (!directive.startsWith("include")) {
+            return;
+        }
+
+        if (directive.contains("module=")) {
+            String name = extractQuoted(directive, "module");
+            EtmModule module = (EtmModule) workspace.getWorkspaceFile(name, WorkspaceFileType.MODULE);
+            if (module == null) {
+                throw new RendererParseException("Module not found in workspace: " + name,
+                        null,
+                        source,
+                        -1,
+                        "Module not found in workspace",
+                        "Check module name and check module is added to the workspace",
+                        null);
+            }
+            // A module generates template source, which may itself include other modules and blocks
+            addModuleDependencies(module, dependencies);
+            Future<String> pendingOutput = moduleOutputs.get(module);
+            String moduleOutput = pendingOutput != null
+                    ? awaitModuleOutput(pendingOutput)
+                    : ModuleRenderer.renderModule(workspace, module, sources.apply(module));
+            compileInto(js, workspace, workspaceFile, moduleOutput, moduleOutputs, dependencies, sources);
+        } else if (directive.contains("view=")) {
+            String name = extractQuoted(directive, "view");
+            PersoBlock block = (PersoBlock) workspace.getWorkspaceFile(name, WorkspaceFileType.BLOCK);
+            if (block == null) {
+                throw new RendererParseException("Block not found in workspace: " + name,
+                        null,
+                        source,
+                        -1,
+                        "Block not found in workspace",
+                        "Check block name and check block is added to the workspace",
+                        null);
+            }
+            dependencies.putIfAbsent(block.getAbsoluteFilePath(), FileStamp.of(block.getAbsoluteFilePath()));
+            compileInto(js, workspace, block, sources.apply(block), moduleOutputs, dependencies, sources);
+        }
+    }
+
+    /**
+     * Finds the modules included by source and by the blocks it includes. Malformed directives and missing
+     * files are skipped here, and reported when the source is compiled.
+     */
+    private static void findIncludedModules(Workspace workspace, String source, Set<EtmModule> modules, Set<PersoBlock> visitedBlocks,
+                                            Function<WorkspaceFile, String> sources) {
+        int pos = 0;
+        while (true) {
+            int start = source.indexOf("<%@", pos);
+            if (start == -1) {
+                return;
+            }
+            int end = source.indexOf("%>", start + 3);
+            if (end == -1) {
+                return;
+            }
+            pos = end + 2;
+
+            String directive = source.substring(start + 3, end).trim();
+            if (!directive.startsWith("include")) {
+                continue;
+            }
+            try {
+                if (directive.contains("module=")) {
+                    if (workspace.getWorkspaceFile(extractQuoted(directive, "module"), WorkspaceFileType.MODULE) instanceof EtmModule module) {
+                        modules.add(module);
+                    }
+                } else if (directive.contains("view=")) {
+                    if (workspace.getWorkspaceFile(extractQuoted(directive, "view"), WorkspaceFileType.BLOCK) instanceof PersoBlock block
+                            && visitedBlocks.add(block)) {
+                        findIncludedModules(workspace, sources.apply(block), modules, visitedBlocks, sources);
+                    }
+                }
+            } catch (IllegalArgumentException ignored) {
+                // Reported when compiled
+            }
+        }
+    }
+
+    private static void addModuleDependencies(EtmModule module, Map<Path, FileStamp> dependencies) {
+        dependencies.putIfAbsent(module.getAbsoluteFilePath(), FileStamp.of(module.getAbsoluteFilePath()));
+        if (module.isDataContextSet()) {
+            Path dataContextFile = module.getDataContextAbsoluteFilePath();
+            dependencies.putIfAbsent(dataContextFile, FileStamp.of(dataContextFile));
+        }
+    }
+
+    private static String awaitModuleOutput(Future<String> pendingOutput) {
+        try {
+            return pendingOutput.get();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while waiting for a module to render", ie);
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof RuntimeException runtimeException) {
+                throw runtimeException;
+            }
+            throw new IllegalStateException("Module failed to render", ee.getCause());
+        }
+    }
+
+    /**
+     * Appends the code between &lt;% and %&gt;, trimmed. Code starting with '=' is an expression whose value is output.
+     */
+    static void appendCode(StringBuilder js, String source, int start, int end) {
+        while (start < end && source.charAt(start) <= ' ') {
+            start++;
+        }
+        while (end > start && source.charAt(end - 1) <= ' ') {
+            end--;
+        }
+
+        if (start < end && source.charAt(start) == '=') {
+            start++;
+            while (start < end && source.charAt(start) <= ' ') {
+                start++;
+            }
+            js.append("out.append(").append(source, start, end).append(");\n");
+        } else {
+            js.append(source, start, end).append('\n');
+        }
+    }
+
+    /**
+     * Appends a statement that outputs a range of literal text
+     */
+    static void appendText(StringBuilder js, String source, int start, int end) {
+        if (start >= end) return;
+        js.append("out.append(\"");
+        appendEscaped(js, source, start, end);
+        js.append("\");\n");
+    }
+
+    /**
+     * Appends a range of text escaped for use in a double-quoted JavaScript string literal. Line endings are
+     * normalised to \n, and the Unicode line and paragraph separators, which end a line in JavaScript, are escaped.
+     * @param js buffer to append to
+     * @param text the text to escape
+     * @param start index of the first character to escape
+     * @param end index after the last character to escape
+     */
+    public static void appendEscaped(StringBuilder js, CharSequence text, int start, int end) {
+        int unescaped = start;
+        for (int i = start; i < end; i++) {
+            char c = text.charAt(i);
+            String escape = switch (c) {
+                case '\\' -> "\\\\";
+                case '"' -> "\\\"";
+                case '\n' -> "\\n";
+                case '\r' -> (i + 1 < end && text.charAt(i + 1) == '\n') ? "" : "\\n";
+                case '\u2028' -> "\\u2028";
+                case '\u2029' -> "\\u2029";
+                default -> null;
+            };
+            if (escape != null) {
+                js.append(text, unescaped, i).append(escape);
+                unescaped = i + 1;
+            }
+        }
+        js.append(text, unescaped, end);
+    }
+
+    private static String extractQuoted(String directive, String key) {
+        int keyPos = directive.indexOf(key + "=");
+        if (keyPos == -1) {
+            throw new IllegalArgumentException(
+                    "Missing attribute '" + key + "' in directive: " + directive
+            );
+        }
+
+        int quotePos = keyPos + key.length() + 1;
+        int end = getEnd(directive, key, quotePos);
+        if (end == -1) {
+            throw new IllegalArgumentException(
+                    "Unterminated quoted value for '" + key + "' in directive: " + directive
+            );
+        }
+
+        return directive.substring(quotePos + 1, end);
+    }
+
+    private static int getEnd(String directive, String key, int quotePos) {
+        if (quotePos >= directive.length()) {
+            throw new IllegalArgumentException(
+                    "Malformed attribute '" + key + "' in directive: " + directive
+            );
+        }
+
+        char quote = directive.charAt(quotePos);
+        if (quote != '\'' && quote != '"') {
+            throw new IllegalArgumentException(
+                    "Attribute '" + key + "' must be quoted in directive: " + directive
+            );
+        }
+
+        return directive.indexOf(quote, quotePos + 1);
+    }
+}
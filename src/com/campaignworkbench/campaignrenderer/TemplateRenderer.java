@@ -1,12 +1,27 @@
 package com.campaignworkbench.campaignrenderer;
 
 import com.campaignworkbench.ide.IdeException;
+import com.campaignworkbench.util.FileStamp;
+import com.campaignworkbench.util.HashUtil;
 import com.campaignworkbench.workspace.*;
 import org.mozilla.javascript.Context;
+import org.mozilla.javascript.GeneratedClassLoader;
 import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Script;
 import org.mozilla.javascript.Scriptable;
+import org.xml.sax.SAXException;
+import org.xml.sax.SAXParseException;
 
 import java.nio.file.Path;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 /**
  * Main renderer class, responsible for parsing templates, modules, blocks, and XML context
@@ -14,9 +29,95 @@ import java.nio.file.Path;
  */
 public final class TemplateRenderer {
 
+    // Compiled scripts are reused for as long as the expanded template is unchanged
+    private static final int SCRIPT_CACHE_MAX_ENTRIES = 256;
+    private static final long SCRIPT_CACHE_MAX_BYTES = 64L * 1024 * 1024;
+    private static final ScriptCache scriptCache = new ScriptCache(SCRIPT_CACHE_MAX_ENTRIES, SCRIPT_CACHE_MAX_BYTES);
+
+    // Scripts compiled from unsaved text change on every edit, so only the latest for each template is kept,
+    // out of the script cache
+    private record UnsavedScript(String cacheKey, ScriptCache.CachedScript cachedScript) {}
+    private static final Map<Path, UnsavedScript> unsavedScripts = new ConcurrentHashMap<>();
+
+    // Parsed contexts are reused until the context file changes
+    private static final int XML_CONTEXT_CACHE_MAX_ENTRIES = 32;
+    private static final XmlContextCache xmlContextCache = new XmlContextCache(XML_CONTEXT_CACHE_MAX_ENTRIES);
+
+    // Generated JavaScript is reused until the template, or a file it includes, changes
+    private static final int EXPANSION_CACHE_MAX_ENTRIES = 256;
+    private static final ExpansionCache expansionCache = new ExpansionCache(EXPANSION_CACHE_MAX_ENTRIES);
+    private static final Set<Workspace> watchedWorkspaces = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private static final int INTERPRETED_OPTIMIZATION_LEVEL = -1;
+    private static final int BYTECODE_OPTIMIZATION_LEVEL = 9;
+
+    private static volatile RendererExecutionMode executionMode = RendererExecutionMode.ADAPTIVE;
+
+    // Told the source name of each template too large to compile to bytecode
+    private static volatile Consumer<String> interpretedFallbackListener = _ -> {};
+
+    // Contexts check for cancellation and the render deadline as scripts run
+    private static final RendererContextFactory contextFactory = new RendererContextFactory();
+
+    // Renders started from the IDE run one at a time, away from the UI thread
+    private static final ExecutorService renderExecutor =
+            Executors.newSingleThreadExecutor(new RendererThreadFactory("template-renderer"));
+
+    private static final Duration DEFAULT_RENDER_TIMEOUT = Duration.ofSeconds(30);
+    private static volatile Duration renderTimeout = DEFAULT_RENDER_TIMEOUT;
+
     private TemplateRenderer() {
     }
 
+    /**
+     * @return the mode used to execute templates
+     */
+    public static RendererExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * Sets how templates are executed. Cached scripts are recompiled into the new form the next time they run.
+     * @param mode the mode used to execute templates
+     */
+    public static void setExecutionMode(RendererExecutionMode mode) {
+        executionMode = mode;
+    }
+
+    /**
+     * @return the longest a render started with renderAsync may run before it is stopped
+     */
+    public static Duration getRenderTimeout() {
+        return renderTimeout;
+    }
+
+    /**
+     * Sets the listener told when a template is too large to compile to bytecode, so is interpreted instead.
+     * Called on the thread compiling the template.
+     * @param listener accepts the source name of the template
+     */
+    public static void setInterpretedFallbackListener(Consumer<String> listener) {
+        interpretedFallbackListener = Objects.requireNonNull(listener);
+    }
+
+    /**
+     * Sets the longest a render started with renderAsync may run before it is stopped
+     * @param timeout the time limit, which must be positive
+     */
+    public static void setRenderTimeout(Duration timeout) {
+        if (timeout.isNegative() || timeout.isZero()) {
+            throw new IllegalArgumentException("Render timeout must be positive: " + timeout);
+        }
+        renderTimeout = timeout;
+    }
+
+    /**
+     * @return the cache of compiled template scripts, for access to hit and miss statistics
+     */
+    public static ScriptCache getScriptCache() {
+        return scriptCache;
+    }
+
     /**
      * @return HTML source of the renderer page
      */
@@ -24,8 +125,141 @@ public final class TemplateRenderer {
             Workspace workspace,
             Template template
     ) {
-        String js;
+        Context cx = enterContext();
+        try {
+            return render(workspace, template, Map.of(), cx);
+        } finally {
+            Context.exit();
+        }
+    }
 
+    /**
+     * Renders a template, stopping it if it runs for longer than the given time
+     * @param workspace the workspace containing the template
+     * @param template the template to render
+     * @param timeout the time limit, covering modules rendered for the template on other threads
+     * @return HTML source of the renderer page
+     */
+    public static TemplateRenderResult render(
+            Workspace workspace,
+            Template template,
+            Duration timeout
+    ) {
+        return render(workspace, template, Map.of(), timeout);
+    }
+
+    /**
+     * Renders a template using unsaved text, such as the content of open editors, in place of the files it is
+     * for. Modules whose source and data context are unchanged are not rendered again.
+     * @param workspace the workspace containing the template
+     * @param template the template to render
+     * @param unsavedSources text to use for the template and the modules and blocks it includes, in place of
+     *                       their files
+     * @param timeout the time limit, covering modules rendered for the template on other threads
+     * @return HTML source of the renderer page
+     */
+    public static TemplateRenderResult render(
+            Workspace workspace,
+            Template template,
+            Map<WorkspaceFile, String> unsavedSources,
+            Duration timeout
+    ) {
+        Context cx = enterContext();
+        Long previousDeadline = RendererContextFactory.setDeadline(cx, System.nanoTime() + timeout.toNanos());
+        try {
+            return render(workspace, template, unsavedSources, cx);
+        } finally {
+            RendererContextFactory.setDeadline(cx, previousDeadline);
+            Context.exit();
+        }
+    }
+
+    /**
+     * Renders a template on the background renderer thread, within the render timeout. Renders run one at a
+     * time, in the order they were started. Cancelling the returned future interrupts the render, stopping its
+     * script, and neither callback is then called.
+     * @param workspace the workspace containing the template
+     * @param template the template to render
+     * @param onRendered called on the renderer thread with the result of the render
+     * @param onFailed called on the renderer thread with the error if the render fails
+     * @return the pending render
+     */
+    public static Future<?> renderAsync(
+            Workspace workspace,
+            Template template,
+            Consumer<TemplateRenderResult> onRendered,
+            Consumer<RuntimeException> onFailed
+    ) {
+        return renderAsync(workspace, template, Map.of(), onRendered, onFailed);
+    }
+
+    /**
+     * Renders a template on the background renderer thread using unsaved text in place of files, as for
+     * render(Workspace, Template, Map, Duration)
+     * @param workspace the workspace containing the template
+     * @param template the template to render
+     * @param unsavedSources text to use in place of the files it is for, which mustn't change once passed in
+     * @param onRendered called on the renderer thread with the result of the render
+     * @param onFailed called on the renderer thread with the error if the render fails
+     * @return the pending render
+     */
+    public static Future<?> renderAsync(
+            Workspace workspace,
+            Template template,
+            Map<WorkspaceFile, String> unsavedSources,
+            Consumer<TemplateRenderResult> onRendered,
+            Consumer<RuntimeException> onFailed
+    ) {
+        Duration timeout = renderTimeout;
+        return renderExecutor.submit(() -> {
+            TemplateRenderResult result;
+            try {
+                result = render(workspace, template, unsavedSources, timeout);
+            } catch (RuntimeException exception) {
+                if (!Thread.currentThread().isInterrupted()) {
+                    onFailed.accept(exception);
+                }
+                return;
+            }
+            if (!Thread.currentThread().isInterrupted()) {
+                onRendered.accept(result);
+            }
+        });
+    }
+
+    /**
+     * @return the cache of JavaScript generated from templates
+     */
+    public static ExpansionCache getExpansionCache() {
+        return expansionCache;
+    }
+
+    /**
+     * @return the cache of parsed context XML files
+     */
+    public static XmlContextCache getXmlContextCache() {
+        return xmlContextCache;
+    }
+
+    /**
+     * Enters a Rhino context on the current thread, configured for rendering. If the thread already
+     * has a context, that context is reused. Scripts run in the context can be stopped by interrupting the
+     * thread. Every call must be paired with a call to Context.exit()
+     * @return the context for the current thread
+     */
+    static Context enterContext() {
+        Context cx = contextFactory.enterContext();
+        cx.setOptimizationLevel(INTERPRETED_OPTIMIZATION_LEVEL);
+        cx.setLanguageVersion(Context.VERSION_1_8);
+        return cx;
+    }
+
+    private static TemplateRenderResult render(
+            Workspace workspace,
+            Template template,
+            Map<WorkspaceFile, String> unsavedSources,
+            Context cx
+    ) {
         // Get the template context
         if (!template.isDataContextSet()) {
             throw new IdeException("Data context is not set on template: " + template.getFileName(), null);
@@ -35,285 +269,269 @@ public final class TemplateRenderer {
             throw new IdeException("Message context is not set on template: " + template.getFileName(), null);
         }
 
-        Path dataContextFile = template.getDataContextAbsoluteFilePath();
-        String dataContextContent = template.getDataContextContent();
+        // Standard objects and Campaign functions are inherited from the shared scope
+        Scriptable scope = SharedScope.newRenderScope(cx);
 
-        // Add 'rtEvent' wrapper if given <ctx> root
-        if (dataContextContent.startsWith("<ctx>")) {
-            dataContextContent = "<rtEvent>" + dataContextContent + "</rtEvent>";
-        }
+        // Add the Data Context, then the Message Context
+        loadContext(template, template.getDataContextAbsoluteFilePath(), true).bind(cx, scope, "rtEvent");
+        loadContext(template, template.getMessageContextAbsoluteFilePath(), false).bind(cx, scope, "message");
 
-        Path messageContextFile = template.getMessageContextAbsoluteFilePath();
-        String messageContextContent = template.getMessageContextContent();
+        ScriptCache.CachedScript cachedScript = compile(workspace, template, unsavedSources, cx, false);
+        String result = execute(template, cachedScript, cx, scope);
+        return new TemplateRenderResult(cachedScript.generatedJavaScript(), result);
+    }
 
-        String templateSource = template.getWorkspaceFileContent();
-        String sourceName = template.getFileName();
+    /**
+     * Adds an 'rtEvent' wrapper if the data context is given a &lt;ctx&gt; root
+     * @param dataContextContent the data context XML
+     * @return XML with an rtEvent root
+     */
+    static String wrapDataContext(String dataContextContent) {
+        if (dataContextContent.startsWith("<ctx>")) {
+            return "<rtEvent>" + dataContextContent + "</rtEvent>";
+        }
+        return dataContextContent;
+    }
 
-        Context cx;
-        Scriptable scope;
+    /**
+     * Returns the parsed form of a context file, from the context cache where possible
+     * @param workspaceFile the template or module being rendered, used when reporting errors
+     * @param contextFile the context XML file
+     * @param wrapCtx true to add an 'rtEvent' wrapper if the file has a &lt;ctx&gt; root
+     * @return the parsed context, ready to bind into a scope
+     */
+    static XmlContextCache.ParsedXmlContext loadContext(WorkspaceFile workspaceFile, Path contextFile, boolean wrapCtx) {
         try {
-
-            cx = Context.enter();
-            cx.setOptimizationLevel(-1);
-            cx.setLanguageVersion(Context.VERSION_1_8);
-            scope = cx.initStandardObjects();
-
-            // Add the Data Context
-            cx.evaluateString(
-                    scope,
-                    "var rtEvent = new XML(`" + dataContextContent + "`);",
-                    dataContextFile.getFileName().toString(),
-                    1,
-                    null
-            );
-
-            scope.put("xmlContext", scope, dataContextContent);
-
-            // Add the Message Context
-            cx.evaluateString(
-                    scope,
-                    "var message = new XML(`" + messageContextContent + "`);",
-                    messageContextFile.getFileName().toString(),
-                    1,
-                    null
-            );
-
-            scope.put("xmlContext", scope, messageContextContent);
-
-            injectStandardFunctions(cx, scope);
-        } catch (RhinoException rhinoException) {
-            throw new RendererInitException(
-                    "An unexpected error occurred while setting XML context",
-                    template,
-                    template.getWorkspaceFileContent(),
-                    rhinoException.lineNumber(),
-                    rhinoException.details(),
-                    "Please check the context XML",
-                    rhinoException
-            );
+            return xmlContextCache.get(contextFile, wrapCtx);
         } catch (Exception exception) {
-            throw new RendererInitException(
-                    "An unexpected error occurred while setting XML context",
-                    template,
-                    template.getWorkspaceFileContent(),
-                    -1,
-                    exception.getMessage(),
-                    "Please check the context XML",
-                    exception
-            );
+            throw toContextException(workspaceFile, contextFile.getFileName().toString(), exception);
         }
+    }
 
-        js = "";
-
+    /**
+     * Parses context XML that was not read from a workspace file, such as a bulk render recipient
+     * @param workspaceFile the template being rendered, used when reporting errors
+     * @param content the context XML
+     * @param sourceName name of the XML source, used when reporting errors
+     * @return the parsed context, ready to bind into a scope
+     */
+    static XmlContextCache.ParsedXmlContext parseContext(WorkspaceFile workspaceFile, String content, String sourceName) {
         try {
-            // PREPROCESS (no JavaScript execution)
-            String expanded = preprocess(workspace, template, templateSource, cx, scope);
-
-            // TRANSFORM TO JS
-            js = transformToJavaScript(expanded);
-
-            // EXECUTE
-            Object result = cx.evaluateString(scope, js, sourceName, 1, null);
-            return new TemplateRenderResult(js, Context.toString(result));
-        } catch (org.mozilla.javascript.EvaluatorException evaluatorException) {
-            throw new RendererParseException(
-                    "JavaScript evaluator error: " + evaluatorException.getMessage(),
-                    template,
-                    js,
-                    evaluatorException.lineNumber(),
-                    evaluatorException.details(),
-                    "Check JavaScript syntax is the template and associated modules and blocks",
-                    evaluatorException
-            );
-        } catch (org.mozilla.javascript.JavaScriptException javaScriptException) {
-            throw new RendererExecutionException(
-                    "JavaScript execution error: " + javaScriptException.getMessage(),
-                    template,
-                    js,
-                    javaScriptException.lineNumber(),
-                    javaScriptException.details(),
-                    "Check JavaScript syntax is the template and associated modules and blocks",
-                    javaScriptException
-
-            );
-        } catch (org.mozilla.javascript.RhinoException rhinoError) {
-            throw new RendererExecutionException(
-                    "Rhino error: " + rhinoError.getMessage(),
-                    template,
-                    js,
-                    rhinoError.lineNumber(),
-                    rhinoError.details(),
-                    "Check JavaScript syntax is the template and associated modules and blocks",
-                    rhinoError
-            );
+            return XmlContextCache.parse(content, sourceName);
+        } catch (SAXException saxException) {
+            throw toContextException(workspaceFile, sourceName, saxException);
         }
     }
 
-    // ---------------------------------------------------------------------
-
-    private static String preprocess(
-            Workspace workspace,
-            WorkspaceFile workspaceFile,
-            String source,
-            Context cx,
-            Scriptable scope
-    ) {
-        StringBuilder out = new StringBuilder();
-        int pos = 0;
-
-        while (pos < source.length()) {
-            int start = source.indexOf("<%@", pos);
-            if (start == -1) {
-                out.append(source.substring(pos));
-                break;
-            }
-
-            out.append(source, pos, start);
-
-            int end = source.indexOf("%>", start);
-            if (end == -1) {
-                throw new IllegalArgumentException("Unclosed <%@ directive");
-            }
-
-            String directive = source.substring(start + 3, end).trim();
-
-            if (directive.startsWith("include")) {
-                if (directive.contains("module=")) {
-                    String name = extractQuoted(directive, "module");
-                    EtmModule module = (EtmModule) workspace.getWorkspaceFile(name, WorkspaceFileType.MODULE);
-                    if (module == null) {
-                        throw new RendererParseException("Module not found in workspace: " + name,
-                                null,
-                                source,
-                                -1,
-                                "Module not found in workspace",
-                                "Check module name and check module is added to the workspace",
-                                null);
-                    }
-                    String moduleOutput =
-                            ModuleRenderer.renderModule(workspace, module, cx, scope);
-                    out.append(preprocess(workspace, workspaceFile, moduleOutput, cx, scope));
-                } else if (directive.contains("view=")) {
-                    String name = extractQuoted(directive, "view");
-                    PersoBlock block = (PersoBlock) workspace.getWorkspaceFile(name, WorkspaceFileType.BLOCK);
-                    if (block == null) {
-                        throw new RendererParseException("Block not found in workspace: " + name,
-                                null,
-                                source,
-                                -1,
-                                "Block not found in workspace",
-                                "Check block name and check block is added to the workspace",
-                                null);
-                    }
-                    out.append(preprocess(workspace, block, block.getWorkspaceFileContent(), cx, scope));
-                }
-            }
-            pos = end + 2;
-        }
+    private static RendererInitException toContextException(WorkspaceFile workspaceFile, String sourceName, Exception exception) {
+        int line = exception instanceof SAXParseException saxParseException ? saxParseException.getLineNumber() : -1;
+        return new RendererInitException(
+                "An unexpected error occurred while setting XML context",
+                workspaceFile,
+                workspaceFile.getWorkspaceFileContent(),
+                line,
+                sourceName + ": " + exception.getMessage(),
+                "Please check the context XML",
+                exception
+        );
+    }
 
-        return out.toString();
+    /**
+     * Expands a template's modules and blocks and compiles the result, reusing a cached script where possible.
+     * Modules are rendered in scopes of their own, so the template's contexts need not be bound.
+     * @param workspace the workspace containing the included modules and blocks
+     * @param template the template to compile
+     * @param cx the current Rhino context
+     * @param hot true if the script is about to be executed many times, so should be compiled to bytecode
+     *            straight away when the execution mode allows
+     * @return the compiled script
+     */
+    static ScriptCache.CachedScript compile(Workspace workspace, Template template, Context cx, boolean hot) {
+        return compile(workspace, template, Map.of(), cx, hot);
     }
 
-    // ---------------------------------------------------------------------
+    private static ScriptCache.CachedScript compile(Workspace workspace, Template template, Map<WorkspaceFile, String> unsavedSources,
+                                                    Context cx, boolean hot) {
+        watchWorkspace(workspace);
 
-    private static String transformToJavaScript(String source) {
-        StringBuilder js = new StringBuilder();
-        js.append("var out = new java.lang.StringBuilder();\n");
+        Path templateFile = template.getAbsoluteFilePath();
+        String sourceName = template.getFileName();
+        String js = "";
 
-        int pos = 0;
-        while (pos < source.length()) {
-            int start = source.indexOf("<%", pos);
-            if (start == -1) {
-                appendText(js, source.substring(pos));
-                break;
-            }
+        try {
+            String cacheKey;
+            ExpansionCache.Expansion expansion = unsavedSources.isEmpty() ? expansionCache.get(templateFile) : null;
+            if (!unsavedSources.isEmpty()) {
+                // The expansion cache only knows about files, so unsaved text is expanded every time
+                Function<WorkspaceFile, String> sources = workspaceFile -> {
+                    String unsavedSource = unsavedSources.get(workspaceFile);
+                    return unsavedSource != null ? unsavedSource : workspaceFile.getWorkspaceFileContent();
+                };
+                js = TemplateCompiler.compile(workspace, template, sources.apply(template), new HashMap<>(), sources);
+                cacheKey = HashUtil.sha256(sourceName, js);
+            } else if (expansion != null) {
+                // Nothing the template was built from has changed, so skip reading and expanding it
+                js = expansion.generatedJavaScript();
+                cacheKey = expansion.scriptCacheKey();
+            } else {
+                Map<Path, FileStamp> dependencies = new HashMap<>();
+                dependencies.put(templateFile, FileStamp.of(templateFile));
+                String templateSource = template.getWorkspaceFileContent();
 
-            appendText(js, source.substring(pos, start));
+                // COMPILE TO JS, expanding included modules and blocks in the same pass
+                js = TemplateCompiler.compile(workspace, template, templateSource, dependencies);
 
-            int end = source.indexOf("%>", start);
-            if (end == -1) {
-                throw new IllegalArgumentException("Unclosed <% tag");
+                // The JavaScript contains every included module and block, so its hash identifies the script
+                cacheKey = HashUtil.sha256(sourceName, js);
+                expansionCache.put(templateFile, new ExpansionCache.Expansion(js, cacheKey, dependencies));
             }
 
-            String code = source.substring(start + 2, end).trim();
+            boolean unsaved = !unsavedSources.isEmpty();
+            ScriptCache.CachedScript cachedScript;
+            if (unsaved) {
+                UnsavedScript unsavedScript = unsavedScripts.get(templateFile);
+                cachedScript = unsavedScript != null && unsavedScript.cacheKey().equals(cacheKey) ? unsavedScript.cachedScript() : null;
+            } else {
+                cachedScript = scriptCache.get(cacheKey);
+            }
 
-            if (code.startsWith("=")) {
-                js.append("out.append(")
-                        .append(code.substring(1).trim())
-                        .append(");\n");
+            if (cachedScript == null) {
+                cachedScript = compileScript(cx, js, sourceName, isBytecodeRequired(0, hot), new AtomicInteger());
+            } else if (isRecompileRequired(cachedScript, hot)) {
+                // Template has become hot, or the execution mode has changed
+                cachedScript = compileScript(cx, js, sourceName,
+                        isBytecodeRequired(cachedScript.executionCount().get(), hot), cachedScript.executionCount());
             } else {
-                js.append(code).append("\n");
+                return cachedScript;
             }
 
-            pos = end + 2;
+            if (unsaved) {
+                unsavedScripts.put(templateFile, new UnsavedScript(cacheKey, cachedScript));
+            } else {
+                scriptCache.put(cacheKey, cachedScript);
+            }
+            return cachedScript;
+        } catch (RhinoException rhinoException) {
+            throw toRendererException(template, js, rhinoException);
         }
-
-        js.append("out.toString();");
-        return js.toString();
     }
 
-    private static void appendText(StringBuilder js, String text) {
-        if (text.isEmpty()) return;
-        text = text.replace("\\", "\\\\")
-                .replace("\"", "\\\"")
-                .replace("\r\n", "\n")
-                .replace("\r", "\n")
-                .replace("\n", "\\n");
-        js.append("out.append(\"").append(text).append("\");\n");
+    /**
+     * Discards the expansions and compiled scripts of templates, so they are rebuilt the next time they render
+     * @param templates the templates to invalidate
+     */
+    public static void invalidate(Collection<Template> templates) {
+        for (Template template : templates) {
+            unsavedScripts.remove(template.getAbsoluteFilePath());
+            ExpansionCache.Expansion expansion = expansionCache.remove(template.getAbsoluteFilePath());
+            if (expansion != null) {
+                scriptCache.remove(expansion.scriptCacheKey());
+            }
+        }
     }
 
-    private static String extractQuoted(String directive, String key) {
-        int keyPos = directive.indexOf(key + "=");
-        if (keyPos == -1) {
-            throw new IllegalArgumentException(
-                    "Missing attribute '" + key + "' in directive: " + directive
-            );
+    /**
+     * Invalidates the templates affected by each change to a workspace, found from its include graph on the
+     * graph's thread once it has scanned the change. Cached expansions check their files are unchanged before
+     * being used, so a render in the meantime doesn't use stale output.
+     */
+    private static void watchWorkspace(Workspace workspace) {
+        if (watchedWorkspaces.add(workspace)) {
+            workspace.addFileChangeListener(workspaceFile -> workspace.getIncludeGraph().whenReady(includeGraph ->
+                    invalidate(includeGraph.getAffectedTemplates(workspaceFile))));
         }
+    }
 
-        int quotePos = keyPos + key.length() + 1;
-        int end = getEnd(directive, key, quotePos);
-        if (end == -1) {
-            throw new IllegalArgumentException(
-                    "Unterminated quoted value for '" + key + "' in directive: " + directive
-            );
+    /**
+     * Executes a compiled template. A compiled script may be executed concurrently on several threads,
+     * provided each has its own context and scope.
+     * @param template the template the script was compiled from, used when reporting errors
+     * @param cachedScript the compiled script
+     * @param cx the current Rhino context
+     * @param scope render scope with the contexts bound
+     * @return the rendered output
+     */
+    static String execute(Template template, ScriptCache.CachedScript cachedScript, Context cx, Scriptable scope) {
+        try {
+            cachedScript.executionCount().incrementAndGet();
+            Object result = cachedScript.script().exec(cx, scope);
+            return Context.toString(result);
+        } catch (RhinoException rhinoException) {
+            throw toRendererException(template, cachedScript.generatedJavaScript(), rhinoException);
+        } catch (RendererContextFactory.ScriptInterruptedError interrupted) {
+            throw interrupted.toRendererException(template, cachedScript.generatedJavaScript());
         }
-
-        return directive.substring(quotePos + 1, end);
     }
 
-    private static int getEnd(String directive, String key, int quotePos) {
-        if (quotePos >= directive.length()) {
-            throw new IllegalArgumentException(
-                    "Malformed attribute '" + key + "' in directive: " + directive
+    private static RendererException toRendererException(Template template, String js, RhinoException rhinoException) {
+        if (rhinoException instanceof org.mozilla.javascript.EvaluatorException evaluatorException) {
+            return new RendererParseException(
+                    "JavaScript evaluator error: " + evaluatorException.getMessage(),
+                    template,
+                    js,
+                    evaluatorException.lineNumber(),
+                    evaluatorException.details(),
+                    "Check JavaScript syntax is the template and associated modules and blocks",
+                    evaluatorException
             );
         }
-
-        char quote = directive.charAt(quotePos);
-        if (quote != '\'' && quote != '"') {
-            throw new IllegalArgumentException(
-                    "Attribute '" + key + "' must be quoted in directive: " + directive
+        if (rhinoException instanceof org.mozilla.javascript.JavaScriptException javaScriptException) {
+            return new RendererExecutionException(
+                    "JavaScript execution error: " + javaScriptException.getMessage(),
+                    template,
+                    js,
+                    javaScriptException.lineNumber(),
+                    javaScriptException.details(),
+                    "Check JavaScript syntax is the template and associated modules and blocks",
+                    javaScriptException
             );
         }
-
-        return directive.indexOf(quote, quotePos + 1);
+        return new RendererExecutionException(
+                "Rhino error: " + rhinoException.getMessage(),
+                template,
+                js,
+                rhinoException.lineNumber(),
+                rhinoException.details(),
+                "Check JavaScript syntax is the template and associated modules and blocks",
+                rhinoException
+        );
     }
 
+    private static boolean isBytecodeRequired(int executionCount, boolean hot) {
+        return executionMode.isBytecodeRequired(hot ? Integer.MAX_VALUE : executionCount);
+    }
 
-    private static void injectStandardFunctions(Context cx, Scriptable scope) {
-        cx.evaluateString(scope,
-                "var formatDate = function(d,f){" +
-                        " return com.campaignworkbench.campaignrenderer.CampaignFunctions.formatDate(d,f);" +
-                        "};",
-                "campaignFunctions.js", 1, null);
-
-        cx.evaluateString(scope,
-                "var parseTimeStamp = function(s){" +
-                        " return com.campaignworkbench.campaignrenderer.CampaignFunctions.parseTimeStamp(s);" +
-                        "};",
-                "campaignFunctions.js", 1, null);
+    private static boolean isRecompileRequired(ScriptCache.CachedScript cachedScript, boolean hot) {
+        boolean bytecodeRequired = isBytecodeRequired(cachedScript.executionCount().get(), hot);
+        return switch (cachedScript.form()) {
+            case INTERPRETED -> bytecodeRequired;
+            case BYTECODE, INTERPRETED_FALLBACK -> !bytecodeRequired;
+        };
+    }
 
-        cx.evaluateString(scope,
-                "var System = Packages.java.lang.System;",
-                "jsImports.js", 1, null);
+    /**
+     * Compiles generated JavaScript, either to JVM bytecode or for the interpreter.
+     * The JVM limits a method to 64KB of bytecode, which a large template can exceed as it compiles to a single
+     * function. When that happens Rhino compiles the script for the interpreter instead, without saying so, so
+     * the form is found from the script: only bytecode is loaded by a generated class loader.
+     */
+    private static ScriptCache.CachedScript compileScript(Context cx, String js, String sourceName, boolean bytecode, AtomicInteger executionCount) {
+        int previousOptimizationLevel = cx.getOptimizationLevel();
+        try {
+            cx.setOptimizationLevel(bytecode ? BYTECODE_OPTIMIZATION_LEVEL : INTERPRETED_OPTIMIZATION_LEVEL);
+            Script script = cx.compileString(js, sourceName, 1, null);
+
+            ScriptCache.ScriptForm form = ScriptCache.ScriptForm.INTERPRETED;
+            if (bytecode && script.getClass().getClassLoader() instanceof GeneratedClassLoader) {
+                form = ScriptCache.ScriptForm.BYTECODE;
+            } else if (bytecode) {
+                // Recorded in the script's form, so it isn't tried as bytecode again while cached
+                form = ScriptCache.ScriptForm.INTERPRETED_FALLBACK;
+                interpretedFallbackListener.accept(sourceName);
+            }
+            return new ScriptCache.CachedScript(js, script, form, executionCount);
+        } finally {
+            cx.setOptimizationLevel(previousOptimizationLevel);
+        }
     }
-}
\ No newline at end of file
+}
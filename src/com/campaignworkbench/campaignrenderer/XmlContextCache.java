@@ -0,0 +1,184 @@
+package com.campaignworkbench.campaignrenderer;
+
+import com.campaignworkbench.util.FileStamp;
+import com.campaignworkbench.util.FileUtil;
+import com.campaignworkbench.util.HashUtil;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+import org.w3c.dom.Text;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Cache of parsed context XML files, keyed on the file path. A cached context is reused until the file's
+ * modified time or size changes, so a context is only read and parsed once however many times it is rendered.
+ * <p>
+ * Contexts are parsed in Java and bound into a scope as E4X objects, rather than being evaluated as
+ * JavaScript source, so Rhino never has to lex the XML and any backticks or ${ in it are left alone.
+ */
+public final class XmlContextCache {
+
+    /**
+     * A parsed context, ready to bind into a render scope
+     * @param sourceName name of the file or record the context was read from
+     * @param content the XML source of the context
+     * @param contentHash hash of the XML source, identifying the context by content
+     * @param document the parsed context
+     */
+    public record ParsedXmlContext(String sourceName, String content, String contentHash, Document document) {
+
+        /**
+         * Declares an E4X XML variable holding a copy of this context. The copy is taken while holding a lock
+         * on the parsed document, so the same context can be bound by several threads at once.
+         * @param cx the current Rhino context
+         * @param scope the render scope
+         * @param variableName name of the JavaScript variable
+         */
+        public void bind(Context cx, Scriptable scope, String variableName) {
+            Object xml;
+            synchronized (document) {
+                // 'new XML(node)' copies the DOM node, so the render never modifies the cached document
+                xml = cx.newObject(scope, "XML", new Object[]{Context.javaToJS(document.getDocumentElement(), scope)});
+            }
+            scope.put(variableName, scope, xml);
+            scope.put("xmlContext", scope, content);
+        }
+    }
+
+    private record CacheKey(Path path, boolean wrapCtx) {}
+
+    private record CacheEntry(FileStamp fileStamp, ParsedXmlContext context) {}
+
+    private static final ThreadLocal<DocumentBuilder> documentBuilder = ThreadLocal.withInitial(XmlContextCache::createDocumentBuilder);
+
+    private final int maxEntries;
+    private final LinkedHashMap<CacheKey, CacheEntry> entries;
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of parsed contexts to hold
+     */
+    public XmlContextCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<CacheKey, CacheEntry> eldest) {
+                return size() > XmlContextCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the parsed context for a file, reading and parsing it if it is not cached or has changed
+     * @param contextFile the context XML file
+     * @param wrapCtx true to add an 'rtEvent' wrapper if the file has a &lt;ctx&gt; root
+     * @return the parsed context
+     * @throws SAXException if the file is not well-formed XML
+     */
+    public ParsedXmlContext get(Path contextFile, boolean wrapCtx) throws SAXException {
+        CacheKey key = new CacheKey(contextFile, wrapCtx);
+        FileStamp fileStamp = FileStamp.of(contextFile);
+
+        synchronized (this) {
+            CacheEntry entry = entries.get(key);
+            if (entry != null && entry.fileStamp().equals(fileStamp)) {
+                return entry.context();
+            }
+        }
+
+        // Parse outside the lock, so a large context does not hold up renders of other files
+        String content = FileUtil.read(contextFile);
+        if (wrapCtx) {
+            content = TemplateRenderer.wrapDataContext(content);
+        }
+        ParsedXmlContext context = parse(content, contextFile.getFileName().toString());
+
+        synchronized (this) {
+            entries.put(key, new CacheEntry(fileStamp, context));
+        }
+        return context;
+    }
+
+    /**
+     * Removes all parsed contexts from the cache
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * @return number of parsed contexts currently held
+     */
+    public synchronized int size() { return entries.size(); }
+
+    /**
+     * Parses context XML without caching it
+     * @param content the XML source
+     * @param sourceName name of the file or record the XML was read from
+     * @return the parsed context
+     * @throws SAXException if the content is not well-formed XML
+     */
+    public static ParsedXmlContext parse(String content, String sourceName) throws SAXException {
+        try {
+            InputSource inputSource = new InputSource(new StringReader(content));
+            inputSource.setSystemId(sourceName);
+            Document document = documentBuilder.get().parse(inputSource);
+            normalize(document.getDocumentElement());
+            return new ParsedXmlContext(sourceName, content, HashUtil.sha256(content), document);
+        } catch (IOException ioe) {
+            // Reading from a string, so not expected
+            throw new IllegalStateException("Unable to read context XML: " + sourceName, ioe);
+        }
+    }
+
+    /**
+     * Matches the defaults E4X applies when parsing a string: whitespace is trimmed from text,
+     * and empty text nodes and processing instructions are removed
+     */
+    private static void normalize(Node node) {
+        Node child = node.getFirstChild();
+        while (child != null) {
+            Node next = child.getNextSibling();
+            if (child instanceof Text text) {
+                text.setData(text.getData().trim());
+                if (text.getLength() == 0) {
+                    node.removeChild(child);
+                }
+            } else if (child.getNodeType() == Node.PROCESSING_INSTRUCTION_NODE) {
+                node.removeChild(child);
+            } else if (child.getNodeType() == Node.ELEMENT_NODE) {
+                normalize(child);
+            }
+            child = next;
+        }
+    }
+
+    private static DocumentBuilder createDocumentBuilder() {
+        DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+        factory.setNamespaceAware(true);
+        factory.setIgnoringComments(true);
+        try {
+            // The document is read by several threads, so build the whole tree up front
+            factory.setFeature("http://apache.org/xml/features/dom/defer-node-expansion", false);
+            factory.setFeature("http://apache.org/xml/features/disallow-doctype-decl", true);
+            DocumentBuilder builder = factory.newDocumentBuilder();
+            // Report errors through the thrown exception only, rather than also printing them
+            builder.setErrorHandler(new DefaultHandler());
+            return builder;
+        } catch (ParserConfigurationException pce) {
+            throw new IllegalStateException("Unable to create XML parser", pce);
+        }
+    }
+}
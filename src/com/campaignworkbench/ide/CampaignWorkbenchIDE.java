@@ -20,6 +20,7 @@ import javafx.scene.layout.VBox;
 import javafx.stage.Stage;
 
 import java.util.Objects;
+import java.util.concurrent.Future;
 
 /**
  * Builds a User Interface for the Campaign Workbench IDE
@@ -34,11 +35,17 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     private EditorTabPanel editorTabPanel;
     private LogPanel logPanel;
     private ErrorLogPanel errorLogPanel;
+    private SearchPanel searchPanel;
     private OutputTabPanel outputPanel;
+    private LivePreview livePreview;
     private EditorTab currentEditorTab;
     private Scene scene;
     private Image iconImage;
 
+    // Template run in progress, and the version of the latest run, so results of older runs are ignored
+    private Future<?> pendingRender;
+    private long renderVersion;
+
     /**
      * Main entry point for the application
      *
@@ -89,7 +96,9 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
                 _ -> newWorkspaceHandler(),
                 _ -> closeWorkspaceHandler(),
                 _ -> closeEditorTabsHandler(),
-                _ -> runTemplate());
+                _ -> runTemplate(),
+                _ -> cancelRunHandler(),
+                _ -> livePreviewHandler());
 
         // Workspace Explorer
         workspaceExplorer = new WorkspaceExplorer("Workspace Explorer", this::openFileFromWorkspace, this::workspaceChanged, this::insertIntoCodeHandler);
@@ -102,14 +111,22 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
 
         // Log pane
         logPanel = new LogPanel("Logs");
+        TemplateRenderer.setInterpretedFallbackListener(sourceName -> LogPanel.appendLog(LogPanel.Level.WARNING,
+                "Template exceeds class file limits, falling back to interpreter: " + sourceName));
         errorLogPanel = new ErrorLogPanel("Errors");
 
         errorLogPanel.setOnErrorDoubleClicked((workspaceFile, line) -> outputPanel.highlightJsLine(line));
 
+        // Search pane
+        searchPanel = new SearchPanel("Search");
+        searchPanel.setOnResultDoubleClicked(editorTabPanel::openFileAndGoToLine);
+
+        livePreview = new LivePreview(editorTabPanel, outputPanel, errorLogPanel);
+
         SplitPane logSplitPane = new SplitPane();
         logSplitPane.setOrientation(Orientation.HORIZONTAL);
-        logSplitPane.getItems().addAll(logPanel.getNode(), errorLogPanel.getNode());
-        logSplitPane.setDividerPositions(0.5);
+        logSplitPane.getItems().addAll(logPanel.getNode(), errorLogPanel.getNode(), searchPanel.getNode());
+        logSplitPane.setDividerPositions(0.35, 0.65);
 
         // --- Split: Workspace Explorer | Editor Tabs ---
         SplitPane workspaceEditorSplit = new SplitPane();
@@ -161,6 +178,8 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     private void exitApplication() {
         workspaceExplorer.saveWorkspace();
         editorTabPanel.closeAllTabs();
+        // Writes the workspace now, rather than leaving it to the background save
+        workspaceExplorer.closeWorkspace();
         Platform.exit();
         System.exit(0);
     }
@@ -201,6 +220,11 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
         if (tab instanceof EditorTab editorTab) {
             toolBar.setRunButtonState(editorTab.isTemplateTab());
             currentEditorTab = editorTab;
+
+            // The preview follows the last template selected
+            if (editorTab.getWorkspaceFile() instanceof Template template && workspaceExplorer.isWorkspaceOpen()) {
+                livePreview.setTemplate(workspaceExplorer.getWorkspace(), template);
+            }
         }
     }
 
@@ -210,6 +234,7 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     private void openWorkspaceHandler() {
         try {
             workspaceExplorer.openWorkspace();
+            searchPanel.setWorkspace(workspaceExplorer.getWorkspace());
         } catch (IdeException ideEx) {
             reportError("An error occurred while opening the workspace: " + ideEx.getMessage(), ideEx, true);
         }
@@ -218,6 +243,7 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     private void newWorkspaceHandler() {
         try {
             workspaceExplorer.createNewWorkspace();
+            searchPanel.setWorkspace(workspaceExplorer.getWorkspace());
         } catch (IdeException ideEx) {
             reportError("An error occurred while creating a new workspace: " + ideEx.getMessage(), ideEx, true);
         }
@@ -233,6 +259,8 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
 
     private void closeWorkspaceHandler() {
         try {
+            livePreview.setTemplate(null, null);
+            searchPanel.setWorkspace(null);
             editorTabPanel.closeAllTabs();
             workspaceExplorer.closeWorkspace();
         } catch (IdeException ideEx) {
@@ -262,7 +290,13 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     }
 
     private void workspaceChanged(Workspace newWorkspace) {
+        livePreview.setTemplate(null, null);
         editorTabPanel.closeAllTabs();
+        if (newWorkspace != null) {
+            // Saves run on a background thread
+            newWorkspace.addSaveListener(jsonFilePath -> LogPanel.appendLog("Saved workspace JSON file: " + jsonFilePath));
+            newWorkspace.addSaveFailureListener(exception -> Platform.runLater(() -> reportError(exception.getMessage(), exception, false)));
+        }
     }
 
     private void insertIntoCodeHandler(String code) {
@@ -324,7 +358,8 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     }
 
     /**
-     * Runs the template in the currently selected editor tab
+     * Runs the template in the currently selected editor tab on the background renderer, replacing any run
+     * still in progress. Only the finished result is passed back to the UI.
      */
     private void runTemplate() {
         if(!workspaceExplorer.isWorkspaceOpen()) {
@@ -334,34 +369,88 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
 
         errorLogPanel.clearErrors();
         saveWorkspaceHandler();
-        try {
-            WorkspaceFile selectedWorkspaceFile = editorTabPanel.getSelectedWorkspaceFile();
+        WorkspaceFile selectedWorkspaceFile = editorTabPanel.getSelectedWorkspaceFile();
+
+        if (selectedWorkspaceFile instanceof Template workspaceContextFile) {
+            cancelRender();
+            long version = ++renderVersion;
+            String fileName = editorTabPanel.getSelectedFileName();
+            toolBar.setRunInProgress(true);
+
+            pendingRender = TemplateRenderer.renderAsync(
+                    workspaceExplorer.getWorkspace(),
+                    workspaceContextFile,
+                    renderResult -> Platform.runLater(() -> renderSucceeded(version, fileName, renderResult)),
+                    exception -> Platform.runLater(() -> renderFailed(version, exception))
+            );
+        }
+    }
 
-            if (selectedWorkspaceFile instanceof Template workspaceContextFile) {
+    private void livePreviewHandler() {
+        livePreview.setEnabled(toolBar.isLivePreviewSelected());
+        appendLog(livePreview.isEnabled() ? "Live preview on" : "Live preview off");
+    }
 
-                TemplateRenderResult renderResult = TemplateRenderer.render(
-                        workspaceExplorer.getWorkspace(),
-                        workspaceContextFile
-                );
+    private void cancelRunHandler() {
+        if (pendingRender != null) {
+            cancelRender();
+            appendLog("Template run cancelled");
+        }
+    }
 
-                String resultHtml = renderResult.renderedOutput();
-                String resultJs = renderResult.generatedJavaScript();
+    /**
+     * Stops the run in progress, if there is one, and ignores any result it has already sent
+     */
+    private void cancelRender() {
+        if (pendingRender != null) {
+            pendingRender.cancel(true);
+            pendingRender = null;
+        }
+        renderVersion++;
+        toolBar.setRunInProgress(false);
+    }
+
+    private void renderSucceeded(long version, String fileName, TemplateRenderResult renderResult) {
+        if (!endRender(version)) {
+            return;
+        }
+        outputPanel.setContent(renderResult.renderedOutput(), renderResult.generatedJavaScript());
+        appendLog("Template ran successfully: " + fileName);
+        appendLog(TemplateRenderer.getScriptCache().toString());
+        appendLog(ModuleRenderer.getModuleOutputCache().toString());
+        if (workspaceExplorer.isWorkspaceOpen()) {
+            appendLog(workspaceExplorer.getWorkspace().getContentCache().toString());
+        }
+    }
 
-                Platform.runLater(() -> {
-                    outputPanel.setContent(resultHtml, resultJs);
-                    appendLog("Template ran successfully: " + editorTabPanel.getSelectedFileName());
-                });
+    private void renderFailed(long version, RuntimeException exception) {
+        if (!endRender(version)) {
+            return;
+        }
+        switch (exception) {
+            case IdeException ideEx -> {
+                appendLog("An IDE error occurred: " + ideEx.getMessage());
+                reportError(ideEx.getMessage(), ideEx, true);
             }
-        } catch (IdeException ideEx) {
-            appendLog("An IDE error occurred: " + ideEx.getMessage());
-            reportError(ideEx.getMessage(), ideEx, true);
-        } catch (RendererException renderEx) {
-            appendLog("A Renderer error occurred: " + renderEx.getMessage());
-            errorLogPanel.addError(renderEx);
-            outputPanel.setContent("", renderEx.getSourceCode());
-        } catch (Exception ex) {
-            appendLog("An unexpected error occurred: " + ex.getMessage());
+            case RendererException renderEx -> {
+                appendLog("A Renderer error occurred: " + renderEx.getMessage());
+                errorLogPanel.addError(renderEx);
+                outputPanel.setContent("", renderEx.getSourceCode());
+            }
+            default -> appendLog("An unexpected error occurred: " + exception.getMessage());
+        }
+    }
+
+    /**
+     * @return true if the render is the latest, rather than one that has been cancelled or replaced
+     */
+    private boolean endRender(long version) {
+        if (version != renderVersion) {
+            return false;
         }
+        pendingRender = null;
+        toolBar.setRunInProgress(false);
+        return true;
     }
 
     /**
@@ -381,7 +470,7 @@ public class CampaignWorkbenchIDE extends Application implements IThemeable {
     }
 
     private void reportError(String message, boolean displayAlert) {
-        logPanel.appendLog(message);
+        LogPanel.appendLog(LogPanel.Level.ERROR, message);
         if (displayAlert) {
             showAlert(message);
         }
@@ -1,33 +1,55 @@
 package com.campaignworkbench.ide;
 
+import com.campaignworkbench.ide.editor.FindStatus;
 import com.campaignworkbench.ide.editor.ICodeEditor;
 import com.campaignworkbench.ide.editor.SyntaxType;
+import com.campaignworkbench.ide.editor.richtextfx.EditorExecutors;
+import com.campaignworkbench.ide.editor.richtextfx.PlainTextEditor;
 import com.campaignworkbench.ide.editor.richtextfx.RichTextFXEditor;
 import com.campaignworkbench.util.UiUtil;
 import com.campaignworkbench.workspace.ContextXml;
 import com.campaignworkbench.workspace.WorkspaceContextFile;
 import com.campaignworkbench.workspace.WorkspaceFile;
+import javafx.application.Platform;
 import javafx.scene.control.*;
-import javafx.scene.layout.BorderPane;
 import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
+import javafx.scene.layout.StackPane;
 import javafx.scene.layout.VBox;
 import org.controlsfx.glyphfont.FontAwesome;
+import org.reactfx.EventStreams;
 import org.reactfx.Subscription;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.time.Duration;
 
 /**
  * Implements a Tab containing a code editor
  */
 public final class EditorTab extends Tab {
 
+    // Time without typing in the find field before the text is searched
+    private static final Duration FIND_DELAY = Duration.ofMillis(150);
+
+    // Files from this size are loaded in the background and only highlighted around the viewport
+    private static final long LARGE_FILE_SIZE = 1024 * 1024;
+
+    // Files from this size are opened without any highlighting
+    private static final long PLAIN_TEXT_FILE_SIZE = 16 * 1024 * 1024;
+
     private final ToolBar findReplaceToolBar;
     private final WorkspaceFile workspaceFile;
     private final ICodeEditor editor;
     private final TextField findField;
+    private final ToggleButton regexButton;
+    private final Label findStatusLabel;
 
     private boolean isTextDirty;
+    private boolean isLoaded;
+
+    // Line to go to once a file loading in the background has loaded, or 0 for none
+    private int pendingLine;
 
     /**
      * Constructor
@@ -52,9 +74,15 @@ public final class EditorTab extends Tab {
         // Find toolbar
         Label findLabel = new Label("Find:");
         findField = new TextField();
-        Button findButton = UiUtil.createButton("", "Find all", FontAwesome.Glyph.ARROW_CIRCLE_RIGHT, "positive-icon", 1, true, _ -> findHandler());
+        findField.setOnAction(_ -> findNextHandler());
+        regexButton = new ToggleButton(".*");
+        regexButton.setTooltip(new Tooltip("Regular expression"));
+        regexButton.setOnAction(_ -> findHandler());
+        Button findPreviousButton = UiUtil.createButton("", "Find previous", FontAwesome.Glyph.ARROW_UP, "positive-icon", 1, true, _ -> findPreviousHandler());
+        Button findNextButton = UiUtil.createButton("", "Find next", FontAwesome.Glyph.ARROW_DOWN, "positive-icon", 1, true, _ -> findNextHandler());
         Button clearFindButton = UiUtil.createButton("", "Clear", FontAwesome.Glyph.TIMES_CIRCLE, "negative-icon", 1, true, _ -> clearFindHandler());
-        findReplaceToolBar = new ToolBar(findLabel, findField, findButton, clearFindButton);
+        findStatusLabel = new Label();
+        findReplaceToolBar = new ToolBar(findLabel, findField, regexButton, findPreviousButton, findNextButton, clearFindButton, findStatusLabel);
         findReplaceToolBar.getStyleClass().add("small-toolbar");
 
         // Combine the toolbars
@@ -63,23 +91,86 @@ public final class EditorTab extends Tab {
         HBox.setHgrow(formatToolBar, Priority.ALWAYS);
 
         // Create the code editor
-        this.editor = new RichTextFXEditor(determineSyntax(workspaceFile));
-        BorderPane root = new BorderPane();
-        root.setCenter(editor.getNode());
-        editor.setText(workspaceFile.getWorkspaceFileContent());
-        editor.setCaretAtStart();
+        long fileSize = getFileSize();
+        SyntaxType syntaxType = determineSyntax(workspaceFile);
+        if (fileSize >= PLAIN_TEXT_FILE_SIZE) {
+            this.editor = new PlainTextEditor(syntaxType);
+        } else {
+            this.editor = new RichTextFXEditor(syntaxType, fileSize >= LARGE_FILE_SIZE);
+        }
+        StackPane editorPane = new StackPane(editor.getNode());
+        if (fileSize >= LARGE_FILE_SIZE) {
+            loadInBackground(editorPane);
+        } else {
+            editor.setText(workspaceFile.getWorkspaceFileContent());
+            editor.setCaretAtStart();
+            isLoaded = true;
+        }
 
         // Attach listener to set file dirty status
         Subscription sub = editor.addTextChangeListener(this::editorTextChangedHandler);
 
+        // Find as you type, once typing pauses
+        editor.addFindStatusListener(this::findStatusHandler);
+        EventStreams.valuesOf(findField.textProperty())
+                .successionEnds(FIND_DELAY)
+                .subscribe(_ -> findHandler());
+
         // Create an assign the main 'container'
-        VBox container = new VBox(toolsContainer, editor.getNode());
-        VBox.setVgrow(editor.getNode(), Priority.ALWAYS);
+        VBox container = new VBox(toolsContainer, editorPane);
+        VBox.setVgrow(editorPane, Priority.ALWAYS);
         setContent(container);
         container.getStyleClass().add("editor-tab");
     }
 
+    /**
+     * Reads the file on the editor background executor, showing progress over the editor until it is loaded
+     */
+    private void loadInBackground(StackPane editorPane) {
+        ProgressIndicator progressIndicator = new ProgressIndicator();
+        progressIndicator.setMaxSize(60, 60);
+        editorPane.getChildren().add(progressIndicator);
+        editor.setEditable(false);
+
+        EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                String content = workspaceFile.getWorkspaceFileContent();
+                Platform.runLater(() -> {
+                    editor.setText(content);
+                    editor.setCaretAtStart();
+                    editor.setEditable(true);
+                    editorPane.getChildren().remove(progressIndicator);
+                    isLoaded = true;
+                    if (pendingLine > 0) {
+                        editor.gotoLine(pendingLine);
+                        pendingLine = 0;
+                    }
+
+                    // Loading the text isn't an edit
+                    isTextDirty = false;
+                    updateTabText();
+                });
+            } catch (IdeException ideException) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error loading file: " + ideException.getMessage());
+                Platform.runLater(() -> editorPane.getChildren().setAll(new Label(ideException.getMessage())));
+            }
+        });
+    }
+
+    private long getFileSize() {
+        try {
+            return Files.size(workspaceFile.getAbsoluteFilePath());
+        } catch (IOException ioe) {
+            // Let the load report the problem
+            return 0;
+        }
+    }
+
     public void saveFile() throws IdeException {
+        // Nothing can have been edited before the file has loaded, and saving would empty it
+        if (!isLoaded) {
+            return;
+        }
         String content = editor.getText();
         workspaceFile.saveWorkspaceFileContent(content);
         isTextDirty = false;
@@ -96,7 +187,7 @@ public final class EditorTab extends Tab {
         }
     }
 
-    private void editorTextChangedHandler(String newText) {
+    private void editorTextChangedHandler() {
         isTextDirty = true;
         updateTabText();
     }
@@ -129,6 +220,18 @@ public final class EditorTab extends Tab {
         editor.insertTextAtCaret(text);
     }
 
+    /**
+     * Moves the caret to a line, once the file has loaded if it is still loading
+     * @param line the line number to go to (1-indexed)
+     */
+    public void gotoLine(int line) {
+        if (isLoaded) {
+            editor.gotoLine(line);
+        } else {
+            pendingLine = line;
+        }
+    }
+
     public boolean isContextSet() {
         if (workspaceFile instanceof WorkspaceContextFile workspaceContextFile) {
             return workspaceContextFile.isDataContextSet();
@@ -151,14 +254,38 @@ public final class EditorTab extends Tab {
 
     private void findHandler() {
         String textToFind = findField.getText();
-        if(!Objects.equals(textToFind, "")) {
-            editor.find(textToFind);
+        editor.find(textToFind, regexButton.isSelected());
+        if (textToFind.isEmpty()) {
+            findStatusLabel.setText("");
         }
     }
 
+    private void findNextHandler() {
+        editor.findNext();
+    }
+
+    private void findPreviousHandler() {
+        editor.findPrevious();
+    }
+
     private void clearFindHandler() {
-        // findField.setText("");
-        editor.find("");
+        findField.setText("");
+        editor.find("", false);
+        findStatusLabel.setText("");
+    }
+
+    private void findStatusHandler(FindStatus status) {
+        if (status.error() != null) {
+            findStatusLabel.setText("Invalid expression");
+            findStatusLabel.setTooltip(new Tooltip(status.error()));
+            return;
+        }
+        findStatusLabel.setTooltip(null);
+        if (status.currentMatch() >= 0) {
+            findStatusLabel.setText((status.currentMatch() + 1) + " of " + status.matchCount());
+        } else {
+            findStatusLabel.setText(status.matchCount() == 1 ? "1 match" : status.matchCount() + " matches");
+        }
     }
 
     /**
@@ -177,6 +304,20 @@ public final class EditorTab extends Tab {
         return editor.getText();
     }
 
+    /**
+     * @return true if the text has been edited since it was loaded or saved
+     */
+    public boolean isTextDirty() {
+        return isTextDirty;
+    }
+
+    /**
+     * @return true once the file has been read into the editor
+     */
+    public boolean isLoaded() {
+        return isLoaded;
+    }
+
     /**
      * @return the editor within the editor tab
      */
@@ -2,12 +2,15 @@ package com.campaignworkbench.ide;
 
 import com.campaignworkbench.workspace.WorkspaceFile;
 import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
 import javafx.scene.Node;
 import javafx.scene.control.Tab;
 import javafx.scene.control.TabPane;
 import javafx.stage.Window;
 
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Implements a tabbed panel of Editor tabs
@@ -39,29 +42,18 @@ public class EditorTabPanel implements IJavaFxNode {
     }
 
     /**
-     * Finds and selects a tab by its file path, or opens it if not found.
+     * Finds and selects the tab for a file, or opens it if not found.
      * Then jumps to the specified line.
      *
-     * @param path The path to the file
+     * @param workspaceFile The file to show
      * @param line The line number to jump to (1-indexed)
      */
-    public void openFileAndGoToLine(Path path, int line) {
-        EditorTab targetTab = null;
-        for (Tab tab : tabPane.getTabs()) {
-            if (tab instanceof EditorTab editorTab) {
-                if (editorTab.getFile().equals(path)) {
-                    targetTab = editorTab;
-                    break;
-                }
-            }
+    public void openFileAndGoToLine(WorkspaceFile workspaceFile, int line) {
+        addEditorTab(workspaceFile);
+        EditorTab targetTab = getExistingTab(workspaceFile);
+        if (targetTab != null) {
+            targetTab.gotoLine(line);
         }
-
-        if (targetTab == null) {
-            return;
-        }
-
-        tabPane.getSelectionModel().select(targetTab);
-        targetTab.getEditor().gotoLine(line);
     }
 
     /**
@@ -71,7 +63,7 @@ public class EditorTabPanel implements IJavaFxNode {
     public boolean isOpened(Path path) {
         for (Tab tab : tabPane.getTabs()) {
             if (tab instanceof EditorTab editorTab) {
-                if (editorTab.getFile().equals(path)) {
+                if (editorTab.getFile().getAbsoluteFilePath().equals(path)) {
                     return true;
                 }
             }
@@ -170,6 +162,26 @@ public class EditorTabPanel implements IJavaFxNode {
         }
     }
 
+    /**
+     * @return the open editor tabs, in the order they are shown
+     */
+    public List<EditorTab> getEditorTabs() {
+        List<EditorTab> editorTabs = new ArrayList<>();
+        for (Tab tab : tabPane.getTabs()) {
+            if (tab instanceof EditorTab editorTab) {
+                editorTabs.add(editorTab);
+            }
+        }
+        return editorTabs;
+    }
+
+    /**
+     * @param listener action to call when tabs are opened or closed
+     */
+    public void addTabsChangedListener(ListChangeListener<Tab> listener) {
+        tabPane.getTabs().addListener(listener);
+    }
+
     public void saveAllTabs() {
         for (Tab tab : tabPane.getTabs()) {
             if (tab instanceof EditorTab editorTab) {
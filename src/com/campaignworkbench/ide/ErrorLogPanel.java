@@ -110,6 +110,14 @@ public class ErrorLogPanel implements IJavaFxNode {
             TreeItem<String> solutionNode = new TreeItem<>("Recommended Solution: " + templateException.getSolution());
             errorNode.getChildren().add(solutionNode);
 
+            errorTreeView.getRoot().getChildren().add(errorNode);
+        } else {
+            TreeItem<String> errorNode = new TreeItem<>(exception.getMessage());
+            errorNode.setExpanded(false);
+            errorNode.getChildren().add(new TreeItem<>("Type: " + exception.getClass().getSimpleName()));
+            if (exception.getCause() != null) {
+                errorNode.getChildren().add(new TreeItem<>("Root Cause: " + exception.getCause().getMessage()));
+            }
             errorTreeView.getRoot().getChildren().add(errorNode);
         }
     }
@@ -0,0 +1,261 @@
+package com.campaignworkbench.ide;
+
+import com.campaignworkbench.campaignrenderer.RendererException;
+import com.campaignworkbench.campaignrenderer.TemplateRenderResult;
+import com.campaignworkbench.campaignrenderer.TemplateRenderer;
+import com.campaignworkbench.workspace.IncludeGraph;
+import com.campaignworkbench.workspace.Template;
+import com.campaignworkbench.workspace.Workspace;
+import com.campaignworkbench.workspace.WorkspaceFile;
+import javafx.application.Platform;
+import org.reactfx.EventSource;
+import org.reactfx.Subscription;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.Future;
+
+/**
+ * Renders a template again whenever it, or an open module or block it includes, is edited, and shows the result
+ * in the output panel. Renders start once typing pauses and use the text in the editors rather than the saved
+ * files. A render still running when a newer edit arrives is cancelled. Only used on the FX thread.
+ */
+public class LivePreview {
+
+    // Time without edits before the template is rendered again
+    private static final Duration PREVIEW_DELAY = Duration.ofMillis(300);
+
+    private final EditorTabPanel editorTabPanel;
+    private final OutputTabPanel outputPanel;
+    private final ErrorLogPanel errorLogPanel;
+
+    // Edits to the template and the files it includes, with the editors being listened to
+    private final EventSource<WorkspaceFile> edits = new EventSource<>();
+    private final Map<EditorTab, Subscription> editorSubscriptions = new HashMap<>();
+
+    // The template and the files it includes, found from the include graph on its thread, with the version of
+    // the latest lookup so results of older ones are ignored
+    private Set<WorkspaceFile> previewedFiles = Set.of();
+    private long previewedFilesVersion;
+
+    private boolean enabled;
+    private Workspace workspace;
+    private Template template;
+
+    // Render in progress, and the version of the latest render, so results of older renders are ignored
+    private Future<?> pendingRender;
+    private long renderVersion;
+    private String lastFailure;
+
+    /**
+     * Constructor
+     * @param editorTabPanel the editors whose text is previewed
+     * @param outputPanel panel to show the rendered template in
+     * @param errorLogPanel panel to show render errors in
+     */
+    public LivePreview(EditorTabPanel editorTabPanel, OutputTabPanel outputPanel, ErrorLogPanel errorLogPanel) {
+        this.editorTabPanel = editorTabPanel;
+        this.outputPanel = outputPanel;
+        this.errorLogPanel = errorLogPanel;
+
+        edits.subscribe(_ -> cancelRender());
+        edits.successionEnds(PREVIEW_DELAY).subscribe(_ -> render());
+        editorTabPanel.addTabsChangedListener(_ -> updateSubscriptions());
+    }
+
+    /**
+     * Turns the preview on, rendering the template straight away, or off
+     * @param enabled true to preview the template as it is edited
+     */
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+        lastFailure = null;
+        if (enabled) {
+            render();
+        } else {
+            cancelRender();
+            updateSubscriptions();
+        }
+    }
+
+    /**
+     * @return true if the template is previewed as it is edited
+     */
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Sets the template to preview, rendering it straight away if the preview is on
+     * @param workspace the workspace containing the template, or null if no workspace is open
+     * @param template the template to preview, or null for none
+     */
+    public void setTemplate(Workspace workspace, Template template) {
+        if (workspace == this.workspace && template == this.template) {
+            return;
+        }
+        this.workspace = workspace;
+        this.template = template;
+        lastFailure = null;
+        cancelRender();
+        if (enabled) {
+            render();
+        } else {
+            updateSubscriptions();
+        }
+    }
+
+    /**
+     * Listens to the editors of the template and the files it includes, and stops listening to any others.
+     * The template is listened to straight away, the files it includes once the include graph has found them.
+     */
+    private void updateSubscriptions() {
+        long version = ++previewedFilesVersion;
+        if (!enabled || template == null) {
+            previewedFiles = Set.of();
+            subscribe();
+            return;
+        }
+        if (!previewedFiles.contains(template)) {
+            previewedFiles = Set.of(template);
+        }
+        subscribe();
+
+        Workspace previewedWorkspace = workspace;
+        Template previewedTemplate = template;
+        workspace.getIncludeGraph().whenReady(includeGraph -> {
+            Set<WorkspaceFile> files = findPreviewedFiles(previewedWorkspace, previewedTemplate, includeGraph);
+            Platform.runLater(() -> previewedFilesFound(version, files));
+        });
+    }
+
+    private void previewedFilesFound(long version, Set<WorkspaceFile> files) {
+        if (version != previewedFilesVersion) {
+            return;
+        }
+        previewedFiles = files;
+        // An included file being edited wasn't in the last render, so render again with its text
+        if (subscribe() && enabled) {
+            render();
+        }
+    }
+
+    /**
+     * Listens to the editors of the previewed files, and stops listening to any others
+     * @return true if an editor with unsaved text is newly listened to
+     */
+    private boolean subscribe() {
+        List<EditorTab> editorTabs = editorTabPanel.getEditorTabs();
+        boolean subscribedUnsaved = false;
+
+        editorSubscriptions.entrySet().removeIf(entry -> {
+            EditorTab editorTab = entry.getKey();
+            if (editorTabs.contains(editorTab) && previewedFiles.contains(editorTab.getWorkspaceFile())) {
+                return false;
+            }
+            entry.getValue().unsubscribe();
+            return true;
+        });
+        for (EditorTab editorTab : editorTabs) {
+            WorkspaceFile workspaceFile = editorTab.getWorkspaceFile();
+            if (previewedFiles.contains(workspaceFile) && !editorSubscriptions.containsKey(editorTab)) {
+                editorSubscriptions.put(editorTab, editorTab.getEditor().addTextChangeListener(() -> edits.push(workspaceFile)));
+                subscribedUnsaved |= editorTab.isLoaded() && editorTab.isTextDirty();
+            }
+        }
+        return subscribedUnsaved;
+    }
+
+    /**
+     * Finds the files included from the include graph, which is built from the saved files, so an include
+     * added in an editor is picked up once it is saved. Run on the include graph's thread.
+     * @return the template and the modules and blocks it includes, directly or through others
+     */
+    private static Set<WorkspaceFile> findPreviewedFiles(Workspace workspace, Template template, IncludeGraph includeGraph) {
+        Set<WorkspaceFile> previewedFiles = new HashSet<>();
+        Deque<WorkspaceFile> pending = new ArrayDeque<>();
+        pending.add(template);
+
+        while (!pending.isEmpty()) {
+            WorkspaceFile current = pending.poll();
+            if (!previewedFiles.add(current)) {
+                continue;
+            }
+            for (IncludeGraph.IncludeReference reference : includeGraph.getIncludes(current)) {
+                WorkspaceFile included = workspace.getWorkspaceFile(reference.baseName(), reference.fileType());
+                if (included != null) {
+                    pending.add(included);
+                }
+            }
+        }
+        return previewedFiles;
+    }
+
+    /**
+     * Starts rendering the template on the background renderer, from the text of any edited editors
+     */
+    private void render() {
+        updateSubscriptions();
+        if (!enabled || template == null) {
+            return;
+        }
+        cancelRender();
+
+        // Editors that haven't been edited hold the saved text, which the renderer can reuse from its caches
+        Map<WorkspaceFile, String> unsavedSources = new HashMap<>();
+        for (EditorTab editorTab : editorSubscriptions.keySet()) {
+            if (editorTab.isLoaded() && editorTab.isTextDirty()) {
+                unsavedSources.put(editorTab.getWorkspaceFile(), editorTab.getEditorText());
+            }
+        }
+
+        long version = ++renderVersion;
+        pendingRender = TemplateRenderer.renderAsync(
+                workspace,
+                template,
+                unsavedSources,
+                renderResult -> Platform.runLater(() -> renderSucceeded(version, renderResult)),
+                exception -> Platform.runLater(() -> renderFailed(version, exception))
+        );
+    }
+
+    private void cancelRender() {
+        if (pendingRender != null) {
+            pendingRender.cancel(true);
+            pendingRender = null;
+        }
+        renderVersion++;
+    }
+
+    private void renderSucceeded(long version, TemplateRenderResult renderResult) {
+        if (version != renderVersion) {
+            return;
+        }
+        pendingRender = null;
+        if (lastFailure != null) {
+            errorLogPanel.clearErrors();
+            lastFailure = null;
+        }
+        outputPanel.setContent(renderResult.renderedOutput(), renderResult.generatedJavaScript());
+    }
+
+    private void renderFailed(long version, RuntimeException exception) {
+        if (version != renderVersion) {
+            return;
+        }
+        pendingRender = null;
+
+        // Half typed code fails in the same way on every edit, so only report a failure when it changes
+        String failure = Objects.requireNonNullElse(exception.getMessage(), exception.toString());
+        if (failure.equals(lastFailure)) {
+            return;
+        }
+        lastFailure = failure;
+        errorLogPanel.clearErrors();
+        if (exception instanceof RendererException renderEx) {
+            errorLogPanel.addError(renderEx);
+        } else {
+            LogPanel.appendLog(LogPanel.Level.WARNING, "Live preview failed: " + lastFailure);
+        }
+    }
+}
@@ -1,21 +1,88 @@
 package com.campaignworkbench.ide;
 
 import javafx.application.Platform;
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.collections.transformation.FilteredList;
 import javafx.geometry.Insets;
+import javafx.geometry.Pos;
 import javafx.scene.Cursor;
 import javafx.scene.Node;
-import javafx.scene.control.Label;
-import javafx.scene.control.TextArea;
+import javafx.scene.control.*;
+import javafx.scene.control.skin.VirtualFlow;
+import javafx.scene.input.Clipboard;
+import javafx.scene.input.ClipboardContent;
+import javafx.scene.input.KeyCode;
+import javafx.scene.input.KeyEvent;
+import javafx.scene.layout.HBox;
 import javafx.scene.layout.Priority;
 import javafx.scene.layout.VBox;
 import javafx.scene.text.Font;
+import org.reactfx.EventStreams;
+
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
 
 /**
- * User interface control to provided a logging console
+ * User interface control to provided a logging console. Messages can be logged from any thread. They are
+ * queued and added to the console together, at most once per pulse, and only the most recent are kept. The
+ * console is a virtualized list, so only the visible lines are laid out, and can be filtered by level and
+ * searched.
  */
 public class LogPanel implements IJavaFxNode {
 
-    private static TextArea logArea;
+    /**
+     * Severity of a log message
+     */
+    public enum Level {
+        INFO,
+        WARNING,
+        ERROR
+    }
+
+    /**
+     * A logged message
+     * @param sequence position of the message in the order logged
+     * @param level severity of the message
+     * @param message the message
+     */
+    public record LogEntry(long sequence, Level level, String message) {
+    }
+
+    // Messages kept in the console, beyond which the oldest are dropped
+    private static final int MAX_ENTRIES = 10_000;
+
+    // Time without typing in the search field before the log is searched
+    private static final Duration SEARCH_DELAY = Duration.ofMillis(200);
+
+    private static final ConcurrentLinkedQueue<LogEntry> pendingEntries = new ConcurrentLinkedQueue<>();
+    private static final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private static long nextSequence;
+
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "log-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static LogPanel instance;
+
+    private final ObservableList<LogEntry> entries = FXCollections.observableArrayList();
+    private final FilteredList<LogEntry> filteredEntries = new FilteredList<>(entries);
+    private final ListView<LogEntry> logListView;
+    private final ChoiceBox<Level> levelChoiceBox;
+
+    // Search, with the entries that matched it when it was run. Entries logged since are matched as they arrive.
+    private String searchText = "";
+    private Set<LogEntry> searchMatches = Set.of();
+    private long searchedUpTo;
+    private long searchVersion;
+
     /**
      * The panel containing the log
      */
@@ -29,16 +96,44 @@ public class LogPanel implements IJavaFxNode {
         Label logLabel = new Label(label);
         logLabel.setPadding(new Insets(0,0, 0,5));
         // logLabel.setStyle("-fx-font-weight: bold;");
-        logArea = new TextArea();
-        logArea.setEditable(false);
-        logArea.setWrapText(true);
-        logArea.setCursor(Cursor.TEXT); // full-width log pane
-        logArea.setFont(Font.font("Source Code Pro", 14));
 
-        logPanel = new VBox(5, logLabel, logArea);
+        levelChoiceBox = new ChoiceBox<>(FXCollections.observableArrayList(Level.values()));
+        levelChoiceBox.setValue(Level.INFO);
+        levelChoiceBox.setTooltip(new Tooltip("Lowest level of message to show"));
+        levelChoiceBox.valueProperty().addListener((_, _, _) -> updateFilter());
+
+        TextField searchField = new TextField();
+        searchField.setPromptText("Search");
+        EventStreams.valuesOf(searchField.textProperty())
+                .successionEnds(SEARCH_DELAY)
+                .subscribe(this::search);
+
+        Button clearButton = new Button("Clear");
+        clearButton.setOnAction(_ -> entries.clear());
+
+        HBox header = new HBox(5, logLabel, levelChoiceBox, searchField, clearButton);
+        header.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(logLabel, Priority.ALWAYS);
+        logLabel.setMaxWidth(Double.MAX_VALUE);
+
+        logListView = new ListView<>(filteredEntries);
+        logListView.setCursor(Cursor.TEXT);
+        logListView.getSelectionModel().setSelectionMode(SelectionMode.MULTIPLE);
+        logListView.setCellFactory(_ -> new LogEntryCell());
+        logListView.addEventHandler(KeyEvent.KEY_PRESSED, event -> {
+            if (event.isShortcutDown() && event.getCode() == KeyCode.C) {
+                copySelection();
+            }
+        });
+
+        logPanel = new VBox(5, header, logListView);
         logPanel.setPadding(new Insets(0,0, 0,5));
         logPanel.setMinHeight(0);
-        VBox.setVgrow(logArea, Priority.ALWAYS);
+        logPanel.getStyleClass().add("log-panel");
+        VBox.setVgrow(logListView, Priority.ALWAYS);
+
+        instance = this;
+        drainPendingEntries();
     }
 
     public Node getNode() {
@@ -50,7 +145,158 @@ public class LogPanel implements IJavaFxNode {
      * @param msg text containing content of the log line to add
      */
     public static void appendLog(String msg) {
-        Platform.runLater(() -> logArea.appendText(msg + "\n"));
+        appendLog(Level.INFO, msg);
     }
 
+    /**
+     * Adds a line of content to the log. Can be called from any thread.
+     * @param level severity of the message
+     * @param msg text containing content of the log line to add
+     */
+    public static void appendLog(Level level, String msg) {
+        pendingEntries.add(new LogEntry(0, level, msg));
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                Platform.runLater(LogPanel::drainPendingEntries);
+            } catch (IllegalStateException toolkitNotRunning) {
+                // Left queued until the toolkit is running, rather than blocking later messages
+                drainScheduled.set(false);
+                throw toolkitNotRunning;
+            }
+        }
+    }
+
+    /**
+     * Moves the queued messages into the console, dropping the oldest beyond the limit
+     */
+    private static void drainPendingEntries() {
+        drainScheduled.set(false);
+        if (instance == null) {
+            return;
+        }
+
+        List<LogEntry> drained = new ArrayList<>();
+        LogEntry entry;
+        while ((entry = pendingEntries.poll()) != null) {
+            drained.add(new LogEntry(nextSequence++, entry.level(), entry.message()));
+        }
+        if (drained.isEmpty()) {
+            return;
+        }
+        instance.addEntries(drained.subList(Math.max(0, drained.size() - MAX_ENTRIES), drained.size()));
+    }
+
+    private void addEntries(List<LogEntry> newEntries) {
+        boolean followTail = isShowingLastEntry();
+        int overflow = entries.size() + newEntries.size() - MAX_ENTRIES;
+        if (overflow > 0) {
+            entries.remove(0, Math.min(overflow, entries.size()));
+        }
+        entries.addAll(newEntries);
+        if (followTail && !filteredEntries.isEmpty()) {
+            logListView.scrollTo(filteredEntries.size() - 1);
+        }
+    }
+
+    /**
+     * @return true if the console is scrolled to the end, so should keep following new messages
+     */
+    private boolean isShowingLastEntry() {
+        VirtualFlow<?> flow = (VirtualFlow<?>) logListView.lookup(".virtual-flow");
+        if (flow == null) {
+            return true;
+        }
+        IndexedCell<?> lastVisibleCell = flow.getLastVisibleCell();
+        return lastVisibleCell == null || lastVisibleCell.getIndex() >= filteredEntries.size() - 1;
+    }
+
+    /**
+     * Finds the messages matching the search on a background thread, then filters the console to them
+     */
+    private void search(String text) {
+        long version = ++searchVersion;
+        String query = text.toLowerCase(Locale.ROOT);
+        if (query.isEmpty()) {
+            applySearch(version, query, Set.of(), Long.MAX_VALUE);
+            return;
+        }
+        List<LogEntry> snapshot = List.copyOf(entries);
+        long upTo = snapshot.isEmpty() ? -1 : snapshot.getLast().sequence();
+
+        searchExecutor.submit(() -> {
+            Set<LogEntry> matches = snapshot.stream()
+                    .filter(entry -> matches(entry, query))
+                    .collect(Collectors.toCollection(() -> Collections.newSetFromMap(new IdentityHashMap<>())));
+            Platform.runLater(() -> applySearch(version, query, matches, upTo));
+        });
+    }
+
+    private void applySearch(long version, String query, Set<LogEntry> matches, long upTo) {
+        // A newer search has been started
+        if (version != searchVersion) {
+            return;
+        }
+        searchText = query;
+        searchMatches = matches;
+        searchedUpTo = upTo;
+        updateFilter();
+    }
+
+    private void updateFilter() {
+        Level minimumLevel = levelChoiceBox.getValue();
+        String query = searchText;
+        Set<LogEntry> matches = searchMatches;
+        long upTo = searchedUpTo;
+        filteredEntries.setPredicate(entry -> {
+            if (entry.level().compareTo(minimumLevel) < 0) {
+                return false;
+            }
+            if (query.isEmpty()) {
+                return true;
+            }
+            return entry.sequence() <= upTo ? matches.contains(entry) : matches(entry, query);
+        });
+    }
+
+    private static boolean matches(LogEntry entry, String query) {
+        return entry.message().toLowerCase(Locale.ROOT).contains(query);
+    }
+
+    private void copySelection() {
+        String text = logListView.getSelectionModel().getSelectedItems().stream()
+                .map(LogEntry::message)
+                .collect(Collectors.joining("\n"));
+        ClipboardContent content = new ClipboardContent();
+        content.putString(text);
+        Clipboard.getSystemClipboard().setContent(content);
+    }
+
+    /**
+     * Shows a message, styled by its level
+     */
+    private static final class LogEntryCell extends ListCell<LogEntry> {
+
+        private static final Font LOG_FONT = Font.font("Source Code Pro", 14);
+
+        LogEntryCell() {
+            setFont(LOG_FONT);
+        }
+
+        @Override
+        protected void updateItem(LogEntry entry, boolean empty) {
+            super.updateItem(entry, empty);
+            getStyleClass().removeAll("log-warning", "log-error");
+            if (empty || entry == null) {
+                setText(null);
+                return;
+            }
+            setText(entry.message());
+            switch (entry.level()) {
+                case WARNING -> getStyleClass().add("log-warning");
+                case ERROR -> getStyleClass().add("log-error");
+                default -> {
+                }
+            }
+        }
+    }
 }
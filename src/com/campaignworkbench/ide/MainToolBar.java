@@ -6,9 +6,13 @@ import javafx.event.EventHandler;
 import javafx.geometry.Orientation;
 import javafx.scene.Node;
 import javafx.scene.control.Button;
+import javafx.scene.control.ProgressIndicator;
 import javafx.scene.control.Separator;
+import javafx.scene.control.ToggleButton;
 import javafx.scene.control.ToolBar;
+import javafx.scene.control.Tooltip;
 import org.controlsfx.glyphfont.FontAwesome;
+import org.controlsfx.glyphfont.Glyph;
 
 /**
  * Implements a button toolbar for use within the IDE User Interface
@@ -17,24 +21,42 @@ public class MainToolBar implements IJavaFxNode {
 
     private final ToolBar toolBar;
     private final Button runButton;
+    private final ProgressIndicator runProgressIndicator;
+    private final Button cancelRunButton;
+    private final ToggleButton livePreviewButton;
 
     /**
      * Constructor
      * @param openWorkspaceHandler - action to take when the open workspace button is clicked
      * @param runHandler - action to take when the run button is clicked
+     * @param cancelRunHandler - action to take when the cancel button is clicked while a template is running
+     * @param livePreviewHandler - action to take when the live preview button is toggled
      */
     public MainToolBar(
             EventHandler<ActionEvent> openWorkspaceHandler,
             EventHandler<ActionEvent> newWorkspaceHandler,
             EventHandler<ActionEvent> closeWorkspaceHandler,
             EventHandler<ActionEvent> closeEditorTabsHandler,
-            EventHandler<ActionEvent> runHandler
+            EventHandler<ActionEvent> runHandler,
+            EventHandler<ActionEvent> cancelRunHandler,
+            EventHandler<ActionEvent> livePreviewHandler
     ) {
         Button openWorkspaceButton = UiUtil.createButton("", "Open Workspace", FontAwesome.Glyph.FOLDER_OPEN,  "workspace-icon",2, true, openWorkspaceHandler);
         Button newWorkspaceButton = UiUtil.createButton("", "New Workspace", FontAwesome.Glyph.FOLDER,  "positive-icon",2, true, newWorkspaceHandler);
         Button closeWorkspaceButton = UiUtil.createButton("", "Close Workspace", FontAwesome.Glyph.CLOSE,  "negative-icon",2, true, closeWorkspaceHandler);
         Button closeEditorTabsButton = UiUtil.createButton("", "Close all editor tabs", FontAwesome.Glyph.FILES_ALT,  "negative-icon",2, true, closeEditorTabsHandler);
         runButton = UiUtil.createButton("", "Run template", FontAwesome.Glyph.PLAY,  "positive-icon",2, false, runHandler);
+        cancelRunButton = UiUtil.createButton("", "Cancel running template", FontAwesome.Glyph.STOP,  "negative-icon",2, true, cancelRunHandler);
+
+        runProgressIndicator = new ProgressIndicator();
+        runProgressIndicator.setPrefSize(24, 24);
+        setRunInProgress(false);
+
+        Glyph livePreviewGlyph = new Glyph("FontAwesome", FontAwesome.Glyph.EYE).sizeFactor(2);
+        livePreviewGlyph.getStyleClass().add("positive-icon");
+        livePreviewButton = new ToggleButton("", livePreviewGlyph);
+        livePreviewButton.setTooltip(new Tooltip("Live preview the template as it is edited"));
+        livePreviewButton.setOnAction(livePreviewHandler);
 
         toolBar = new ToolBar(
                 openWorkspaceButton,
@@ -43,7 +65,11 @@ public class MainToolBar implements IJavaFxNode {
                 new Separator(Orientation.VERTICAL),
                 closeEditorTabsButton,
                 new Separator(Orientation.VERTICAL),
-                runButton
+                runButton,
+                runProgressIndicator,
+                cancelRunButton,
+                new Separator(Orientation.VERTICAL),
+                livePreviewButton
         );
 
         toolBar.getStyleClass().add(".large-toolbar");
@@ -56,6 +82,24 @@ public class MainToolBar implements IJavaFxNode {
         runButton.setDisable(!state);
     }
 
+    /**
+     * Shows or hides the progress indicator and cancel button shown while a template runs
+     * @param inProgress true if a template is running
+     */
+    public void setRunInProgress(boolean inProgress) {
+        runProgressIndicator.setVisible(inProgress);
+        runProgressIndicator.setManaged(inProgress);
+        cancelRunButton.setVisible(inProgress);
+        cancelRunButton.setManaged(inProgress);
+    }
+
+    /**
+     * @return true if the live preview button is toggled on
+     */
+    public boolean isLivePreviewSelected() {
+        return livePreviewButton.isSelected();
+    }
+
     @Override
     public Node getNode() {
         return toolBar;
@@ -0,0 +1,178 @@
+package com.campaignworkbench.ide;
+
+import com.campaignworkbench.workspace.Workspace;
+import com.campaignworkbench.workspace.WorkspaceFile;
+import com.campaignworkbench.workspace.WorkspaceSearchIndex;
+import javafx.application.Platform;
+import javafx.geometry.Insets;
+import javafx.geometry.Pos;
+import javafx.scene.Node;
+import javafx.scene.control.Label;
+import javafx.scene.control.ListCell;
+import javafx.scene.control.ListView;
+import javafx.scene.control.TextField;
+import javafx.scene.input.MouseButton;
+import javafx.scene.layout.HBox;
+import javafx.scene.layout.Priority;
+import javafx.scene.layout.VBox;
+import org.reactfx.EventStreams;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BiConsumer;
+
+/**
+ * User interface control to search the text of every file in the workspace, listing the matching lines.
+ * Double-clicking a line opens the file at that line.
+ */
+public class SearchPanel implements IJavaFxNode {
+
+    // Time without typing in the search field before the workspace is searched
+    private static final Duration SEARCH_DELAY = Duration.ofMillis(200);
+
+    // Most lines listed for one search
+    private static final int MAX_MATCHES = 1000;
+
+    private static final ExecutorService searchExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-search");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final TextField searchField;
+    private final Label statusLabel;
+    private final ListView<WorkspaceSearchIndex.SearchMatch> resultsListView;
+    private BiConsumer<WorkspaceFile, Integer> onResultDoubleClicked;
+
+    private Workspace workspace;
+
+    // Version of the latest search, so results of older searches are ignored
+    private long searchVersion;
+
+    /**
+     * The panel containing the search
+     */
+    VBox searchPanel;
+
+    /**
+     * Constructor
+     * @param label The label for the search panel
+     */
+    public SearchPanel(String label) {
+        Label searchLabel = new Label(label);
+        searchLabel.setPadding(new Insets(0,0, 0,5));
+
+        searchField = new TextField();
+        searchField.setPromptText("Search workspace");
+        searchField.setOnAction(_ -> search());
+        EventStreams.valuesOf(searchField.textProperty())
+                .successionEnds(SEARCH_DELAY)
+                .subscribe(_ -> search());
+
+        statusLabel = new Label();
+
+        HBox header = new HBox(5, searchLabel, searchField, statusLabel);
+        header.setAlignment(Pos.CENTER_LEFT);
+        HBox.setHgrow(searchField, Priority.ALWAYS);
+
+        resultsListView = new ListView<>();
+        resultsListView.setCellFactory(_ -> new SearchMatchCell());
+        resultsListView.setOnMouseClicked(event -> {
+            if (event.getButton() == MouseButton.PRIMARY && event.getClickCount() == 2) {
+                WorkspaceSearchIndex.SearchMatch match = resultsListView.getSelectionModel().getSelectedItem();
+                if (match != null && onResultDoubleClicked != null) {
+                    onResultDoubleClicked.accept(match.workspaceFile(), match.line());
+                }
+            }
+        });
+
+        searchPanel = new VBox(5, header, resultsListView);
+        searchPanel.setPadding(new Insets(0,0, 0,5));
+        searchPanel.setMinHeight(0);
+        searchPanel.getStyleClass().add("search-panel");
+        VBox.setVgrow(resultsListView, Priority.ALWAYS);
+    }
+
+    /**
+     * Sets the callback for when a result is double-clicked
+     * @param callback the callback function accepting the file and line number
+     */
+    public void setOnResultDoubleClicked(BiConsumer<WorkspaceFile, Integer> callback) {
+        this.onResultDoubleClicked = callback;
+    }
+
+    /**
+     * Sets the workspace to search, starting to index it if it isn't already
+     * @param workspace the workspace, or null if no workspace is open
+     */
+    public void setWorkspace(Workspace workspace) {
+        if (workspace == this.workspace) {
+            return;
+        }
+        this.workspace = workspace;
+        if (workspace != null) {
+            workspace.getSearchIndex();
+        }
+        search();
+    }
+
+    /**
+     * Searches the workspace for the text in the search field on a background thread, then lists the matches
+     */
+    private void search() {
+        long version = ++searchVersion;
+        String query = searchField.getText();
+        if (workspace == null || query.isEmpty()) {
+            showResults(version, List.of(), "");
+            return;
+        }
+
+        WorkspaceSearchIndex searchIndex = workspace.getSearchIndex();
+        if (searchIndex == null) {
+            // The workspace has been closed
+            showResults(version, List.of(), "");
+            return;
+        }
+        searchExecutor.submit(() -> {
+            long startTime = System.nanoTime();
+            List<WorkspaceSearchIndex.SearchMatch> matches = searchIndex.search(query, MAX_MATCHES);
+            long elapsedMillis = (System.nanoTime() - startTime) / 1_000_000;
+
+            String status = (matches.size() >= MAX_MATCHES ? "First " : "") + matches.size() + " matches in "
+                    + elapsedMillis + " ms" + (searchIndex.isIndexing() ? " (still indexing)" : "");
+            Platform.runLater(() -> showResults(version, matches, status));
+        });
+    }
+
+    private void showResults(long version, List<WorkspaceSearchIndex.SearchMatch> matches, String status) {
+        // A newer search has been started
+        if (version != searchVersion) {
+            return;
+        }
+        resultsListView.getItems().setAll(matches);
+        statusLabel.setText(status);
+    }
+
+    @Override
+    public Node getNode() {
+        return searchPanel;
+    }
+
+    /**
+     * Shows a match as the file name and line number, followed by the line
+     */
+    private static final class SearchMatchCell extends ListCell<WorkspaceSearchIndex.SearchMatch> {
+
+        @Override
+        protected void updateItem(WorkspaceSearchIndex.SearchMatch match, boolean empty) {
+            super.updateItem(match, empty);
+            if (empty || match == null) {
+                setText(null);
+                return;
+            }
+            setText(match.workspaceFile().getFileName() + ":" + match.line() + "  " + match.lineText());
+        }
+    }
+}
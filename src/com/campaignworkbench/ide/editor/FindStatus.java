@@ -0,0 +1,18 @@
+package com.campaignworkbench.ide.editor;
+
+/**
+ * The outcome of a find in a code editor
+ * @param matchCount number of matches in the text
+ * @param currentMatch index of the match that is selected, or -1 if none is
+ * @param error description of why the text to find is not valid, or null if it is
+ */
+public record FindStatus(int matchCount, int currentMatch, String error) {
+
+    /**
+     * @param error description of why the text to find is not valid
+     * @return status of a find that could not be run
+     */
+    public static FindStatus invalid(String error) {
+        return new FindStatus(0, -1, error);
+    }
+}
@@ -56,7 +56,25 @@ public interface ICodeEditor {
 
     void insertTextAtCaret(String text);
 
-    void find(String textToFind);
+    /**
+     * Highlights every match of the text in the editor, replacing any previous find. Matches are found in the
+     * background and kept up to date as the text is edited, reporting to the find status listeners.
+     * @param textToFind the text to find, ignoring case, or an empty string to clear the find
+     * @param regex whether the text is a regular expression
+     */
+    void find(String textToFind, boolean regex);
+
+    /**
+     * Selects the first match after the selection, wrapping round to the start of the text
+     */
+    void findNext();
+
+    /**
+     * Selects the last match before the selection, wrapping round to the end of the text
+     */
+    void findPrevious();
+
+    Subscription addFindStatusListener(Consumer<FindStatus> listener);
 
     void formatCode(int indentSize);
 
@@ -64,6 +82,10 @@ public interface ICodeEditor {
 
     void unfoldAll();
 
-    Subscription addTextChangeListener(Consumer<String> listener);
+    /**
+     * Adds a listener called after each edit. The text isn't passed, as copying it on every edit is slow for
+     * large files, so call {@link #getText()} if it's needed.
+     */
+    Subscription addTextChangeListener(Runnable listener);
 
 }
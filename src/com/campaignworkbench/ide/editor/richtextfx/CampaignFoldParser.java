@@ -20,13 +20,11 @@ public class CampaignFoldParser extends FoldParser implements IFoldParser {
     }
 
     @Override
-    public FoldRegions findFoldRegions(CodeArea codeArea) {
-
-        foldRegions = new FoldRegions(codeArea);
-        String text = codeArea.getText();
+    protected boolean parseRegions(String text, RegionCollector regions) {
 
         Deque<Integer> braceStack = new ArrayDeque<>();
         Deque<Integer> tagStack = new ArrayDeque<>();
+        boolean balanced = true;
 
         Matcher matcher = DELIM_PATTERN.matcher(text);
 
@@ -39,11 +37,11 @@ public class CampaignFoldParser extends FoldParser implements IFoldParser {
                     break;
 
                 case "}":
-                    if (!braceStack.isEmpty()) {
+                    if (braceStack.isEmpty()) {
+                        balanced = false;
+                    } else {
                         int start = braceStack.pop();
-                        if (start != matcher.end()) {
-                            foldRegions.add(start, matcher.end(), foldedParagraphs);
-                        }
+                        regions.add(start, start + 1, matcher.start(), matcher.end());
                     }
                     break;
 
@@ -52,16 +50,18 @@ public class CampaignFoldParser extends FoldParser implements IFoldParser {
                     break;
 
                 case "%>":
-                    if (!tagStack.isEmpty()) {
+                    if (tagStack.isEmpty()) {
+                        balanced = false;
+                    } else {
                         int start = tagStack.pop();
-                        if (start != matcher.end()) {
-                            foldRegions.add(start, matcher.end(), foldedParagraphs);
-                        }
+                        regions.add(start, start + 2, matcher.start(), matcher.end());
                     }
                     break;
             }
         }
 
-        return foldRegions;
+        // A trailing '<' or '%' could form a delimiter with the text after the span
+        boolean openEnded = text.endsWith("<") || text.endsWith("%");
+        return balanced && braceStack.isEmpty() && tagStack.isEmpty() && !openEnded;
     }
-}
\ No newline at end of file
+}
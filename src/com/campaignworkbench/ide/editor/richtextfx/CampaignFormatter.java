@@ -0,0 +1,296 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Implements an ICodeFormatter for Adobe Campaign templates, modules and blocks. Only the indentation of each
+ * line is changed: a line is indented by the number of HTML elements open around it plus the number of
+ * brackets open in the JavaScript inside &lt;% %&gt; blocks. Lines starting with a closing bracket or end tag
+ * are indented to match the line that opened it. Lines that start inside a comment, a string, or the content
+ * of a pre, textarea, script or style element are left as they are. Thread safe.
+ */
+public class CampaignFormatter implements ICodeFormatter {
+
+    private static final Set<String> VOID_ELEMENTS = Set.of(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "track", "wbr"
+    );
+
+    // Elements whose content is kept exactly as written
+    private static final Set<String> RAW_ELEMENTS = Set.of("pre", "textarea", "script", "style");
+
+    private enum State {
+        TEXT,
+        TAG,
+        ATTRIBUTE_VALUE,
+        HTML_COMMENT,
+        RAW_TEXT,
+        CODE,
+        CODE_STRING,
+        CODE_LINE_COMMENT,
+        CODE_BLOCK_COMMENT
+    }
+
+    @Override
+    public String format(String code, int indent) {
+        return new Reindenter(code, indent).reindent();
+    }
+
+    /**
+     * Scans the code line by line, tracking the nesting as it goes
+     */
+    private static final class Reindenter {
+
+        private final String code;
+        private final int indent;
+        private final StringBuilder out;
+
+        private State state = State.TEXT;
+        // HTML state to return to at the end of a code block
+        private State htmlState = State.TEXT;
+        private char quote;
+        private int depth;
+
+        // Name of the tag being read, whether it is an end tag, and the raw element being skipped
+        private final StringBuilder tagName = new StringBuilder();
+        private boolean readingTagName;
+        private boolean endTag;
+        private String rawElement;
+
+        // Closing brackets and end tags read before anything else on the current line
+        private int leadingClosers;
+        private boolean atLineStart;
+
+        Reindenter(String code, int indent) {
+            this.code = code;
+            this.indent = indent;
+            this.out = new StringBuilder(code.length() + code.length() / 8);
+        }
+
+        String reindent() {
+            int lineStart = 0;
+            while (lineStart <= code.length()) {
+                int lineEnd = code.indexOf('\n', lineStart);
+                if (lineEnd == -1) {
+                    lineEnd = code.length();
+                }
+                appendLine(lineStart, lineEnd);
+                if (lineEnd == code.length()) {
+                    break;
+                }
+                out.append('\n');
+                lineStart = lineEnd + 1;
+            }
+            return out.toString();
+        }
+
+        private void appendLine(int lineStart, int lineEnd) {
+            if (state == State.CODE_LINE_COMMENT) {
+                state = State.CODE;
+            }
+            int depthAtStart = depth;
+            leadingClosers = 0;
+            atLineStart = true;
+
+            int contentStart = lineStart;
+            while (contentStart < lineEnd && isIndentation(code.charAt(contentStart))) {
+                contentStart++;
+            }
+            boolean rawElementEnd = state == State.RAW_TEXT
+                    && code.regionMatches(true, contentStart, "</" + rawElement, 0, rawElement.length() + 2);
+            boolean keepAsWritten = state != State.TEXT && state != State.TAG && state != State.CODE && !rawElementEnd;
+            for (int i = contentStart; i < lineEnd; i++) {
+                i = scan(i, lineEnd);
+            }
+
+            // Keep a trailing carriage return, but drop the whitespace of an empty line
+            boolean carriageReturn = lineEnd > lineStart && code.charAt(lineEnd - 1) == '\r';
+            if (keepAsWritten) {
+                out.append(code, lineStart, lineEnd);
+            } else if (contentStart == lineEnd || (carriageReturn && contentStart == lineEnd - 1)) {
+                out.append(carriageReturn ? "\r" : "");
+            } else {
+                out.repeat(' ', indent * Math.max(0, depthAtStart - leadingClosers));
+                out.append(code, contentStart, lineEnd);
+            }
+        }
+
+        /**
+         * Reads the token at a position, updating the state and nesting
+         * @return position of the last character read
+         */
+        private int scan(int i, int lineEnd) {
+            char c = code.charAt(i);
+            switch (state) {
+                case TEXT -> {
+                    if (code.startsWith("<%", i)) {
+                        return startCode(i);
+                    }
+                    if (code.startsWith("<!--", i)) {
+                        state = State.HTML_COMMENT;
+                        atLineStart = false;
+                        return i + 3;
+                    }
+                    if (c == '<' && i + 1 < code.length() && (Character.isLetter(code.charAt(i + 1)) || code.charAt(i + 1) == '/')) {
+                        endTag = code.charAt(i + 1) == '/';
+                        tagName.setLength(0);
+                        readingTagName = true;
+                        state = State.TAG;
+                        if (endTag) {
+                            depth--;
+                            closer();
+                            return i + 1;
+                        }
+                    }
+                    if (!isIndentation(c)) {
+                        atLineStart = false;
+                    }
+                }
+                case TAG -> {
+                    if (code.startsWith("<%", i)) {
+                        return startCode(i);
+                    }
+                    if (readingTagName && (Character.isLetterOrDigit(c) || c == '-' || c == ':')) {
+                        tagName.append(c);
+                        return i;
+                    }
+                    readingTagName = false;
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                        state = State.ATTRIBUTE_VALUE;
+                    } else if (c == '>') {
+                        endOfTag(i);
+                    }
+                }
+                case ATTRIBUTE_VALUE -> {
+                    if (code.startsWith("<%", i)) {
+                        return startCode(i);
+                    }
+                    if (c == quote) {
+                        state = State.TAG;
+                    }
+                }
+                case HTML_COMMENT -> {
+                    if (code.startsWith("<%", i)) {
+                        return startCode(i);
+                    }
+                    if (code.startsWith("-->", i)) {
+                        state = State.TEXT;
+                        return i + 2;
+                    }
+                }
+                case RAW_TEXT -> {
+                    if (code.startsWith("<%", i)) {
+                        return startCode(i);
+                    }
+                    if (code.regionMatches(true, i, "</" + rawElement, 0, rawElement.length() + 2)) {
+                        state = State.TEXT;
+                        return i - 1;
+                    }
+                }
+                case CODE -> {
+                    if (code.startsWith("%>", i)) {
+                        state = htmlState;
+                        atLineStart = false;
+                        return i + 1;
+                    }
+                    switch (c) {
+                        case '{', '(', '[' -> {
+                            depth++;
+                            atLineStart = false;
+                        }
+                        case '}', ')', ']' -> {
+                            depth--;
+                            closer();
+                        }
+                        case '"', '\'', '`' -> {
+                            quote = c;
+                            state = State.CODE_STRING;
+                            atLineStart = false;
+                        }
+                        case '/' -> {
+                            atLineStart = false;
+                            if (i + 1 < lineEnd && code.charAt(i + 1) == '/') {
+                                state = State.CODE_LINE_COMMENT;
+                                return i + 1;
+                            }
+                            if (i + 1 < lineEnd && code.charAt(i + 1) == '*') {
+                                state = State.CODE_BLOCK_COMMENT;
+                                return i + 1;
+                            }
+                        }
+                        default -> {
+                            if (!isIndentation(c)) {
+                                atLineStart = false;
+                            }
+                        }
+                    }
+                }
+                case CODE_STRING -> {
+                    if (code.startsWith("%>", i)) {
+                        state = htmlState;
+                        return i + 1;
+                    }
+                    if (c == '\\') {
+                        return i + 1;
+                    }
+                    if (c == quote) {
+                        state = State.CODE;
+                    }
+                }
+                case CODE_LINE_COMMENT -> {
+                    if (code.startsWith("%>", i)) {
+                        state = htmlState;
+                        return i + 1;
+                    }
+                }
+                case CODE_BLOCK_COMMENT -> {
+                    if (code.startsWith("%>", i)) {
+                        state = htmlState;
+                        return i + 1;
+                    }
+                    if (code.startsWith("*/", i)) {
+                        state = State.CODE;
+                        return i + 1;
+                    }
+                }
+            }
+            return i;
+        }
+
+        private int startCode(int i) {
+            htmlState = state;
+            state = State.CODE;
+            // Code blocks don't count as content, so a line starting <% } %> is indented as a closer
+            int end = i + 2;
+            if (end < code.length() && (code.charAt(end) == '=' || code.charAt(end) == '@')) {
+                end++;
+            }
+            return end - 1;
+        }
+
+        private void endOfTag(int i) {
+            state = State.TEXT;
+            String name = tagName.toString().toLowerCase(Locale.ROOT);
+            boolean selfClosing = code.charAt(i - 1) == '/';
+            if (!endTag && !selfClosing && !VOID_ELEMENTS.contains(name)) {
+                depth++;
+                if (RAW_ELEMENTS.contains(name)) {
+                    rawElement = name;
+                    state = State.RAW_TEXT;
+                }
+            }
+            atLineStart = false;
+        }
+
+        private void closer() {
+            if (atLineStart) {
+                leadingClosers++;
+            }
+        }
+
+        private static boolean isIndentation(char c) {
+            return c == ' ' || c == '\t';
+        }
+    }
+}
@@ -4,15 +4,16 @@ import com.campaignworkbench.ide.IDETheme;
 import org.fxmisc.richtext.model.StyleSpans;
 import org.fxmisc.richtext.model.StyleSpansBuilder;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
- * An implementation of ISyntaxStyler that provides syntax highlighting for Adobe Campaign template code
+ * An implementation of ISyntaxStyler that provides syntax highlighting for Adobe Campaign template code.
+ * The text is styled by a lexer that tracks whether it is in HTML text, a tag, an attribute value, an HTML
+ * comment, or a JavaScript code block along with its strings and comments. Code blocks are recognised in
+ * any of the HTML states, so code inside an attribute value is styled as code. Instances hold no state
+ * between calls, so may be used from any thread.
  */
 public class CampaignStyler implements ISyntaxStyler {
 
@@ -66,72 +67,191 @@ public class CampaignStyler implements ISyntaxStyler {
             "activity"
     };
 
-    private static final String KEYWORD_PATTERN = "\\b(" + String.join("|", KEYWORDS) + ")\\b";
-    private static final String HTML_PATTERN  = "<(/?\\w+)([^>]*)>";
-    private static final String PAREN_PATTERN = "\\(|\\)";
-    private static final String BRACE_PATTERN = "\\{|\\}|<%|%>";
-    private static final String BRACKET_PATTERN = "\\[|\\]";
-    private static final String SEMICOLON_PATTERN = "\\;";
-    private static final String STRING_PATTERN =
-            "\"[^\"]*\"" +   // double-quoted strings
-                    "|'[^']*'";      // single-quoted strings
-    private static final String COMMENT_PATTERN = "//[^\n]*" + "|" + "/\\*(.|\\R)*?\\*/"   // for whole text processing (text blocks)
-            + "|" + "/\\*[^\\v]*" + "|" + "^\\h*\\*([^\\v]*|/)";  // for visible paragraph processing (line by line)
-
-    private static final String GROUP_KEYWORD = "KEYWORD";
-    private static final String GROUP_HTML = "HTML";
-    private static final String GROUP_PAREN = "PAREN";
-    private static final String GROUP_BRACE = "BRACE";
-    private static final String GROUP_BRACKET = "BRACKET";
-    private static final String GROUP_SEMICOLON = "SEMICOLON";
-    private static final String GROUP_STRING = "STRING";
-    private static final String GROUP_COMMENT = "COMMENT";
-
-    private static final Map<String, String> groupToStyleClass;
+    private static final Collection<String> PLAIN_TEXT = Collections.singleton("plain-text");
+    private static final Collection<String> KEYWORD = Collections.singleton("keyword");
+    private static final Collection<String> PAREN = Collections.singleton("paren");
+    private static final Collection<String> BRACE = Collections.singleton("brace");
+    private static final Collection<String> BRACKET = Collections.singleton("bracket");
+    private static final Collection<String> SEMICOLON = Collections.singleton("semicolon");
+    private static final Collection<String> STRING = Collections.singleton("string");
+    private static final Collection<String> COMMENT = Collections.singleton("comment");
 
-    static {
-        groupToStyleClass = new HashMap<>();
-        groupToStyleClass.put(GROUP_KEYWORD, "keyword");
-        groupToStyleClass.put(GROUP_HTML, "keyword");
-        groupToStyleClass.put(GROUP_PAREN, "paren");
-        groupToStyleClass.put(GROUP_BRACE, "brace");
-        groupToStyleClass.put(GROUP_BRACKET, "bracket");
-        groupToStyleClass.put(GROUP_SEMICOLON, "semicolon");
-        groupToStyleClass.put(GROUP_STRING, "string");
-        groupToStyleClass.put(GROUP_COMMENT, "comment");
+    // Keywords grouped by their first character, so an identifier is only compared with keywords that could match
+    private static final String[][] KEYWORDS_BY_FIRST_CHAR = new String[128][];
 
+    static {
+        for (String keyword : KEYWORDS) {
+            char first = keyword.charAt(0);
+            String[] existing = KEYWORDS_BY_FIRST_CHAR[first];
+            String[] grouped = existing == null ? new String[1] : Arrays.copyOf(existing, existing.length + 1);
+            grouped[grouped.length - 1] = keyword;
+            KEYWORDS_BY_FIRST_CHAR[first] = grouped;
+        }
     }
 
-    private static final Pattern PATTERN = Pattern.compile(
-            "(?<" + GROUP_KEYWORD + ">" + KEYWORD_PATTERN + ")" +
-                    "|(?<" + GROUP_PAREN + ">" + PAREN_PATTERN + ")" +
-                    "|(?<" + GROUP_BRACE + ">" + BRACE_PATTERN + ")" +
-                    "|(?<" + GROUP_BRACKET + ">" + BRACKET_PATTERN + ")" +
-                    "|(?<" + GROUP_SEMICOLON + ">" + SEMICOLON_PATTERN + ")" +
-                    "|(?<" + GROUP_STRING + ">" + STRING_PATTERN + ")" +
-                    "|(?<" + GROUP_COMMENT + ">" + COMMENT_PATTERN + ")" +
-                    "|(?<" + GROUP_HTML + ">" + HTML_PATTERN + ")"
-    );
-
-    private Matcher matcher;
-    private StyleSpansBuilder<Collection<String>> spansBuilder;
-    private int lastSpanEnd;
+    // Lexer states. The HTML states can be interrupted by a code block, and are returned to when it ends.
+    private static final int TEXT = 0;
+    private static final int TAG = 1;
+    private static final int ATTRIBUTE_VALUE = 2;
+    private static final int HTML_COMMENT = 3;
+    private static final int CODE = 4;
+    private static final int CODE_STRING = 5;
+    private static final int CODE_LINE_COMMENT = 6;
+    private static final int CODE_BLOCK_COMMENT = 7;
 
     public CampaignStyler() {
 
     }
 
+    /**
+     * Styles the text in a single pass, starting outside any tag or code block
+     */
     @Override
     public StyleSpans<Collection<String>> style(String text) {
-        this.spansBuilder = new StyleSpansBuilder<>();
-        this.lastSpanEnd = 0;
-        this.matcher = PATTERN.matcher(text);
-        while (matcher.find()) {
-            String styleClass = evaluateNextStyle();
-            evaluateMatch(matcher.start(), matcher.end(), styleClass);
+        SpanWriter spans = new SpanWriter();
+        int length = text.length();
+        int state = TEXT;
+        // The HTML state to return to when the current code block ends
+        int htmlState = TEXT;
+        // Quote that closes the current attribute value or string
+        char quote = 0;
+        int pos = 0;
+
+        while (pos < length) {
+            char c = text.charAt(pos);
+
+            if (state < CODE) {
+                if (text.startsWith("<%", pos)) {
+                    // Include the marker of an expression or directive in the opening brace
+                    int markerLength = pos + 2 < length && (text.charAt(pos + 2) == '=' || text.charAt(pos + 2) == '@') ? 3 : 2;
+                    spans.add(BRACE, markerLength);
+                    pos += markerLength;
+                    htmlState = state;
+                    state = CODE;
+                    continue;
+                }
+            } else if (text.startsWith("%>", pos)) {
+                // A code block ends at the first %>, even inside a string or comment, as it does when compiled
+                spans.add(BRACE, 2);
+                pos += 2;
+                state = htmlState;
+                continue;
+            }
+
+            switch (state) {
+                case TEXT -> {
+                    if (text.startsWith("<!--", pos)) {
+                        spans.add(COMMENT, 4);
+                        pos += 4;
+                        state = HTML_COMMENT;
+                    } else if (c == '<' && isTagStart(text, pos + 1)) {
+                        spans.add(KEYWORD, 1);
+                        pos++;
+                        state = TAG;
+                    } else {
+                        // Skip straight to the next character that could change state
+                        int next = text.indexOf('<', pos + 1);
+                        int end = next == -1 ? length : next;
+                        spans.add(PLAIN_TEXT, end - pos);
+                        pos = end;
+                    }
+                }
+                case TAG -> {
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                        spans.add(STRING, 1);
+                        state = ATTRIBUTE_VALUE;
+                    } else {
+                        spans.add(KEYWORD, 1);
+                        if (c == '>') {
+                            state = TEXT;
+                        }
+                    }
+                    pos++;
+                }
+                case ATTRIBUTE_VALUE -> {
+                    spans.add(STRING, 1);
+                    if (c == quote) {
+                        state = TAG;
+                    }
+                    pos++;
+                }
+                case HTML_COMMENT -> {
+                    if (text.startsWith("-->", pos)) {
+                        spans.add(COMMENT, 3);
+                        pos += 3;
+                        state = TEXT;
+                    } else {
+                        spans.add(COMMENT, 1);
+                        pos++;
+                    }
+                }
+                case CODE -> {
+                    if (c == '"' || c == '\'') {
+                        quote = c;
+                        spans.add(STRING, 1);
+                        pos++;
+                        state = CODE_STRING;
+                    } else if (text.startsWith("//", pos)) {
+                        spans.add(COMMENT, 2);
+                        pos += 2;
+                        state = CODE_LINE_COMMENT;
+                    } else if (text.startsWith("/*", pos)) {
+                        spans.add(COMMENT, 2);
+                        pos += 2;
+                        state = CODE_BLOCK_COMMENT;
+                    } else if (Character.isJavaIdentifierStart(c) || Character.isDigit(c)) {
+                        int end = pos + 1;
+                        while (end < length && Character.isJavaIdentifierPart(text.charAt(end))) {
+                            end++;
+                        }
+                        spans.add(isKeyword(text, pos, end) ? KEYWORD : PLAIN_TEXT, end - pos);
+                        pos = end;
+                    } else {
+                        spans.add(punctuationStyle(c), 1);
+                        pos++;
+                    }
+                }
+                case CODE_STRING -> {
+                    if (c == '\\' && pos + 1 < length && !text.startsWith("%>", pos + 1)) {
+                        spans.add(STRING, 2);
+                        pos += 2;
+                    } else if (c == '\n') {
+                        // Unterminated string
+                        spans.add(PLAIN_TEXT, 1);
+                        pos++;
+                        state = CODE;
+                    } else {
+                        spans.add(STRING, 1);
+                        pos++;
+                        if (c == quote) {
+                            state = CODE;
+                        }
+                    }
+                }
+                case CODE_LINE_COMMENT -> {
+                    if (c == '\n') {
+                        spans.add(PLAIN_TEXT, 1);
+                        state = CODE;
+                    } else {
+                        spans.add(COMMENT, 1);
+                    }
+                    pos++;
+                }
+                case CODE_BLOCK_COMMENT -> {
+                    if (text.startsWith("*/", pos)) {
+                        spans.add(COMMENT, 2);
+                        pos += 2;
+                        state = CODE;
+                    } else {
+                        spans.add(COMMENT, 1);
+                        pos++;
+                    }
+                }
+                default -> throw new IllegalStateException("Unknown lexer state: " + state);
+            }
         }
-        completeStyleToEnd(text);
-        return spansBuilder.create();
+        return spans.create();
     }
 
     @Override
@@ -139,27 +259,84 @@ public class CampaignStyler implements ISyntaxStyler {
         return theme.getCampaignSyntaxStyleSheet();
     }
 
-    private void completeStyleToEnd(String text) {
-        spansBuilder.add(Collections.singleton("plain-text"), text.length() - lastSpanEnd);
+    @Override
+    public int getSafeRestyleStart(String text, int offset) {
+        // Back out of any code block, HTML comment or tag the edit is in, as these can span lines
+        int start = Math.min(
+                StyleBoundaries.startOfEnclosing(text, offset, "<%", "%>"),
+                Math.min(
+                        StyleBoundaries.startOfEnclosing(text, offset, "<!--", "-->"),
+                        StyleBoundaries.startOfEnclosing(text, offset, "<", ">")));
+        return StyleBoundaries.lineStart(text, start);
     }
 
-    private void evaluateMatch(int start, int end, String styleClass) {
-        assert styleClass != null;
-        // From the last style found to the new one we apply an empty list (no style)
-        spansBuilder.add(Collections.singleton("plain-text"), start - lastSpanEnd);
-        // Then we apply the one found by the matcher
-        spansBuilder.add(Collections.singleton(styleClass), end - start);
-        // Save the end
-        lastSpanEnd = end;
+    @Override
+    public int getSafeRestyleEnd(String text, int offset) {
+        // Carry on to the end of any code block, HTML comment or tag the edit is in
+        int end = Math.max(
+                StyleBoundaries.endOfEnclosing(text, offset, "<%", "%>"),
+                Math.max(
+                        StyleBoundaries.endOfEnclosing(text, offset, "<!--", "-->"),
+                        StyleBoundaries.endOfEnclosing(text, offset, "<", ">")));
+        return StyleBoundaries.lineEnd(text, end);
     }
 
-    private String evaluateNextStyle() {
-        for (String groupName : groupToStyleClass.keySet()) {
-            // If matcher found something that matches the group name, we return the associated style
-            if (matcher.group(groupName) != null) {
-                return groupToStyleClass.get(groupName);
+    /**
+     * @return true if the character after a '<' starts an opening or closing tag, or a declaration such as DOCTYPE
+     */
+    private static boolean isTagStart(String text, int pos) {
+        if (pos < text.length() && (text.charAt(pos) == '/' || text.charAt(pos) == '!')) {
+            pos++;
+        }
+        return pos < text.length() && Character.isLetter(text.charAt(pos));
+    }
+
+    private static boolean isKeyword(String text, int start, int end) {
+        char first = text.charAt(start);
+        if (first >= KEYWORDS_BY_FIRST_CHAR.length || KEYWORDS_BY_FIRST_CHAR[first] == null) {
+            return false;
+        }
+        int length = end - start;
+        for (String keyword : KEYWORDS_BY_FIRST_CHAR[first]) {
+            if (keyword.length() == length && text.regionMatches(start, keyword, 0, length)) {
+                return true;
             }
         }
-        return null; /* never happens */
+        return false;
+    }
+
+    private static Collection<String> punctuationStyle(char c) {
+        return switch (c) {
+            case '(', ')' -> PAREN;
+            case '{', '}' -> BRACE;
+            case '[', ']' -> BRACKET;
+            case ';' -> SEMICOLON;
+            default -> PLAIN_TEXT;
+        };
+    }
+
+    /**
+     * Builds style spans, merging consecutive characters with the same style into one span
+     */
+    private static final class SpanWriter {
+        private final StyleSpansBuilder<Collection<String>> builder = new StyleSpansBuilder<>();
+        private Collection<String> style = PLAIN_TEXT;
+        private int length;
+
+        void add(Collection<String> nextStyle, int nextLength) {
+            if (nextStyle != style) {
+                if (length > 0) {
+                    builder.add(style, length);
+                }
+                style = nextStyle;
+                length = 0;
+            }
+            length += nextLength;
+        }
+
+        StyleSpans<Collection<String>> create() {
+            builder.add(style, length);
+            return builder.create();
+        }
     }
 }
@@ -0,0 +1,29 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Background thread shared by all editors for work that scans a snapshot of the text, such as syntax
+ * highlighting, or that produces the text, such as loading a large file. Results are applied back on the FX
+ * thread by the caller. A single thread is used so that
+ * tasks from the same editor never run concurrently against its stylers and parsers.
+ */
+public final class EditorExecutors {
+
+    private static final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "editor-background");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private EditorExecutors() {
+    }
+
+    /**
+     * @return the executor for editor background work
+     */
+    public static ExecutorService getBackgroundExecutor() {
+        return backgroundExecutor;
+    }
+}
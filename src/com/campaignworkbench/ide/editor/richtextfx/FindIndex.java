@@ -0,0 +1,224 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The matches of a find in a document, kept up to date as it is edited. Matches are shifted as text is
+ * inserted and removed around them, and matches the edit touches are dropped. After an edit only the text a
+ * match could span needs searching again, which for plain text is the edited range widened by the length of
+ * the text being found. A regular expression can match any length of text, so the whole document is searched.
+ * Searching is done on a snapshot of the text and can run on any thread, the matches are only used on the FX
+ * thread.
+ */
+final class FindIndex {
+
+    /**
+     * The matches found by searching part of a document
+     * @param start offset the search started at
+     * @param end offset the search ended at
+     * @param matches start and end offsets of each match, in pairs
+     */
+    record Result(int start, int end, int[] matches) {
+    }
+
+    private final Pattern pattern;
+
+    // Longest text a match can span, or -1 if a match can be any length
+    private final int maxMatchLength;
+
+    // Sorted, and never overlapping
+    private int[] starts = new int[0];
+    private int[] ends = new int[0];
+    private int size;
+
+    private FindIndex(Pattern pattern, int maxMatchLength) {
+        this.pattern = pattern;
+        this.maxMatchLength = maxMatchLength;
+    }
+
+    /**
+     * @param text the text to find, ignoring case
+     * @return an empty index for the text
+     */
+    static FindIndex literal(String text) {
+        return new FindIndex(Pattern.compile(Pattern.quote(text), Pattern.CASE_INSENSITIVE), text.length());
+    }
+
+    /**
+     * @param regex the regular expression to find, ignoring case
+     * @return an empty index for the expression
+     * @throws java.util.regex.PatternSyntaxException if the expression is not valid
+     */
+    static FindIndex regex(String regex) {
+        return new FindIndex(Pattern.compile(regex, Pattern.CASE_INSENSITIVE | Pattern.MULTILINE), -1);
+    }
+
+    /**
+     * Searches the part of a snapshot of the text that an edit could have changed the matches in. Matches
+     * must lie wholly inside the searched part, but the pattern can look outside it. Empty matches are ignored.
+     * @param text snapshot of the whole text
+     * @param editStart offset the edited range starts at
+     * @param editEnd offset the edited range ends at
+     * @return the matches found
+     */
+    Result search(String text, int editStart, int editEnd) {
+        int start = 0;
+        int end = text.length();
+        if (maxMatchLength != -1) {
+            start = Math.max(0, editStart - maxMatchLength + 1);
+            end = Math.min(text.length(), editEnd + maxMatchLength - 1);
+        }
+
+        Matcher matcher = pattern.matcher(text)
+                .region(start, end)
+                .useTransparentBounds(true)
+                .useAnchoringBounds(false);
+        return new Result(start, end, findMatches(matcher, 0));
+    }
+
+    /**
+     * Searches only a part of the text, for when copying the whole text is too slow. Matches that cross the edge
+     * of the part are not found, but {@link #replace} keeps any already known.
+     * @param part the text of the part
+     * @param offset offset the part starts at in the whole text
+     * @return the matches found, as offsets in the whole text
+     */
+    Result searchPart(String part, int offset) {
+        return new Result(offset, offset + part.length(), findMatches(pattern.matcher(part), offset));
+    }
+
+    private static int[] findMatches(Matcher matcher, int offset) {
+        int[] matches = new int[16];
+        int count = 0;
+        while (matcher.find()) {
+            if (matcher.end() == matcher.start()) {
+                continue;
+            }
+            if (count == matches.length) {
+                matches = Arrays.copyOf(matches, count * 2);
+            }
+            matches[count++] = offset + matcher.start();
+            matches[count++] = offset + matcher.end();
+        }
+        return Arrays.copyOf(matches, count);
+    }
+
+    /**
+     * Shifts the matches to account for an edit, dropping any it touches
+     * @param position offset the edit starts at
+     * @param removalEnd end of the text removed, in offsets from before the edit
+     * @param netLength length of the text inserted less the length removed
+     */
+    void applyChange(int position, int removalEnd, int netLength) {
+        int kept = 0;
+        for (int i = 0; i < size; i++) {
+            int start = starts[i];
+            int end = ends[i];
+            if (start < removalEnd && end > position) {
+                continue;
+            }
+            if (start >= removalEnd) {
+                start += netLength;
+                end += netLength;
+            }
+            starts[kept] = start;
+            ends[kept++] = end;
+        }
+        size = kept;
+    }
+
+    /**
+     * Replaces the matches inside a searched part of the text with the ones found there. Matches that cross the
+     * edge of the part could not have been found again, so are kept in preference to any found that overlap them.
+     * @param result the matches found by {@link #search}
+     */
+    void replace(Result result) {
+        int[] found = result.matches();
+        int[] newStarts = new int[size + found.length / 2];
+        int[] newEnds = new int[newStarts.length];
+        int count = 0;
+
+        int i = 0;
+        while (i < size && starts[i] < result.start()) {
+            newStarts[count] = starts[i];
+            newEnds[count++] = ends[i++];
+        }
+        while (i < size && ends[i] <= result.end()) {
+            i++;
+        }
+        int limit = i < size && starts[i] < result.end() ? starts[i] : Integer.MAX_VALUE;
+
+        for (int j = 0; j < found.length; j += 2) {
+            boolean overlapsPrevious = count > 0 && newEnds[count - 1] > found[j];
+            if (!overlapsPrevious && found[j + 1] <= limit) {
+                newStarts[count] = found[j];
+                newEnds[count++] = found[j + 1];
+            }
+        }
+        while (i < size) {
+            newStarts[count] = starts[i];
+            newEnds[count++] = ends[i++];
+        }
+
+        starts = newStarts;
+        ends = newEnds;
+        size = count;
+    }
+
+    /**
+     * @return the number of matches
+     */
+    int size() {
+        return size;
+    }
+
+    int getStart(int index) {
+        return starts[index];
+    }
+
+    int getEnd(int index) {
+        return ends[index];
+    }
+
+    /**
+     * @param offset an offset in the text
+     * @return index of the first match starting at or after the offset, or the number of matches if there is none
+     */
+    int indexStartingFrom(int offset) {
+        return lowerBound(starts, offset);
+    }
+
+    /**
+     * @param offset an offset in the text
+     * @return index of the first match ending after the offset, or the number of matches if there is none
+     */
+    int indexEndingAfter(int offset) {
+        return lowerBound(ends, offset + 1);
+    }
+
+    /**
+     * @param start offset of the start of a range
+     * @param end offset of the end of a range
+     * @return index of the match covering exactly the range, or -1 if there is none
+     */
+    int indexOf(int start, int end) {
+        int index = indexStartingFrom(start);
+        return index < size && starts[index] == start && ends[index] == end ? index : -1;
+    }
+
+    private int lowerBound(int[] offsets, int offset) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (offsets[middle] < offset) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+}
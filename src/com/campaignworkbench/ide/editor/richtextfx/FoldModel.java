@@ -0,0 +1,175 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The fold regions of a document, kept up to date as it is edited. Regions are shifted as text is inserted
+ * and removed before or inside them, and regions whose delimiters are edited are dropped. The text edited
+ * since the last parse is tracked, so only the span between the nearest untouched regions around it needs
+ * parsing again. This only holds while every delimiter in the document is paired, as an unpaired one outside
+ * the span can pair differently after an edit, so the whole document is parsed until it is balanced again.
+ * Single line regions are kept, as they bound the span, but are not offered for folding. Only used on the
+ * FX thread.
+ */
+final class FoldModel {
+
+    /**
+     * A span of the document to parse
+     * @param start offset of the first character
+     * @param end offset after the last character
+     */
+    record Span(int start, int end) {
+    }
+
+    // Sorted by start offset
+    private final List<FoldRegion> regions = new ArrayList<>();
+
+    // Range of text edited since it was last parsed, or -1 if there is none
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
+
+    // Whether every delimiter in the document was paired when last parsed
+    private boolean balanced = true;
+
+    // Built from the regions on first use after a change
+    private FoldRegions foldRegions = new FoldRegions();
+
+    /**
+     * Shifts the regions and extends the dirty range to account for an edit
+     * @param position offset the edit starts at
+     * @param removalEnd end of the text removed, in offsets from before the edit
+     * @param insertionEnd end of the text inserted
+     * @param lineDelta number of lines inserted less the number removed
+     */
+    void applyChange(int position, int removalEnd, int insertionEnd, int lineDelta) {
+        int netLength = insertionEnd - removalEnd;
+        if (dirtyStart == -1) {
+            dirtyStart = position;
+            dirtyEnd = insertionEnd;
+        } else {
+            dirtyStart = Math.min(shiftOffset(dirtyStart, position, removalEnd, insertionEnd), position);
+            dirtyEnd = Math.max(shiftOffset(dirtyEnd, position, removalEnd, insertionEnd), insertionEnd);
+        }
+
+        int kept = 0;
+        for (FoldRegion region : regions) {
+            if (region.applyChange(position, removalEnd, netLength, lineDelta)) {
+                regions.set(kept++, region);
+            } else {
+                // The other delimiter may now pair with something else, so the whole region must be parsed again
+                dirtyStart = Math.min(dirtyStart, shiftOffset(region.getStartOffset(), position, removalEnd, insertionEnd));
+                dirtyEnd = Math.max(dirtyEnd, shiftOffset(region.getEndOffset(), position, removalEnd, insertionEnd));
+            }
+        }
+        regions.subList(kept, regions.size()).clear();
+        foldRegions = null;
+    }
+
+    /**
+     * Marks the whole document as needing to be parsed again
+     */
+    void requireFullParse() {
+        dirtyStart = 0;
+        dirtyEnd = Integer.MAX_VALUE;
+    }
+
+    /**
+     * Finds the span to parse to bring the regions up to date. This is the dirty range extended to the nearest
+     * region boundaries either side of it, so the parse starts and ends between delimiters. If any region has
+     * only one delimiter in that span, the edit may have changed how delimiters pair up beyond it, so the whole
+     * document is parsed instead.
+     * @param textLength length of the document
+     * @return the span to parse, or null if the regions are up to date
+     */
+    Span getReparseSpan(int textLength) {
+        if (dirtyStart == -1) {
+            return null;
+        }
+        if (!balanced) {
+            return new Span(0, textLength);
+        }
+        int editEnd = Math.min(dirtyEnd, textLength);
+
+        int start = 0;
+        int end = textLength;
+        for (FoldRegion region : regions) {
+            if (region.getEndOffset() <= dirtyStart) {
+                start = Math.max(start, region.getEndOffset());
+            } else if (region.getOpenEndOffset() <= dirtyStart && region.getCloseStartOffset() >= editEnd) {
+                start = Math.max(start, region.getOpenEndOffset());
+                end = Math.min(end, region.getCloseStartOffset());
+            }
+            if (region.getStartOffset() >= editEnd) {
+                end = Math.min(end, region.getStartOffset());
+            }
+        }
+
+        for (FoldRegion region : regions) {
+            boolean openInside = region.getStartOffset() >= start && region.getOpenEndOffset() <= end;
+            boolean closeInside = region.getCloseStartOffset() >= start && region.getEndOffset() <= end;
+            if (openInside != closeInside) {
+                return new Span(0, textLength);
+            }
+        }
+        return new Span(start, end);
+    }
+
+    /**
+     * Replaces the regions in a span with those found by parsing it again, and clears the dirty range
+     * @param span the span that was parsed
+     * @param parsedRegions the regions found in the span
+     * @param spanBalanced whether every delimiter in the span was paired. Only a span covering the whole
+     *                     document may be unbalanced.
+     */
+    void replace(Span span, List<FoldRegion> parsedRegions, boolean spanBalanced) {
+        int from = indexOfFirstStartingAtOrAfter(span.start());
+        int to = indexOfFirstStartingAtOrAfter(span.end());
+        List<FoldRegion> sorted = new ArrayList<>(parsedRegions);
+        sorted.sort(Comparator.comparingInt(FoldRegion::getStartOffset));
+
+        List<FoldRegion> replaced = regions.subList(from, to);
+        replaced.clear();
+        replaced.addAll(sorted);
+
+        dirtyStart = -1;
+        dirtyEnd = -1;
+        balanced = spanBalanced;
+        foldRegions = null;
+    }
+
+    /**
+     * @return the multi-line regions, for folding
+     */
+    FoldRegions getFoldRegions() {
+        if (foldRegions == null) {
+            foldRegions = new FoldRegions(regions);
+        }
+        return foldRegions;
+    }
+
+    private int indexOfFirstStartingAtOrAfter(int offset) {
+        int low = 0;
+        int high = regions.size();
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (regions.get(mid).getStartOffset() < offset) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static int shiftOffset(int offset, int position, int removalEnd, int insertionEnd) {
+        if (offset <= position) {
+            return offset;
+        }
+        if (offset >= removalEnd) {
+            return offset + insertionEnd - removalEnd;
+        }
+        return insertionEnd;
+    }
+}
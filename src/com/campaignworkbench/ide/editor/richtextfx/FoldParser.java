@@ -1,25 +1,163 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
+import com.campaignworkbench.ide.LogPanel;
+import javafx.application.Platform;
 import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.fxmisc.richtext.model.TwoDimensional;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
 /**
- * Base class for implementing code folding solutions for various languages
+ * Base class for implementing code folding solutions for various languages. Fold regions are shifted as the
+ * text is edited, then once typing pauses only the edited span is parsed again, on the editor background
+ * executor. Folded paragraphs are shifted along with the text, so stay folded when lines are added or removed
+ * above them. Folding can be switched off, as it is for large files until it is asked for.
  */
 public abstract class FoldParser {
 
-    protected FoldRegions foldRegions;
+    // Time without edits before the edited span is parsed again
+    private static final Duration FOLD_DELAY = Duration.ofMillis(250);
+
     protected final Set<Integer> foldedParagraphs;
     CodeArea codeArea;
 
+    private final FoldModel foldModel = new FoldModel();
+    private long textVersion;
+
+    private boolean foldingEnabled = true;
+    private boolean foldAllWhenParsed;
+
     public FoldParser(CodeArea codeArea) {
         this.codeArea = codeArea;
-        foldRegions = new FoldRegions(codeArea);
         foldedParagraphs = new HashSet<>();
+
+        codeArea.multiPlainChanges().subscribe(this::applyChanges);
+        codeArea.multiPlainChanges()
+                .successionEnds(FOLD_DELAY)
+                .subscribe(_ -> refreshFoldRegions());
+    }
+
+    /**
+     * Finds the fold regions in a span of text
+     * @param text the span of text to parse
+     * @param regions collects the regions found
+     * @return true if every delimiter in the span was paired with another in the span, and none could run on
+     * into the text after it
+     */
+    protected abstract boolean parseRegions(String text, RegionCollector regions);
+
+    public FoldRegions findFoldRegions(String text) {
+        RegionCollector regions = new RegionCollector(text, 0, 0);
+        parseRegions(text, regions);
+        return new FoldRegions(regions.getRegions());
+    }
+
+    public FoldRegions getFoldRegions() {
+        return foldModel.getFoldRegions();
+    }
+
+    public void setFoldingEnabled(boolean enabled) {
+        if (enabled == foldingEnabled) {
+            return;
+        }
+        foldingEnabled = enabled;
+        if (enabled) {
+            foldModel.requireFullParse();
+            refreshFoldRegions();
+        }
+    }
+
+    public void refreshFoldRegions() {
+        if (!foldingEnabled) {
+            return;
+        }
+        FoldModel.Span span = foldModel.getReparseSpan(codeArea.getLength());
+        if (span == null) {
+            return;
+        }
+        String text = codeArea.getText(span.start(), span.end());
+        int startParagraphIndex = codeArea.offsetToPosition(span.start(), TwoDimensional.Bias.Forward).getMajor();
+        long version = textVersion;
+
+        EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                RegionCollector regions = new RegionCollector(text, span.start(), startParagraphIndex);
+                boolean balanced = parseRegions(text, regions);
+                Platform.runLater(() -> applyFoldRegions(version, span, regions.getRegions(), balanced));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error finding fold regions: " + exception.getMessage());
+            }
+        });
+    }
+
+    private void applyFoldRegions(long version, FoldModel.Span span, List<FoldRegion> regions, boolean balanced) {
+        // Regions for text that has since changed are replaced by the next refresh
+        if (version != textVersion) {
+            return;
+        }
+        // An unpaired delimiter changes how the text beyond the span pairs up, so parse everything
+        boolean wholeText = span.start() == 0 && span.end() == codeArea.getLength();
+        if (!balanced && !wholeText) {
+            foldModel.requireFullParse();
+            refreshFoldRegions();
+            return;
+        }
+
+        for (FoldRegion region : regions) {
+            region.setFoldedState(foldedParagraphs.contains(region.getStart()));
+        }
+        foldModel.replace(span, regions, balanced);
+
+        // Refresh the gutter
+        codeArea.setParagraphGraphicFactory(codeArea.getParagraphGraphicFactory());
+
+        if (foldAllWhenParsed) {
+            foldAllWhenParsed = false;
+            foldAll();
+        }
+    }
+
+    private void applyChanges(List<PlainTextChange> changes) {
+        textVersion++;
+        for (PlainTextChange change : changes) {
+            int lineDelta = countLines(change.getInserted()) - countLines(change.getRemoved());
+            foldModel.applyChange(change.getPosition(), change.getRemovalEnd(), change.getInsertionEnd(), lineDelta);
+            if (lineDelta != 0 && !foldedParagraphs.isEmpty()) {
+                int changeParagraphIndex = codeArea.offsetToPosition(change.getPosition(), TwoDimensional.Bias.Backward).getMajor();
+                shiftFoldedParagraphs(changeParagraphIndex, lineDelta);
+            }
+        }
+    }
+
+    /**
+     * Moves the folded paragraphs after an edit by the number of lines it added or removed, dropping any it removed
+     */
+    private void shiftFoldedParagraphs(int changeParagraphIndex, int lineDelta) {
+        List<Integer> shifted = new ArrayList<>(foldedParagraphs.size());
+        for (int paragraphIndex : foldedParagraphs) {
+            if (paragraphIndex <= changeParagraphIndex) {
+                shifted.add(paragraphIndex);
+            } else if (lineDelta > 0 || paragraphIndex > changeParagraphIndex - lineDelta) {
+                shifted.add(paragraphIndex + lineDelta);
+            }
+        }
+        foldedParagraphs.clear();
+        foldedParagraphs.addAll(shifted);
+    }
+
+    private static int countLines(String text) {
+        int count = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                count++;
+            }
+        }
+        return count;
     }
 
     public void unfoldAll() {
@@ -30,7 +168,13 @@ public abstract class FoldParser {
     }
 
     public void foldAll() {
-        for (FoldRegion foldRegion : foldRegions) {
+        // Asking to fold everything switches folding on, then folds once the text has been parsed
+        if (!foldingEnabled) {
+            foldAllWhenParsed = true;
+            setFoldingEnabled(true);
+            return;
+        }
+        for (FoldRegion foldRegion : getFoldRegions()) {
             if(!foldRegion.getFoldedState()) {
                 foldParagraph(foldRegion.getStart());
             }
@@ -39,12 +183,15 @@ public abstract class FoldParser {
 
     public void foldParagraph(int startParagraphIndex) {
         addFoldedParagraph(startParagraphIndex);
+        FoldRegions foldRegions = getFoldRegions();
+        foldRegions.setFoldState(startParagraphIndex, true);
         int endParagraphIndex = foldRegions.getFoldedParagraphEnd(startParagraphIndex);
         codeArea.foldParagraphs(startParagraphIndex, endParagraphIndex );
     }
 
     public void unfoldParagraph(int startParagraphIndex) {
         removeFoldedParagraph(startParagraphIndex);
+        getFoldRegions().setFoldState(startParagraphIndex, false);
         codeArea.unfoldParagraphs(startParagraphIndex);
     }
 
@@ -59,4 +206,39 @@ public abstract class FoldParser {
     public boolean isParagraphFolded(int paragraphIndex) {
         return foldedParagraphs.contains(paragraphIndex);
     }
+
+    /**
+     * Collects the regions found while parsing a span of the text, converting offsets within the span to offsets
+     * and paragraphs within the document
+     */
+    protected static final class RegionCollector {
+
+        private final LineOffsets lineOffsets;
+        private final int baseOffset;
+        private final int baseParagraphIndex;
+        private final List<FoldRegion> regions = new ArrayList<>();
+
+        RegionCollector(String text, int baseOffset, int baseParagraphIndex) {
+            this.lineOffsets = new LineOffsets(text);
+            this.baseOffset = baseOffset;
+            this.baseParagraphIndex = baseParagraphIndex;
+        }
+
+        /**
+         * Adds a region, given the offsets of its delimiters within the span
+         */
+        public void add(int startOffset, int openEndOffset, int closeStartOffset, int endOffset) {
+            regions.add(new FoldRegion(
+                    baseParagraphIndex + lineOffsets.lineOf(startOffset),
+                    baseParagraphIndex + lineOffsets.lineOf(endOffset),
+                    baseOffset + startOffset,
+                    baseOffset + openEndOffset,
+                    baseOffset + closeStartOffset,
+                    baseOffset + endOffset));
+        }
+
+        List<FoldRegion> getRegions() {
+            return regions;
+        }
+    }
 }
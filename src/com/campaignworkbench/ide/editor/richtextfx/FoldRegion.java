@@ -1,18 +1,29 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
 /**
- * Class representing the start and end paragraph of a region of foldable code
+ * Class representing the start and end paragraph of a region of foldable code, along with the character
+ * offsets of the delimiters that open and close it. The region is shifted in place as the text is edited.
  */
 public class FoldRegion {
 
-    private final int startParagraphIndex;
-    private final int endParagraphIndex;
+    private int startParagraphIndex;
+    private int endParagraphIndex;
     private boolean isFolded;
 
-    public FoldRegion(int startParagraphIndex, int endParagraphIndex, boolean isFolded) {
+    // The open delimiter is [startOffset, openEndOffset) and the close delimiter is [closeStartOffset, endOffset)
+    private int startOffset;
+    private int openEndOffset;
+    private int closeStartOffset;
+    private int endOffset;
+
+    public FoldRegion(int startParagraphIndex, int endParagraphIndex,
+                      int startOffset, int openEndOffset, int closeStartOffset, int endOffset) {
         this.startParagraphIndex = startParagraphIndex;
         this.endParagraphIndex = endParagraphIndex;
-        this.isFolded = isFolded;
+        this.startOffset = startOffset;
+        this.openEndOffset = openEndOffset;
+        this.closeStartOffset = closeStartOffset;
+        this.endOffset = endOffset;
     }
 
     public void setFoldedState(boolean state) {
@@ -31,7 +42,57 @@ public class FoldRegion {
         return endParagraphIndex;
     }
 
+    public int getStartOffset() {
+        return startOffset;
+    }
+
+    public int getOpenEndOffset() {
+        return openEndOffset;
+    }
+
+    public int getCloseStartOffset() {
+        return closeStartOffset;
+    }
+
+    public int getEndOffset() {
+        return endOffset;
+    }
+
     public Boolean isParagraphWithin(int paragraphIndex) {
         return paragraphIndex > startParagraphIndex && paragraphIndex <= endParagraphIndex;
     }
+
+    /**
+     * Shifts the region to account for an edit
+     * @param position offset the edit starts at
+     * @param removalEnd end of the text removed, in offsets from before the edit
+     * @param netLength length of the text inserted less the length removed
+     * @param lineDelta number of lines inserted less the number removed
+     * @return false if the edit changed either delimiter, in which case the region is no longer valid
+     */
+    boolean applyChange(int position, int removalEnd, int netLength, int lineDelta) {
+        if (touches(startOffset, openEndOffset, position, removalEnd)
+                || touches(closeStartOffset, endOffset, position, removalEnd)) {
+            return false;
+        }
+        if (startOffset >= removalEnd) {
+            startOffset += netLength;
+            openEndOffset += netLength;
+            startParagraphIndex += lineDelta;
+        }
+        if (closeStartOffset >= removalEnd) {
+            closeStartOffset += netLength;
+            endOffset += netLength;
+            endParagraphIndex += lineDelta;
+        }
+        return true;
+    }
+
+    private static boolean touches(int start, int end, int position, int removalEnd) {
+        if (removalEnd == position) {
+            // Insertion, which only changes a delimiter if made inside it
+            return position > start && position < end;
+        }
+        return position < end && removalEnd > start;
+    }
 }
@@ -0,0 +1,84 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.List;
+
+/**
+ * Interval tree over a set of fold regions, used to find a region by its start paragraph and whether a
+ * paragraph is inside a folded region in O(log n). The tree is implicit in an array of the regions sorted by
+ * start paragraph, with the middle of each range as the root of its subtree, and records for each subtree
+ * the furthest paragraph any of its regions reaches.
+ */
+final class FoldRegionTree {
+
+    private final FoldRegion[] regions;
+    private final int[] maxEnd;
+
+    /**
+     * Constructor
+     * @param sortedRegions regions sorted by start paragraph, with no two sharing a start
+     */
+    FoldRegionTree(List<FoldRegion> sortedRegions) {
+        regions = sortedRegions.toArray(new FoldRegion[0]);
+        maxEnd = new int[regions.length];
+        computeMaxEnd(0, regions.length);
+    }
+
+    /**
+     * @param startParagraphIndex first paragraph of the region
+     * @return the region starting at the paragraph, or null if there is none
+     */
+    FoldRegion find(int startParagraphIndex) {
+        int low = 0;
+        int high = regions.length - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int start = regions[mid].getStart();
+            if (start < startParagraphIndex) {
+                low = mid + 1;
+            } else if (start > startParagraphIndex) {
+                high = mid - 1;
+            } else {
+                return regions[mid];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param paragraphIndex paragraph to check
+     * @return true if the paragraph is hidden by any folded region
+     */
+    boolean isWithinFoldedRegion(int paragraphIndex) {
+        return isWithinFoldedRegion(0, regions.length, paragraphIndex);
+    }
+
+    private boolean isWithinFoldedRegion(int low, int high, int paragraphIndex) {
+        if (low >= high) {
+            return false;
+        }
+        int mid = (low + high) >>> 1;
+        // Nothing in this subtree reaches the paragraph
+        if (maxEnd[mid] < paragraphIndex) {
+            return false;
+        }
+        FoldRegion region = regions[mid];
+        if (region.getFoldedState() && region.isParagraphWithin(paragraphIndex)) {
+            return true;
+        }
+        if (isWithinFoldedRegion(low, mid, paragraphIndex)) {
+            return true;
+        }
+        // Regions to the right start at or after this one, so only need checking if this one starts before the paragraph
+        return region.getStart() < paragraphIndex && isWithinFoldedRegion(mid + 1, high, paragraphIndex);
+    }
+
+    private int computeMaxEnd(int low, int high) {
+        if (low >= high) {
+            return Integer.MIN_VALUE;
+        }
+        int mid = (low + high) >>> 1;
+        int max = Math.max(regions[mid].getEnd(), Math.max(computeMaxEnd(low, mid), computeMaxEnd(mid + 1, high)));
+        maxEnd[mid] = max;
+        return max;
+    }
+}
@@ -1,113 +1,83 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
-
-import org.fxmisc.richtext.CodeArea;
-import org.fxmisc.richtext.model.TwoDimensional;
-
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
-import java.util.Set;
+import java.util.List;
 
 /**
- * Class implementing a set of fold regions
+ * Class implementing a set of fold regions. The regions are fixed when the set is created, with only their
+ * folded state changing afterwards. Regions that start and end on the same paragraph are left out.
  */
 public class FoldRegions implements Iterable<FoldRegion> {
 
-    // CodeArea is needed here to translate line numbers into paragraph indexes
-    private final CodeArea codeArea;
-    private final HashMap<Integer, FoldRegion> foldRegionMap;
+    private final List<FoldRegion> foldRegionList;
+    private final FoldRegionTree foldRegionTree;
 
-    public FoldRegions(CodeArea codeArea) {
-        this.codeArea = codeArea;
-        foldRegionMap = new HashMap<>();
+    /**
+     * Creates an empty set of fold regions
+     */
+    public FoldRegions() {
+        this(List.of());
     }
 
-    public void add(int startCharIndex, int endCharIndex, Set<Integer> foldedParagraphs) {
-
-        // Get the lines as paragraph indexes
-        int startParagraphIndex = getParagraphIndex(startCharIndex);
-        int endParagraphIndex = getParagraphIndex(endCharIndex);
-
-        // Check if it's already there or start and end are the same
-        if (foldRegionMap.containsKey(startParagraphIndex) || startParagraphIndex == endParagraphIndex) {
-            return;
+    /**
+     * Constructor. Where more than one region starts on the same paragraph, the first in the list is kept.
+     * @param foldRegions the regions, in any order
+     */
+    public FoldRegions(List<FoldRegion> foldRegions) {
+        // Stable sort, so the first region found for a paragraph is kept
+        List<FoldRegion> sorted = new ArrayList<>(foldRegions);
+        sorted.sort(Comparator.comparingInt(FoldRegion::getStart));
+
+        List<FoldRegion> unique = new ArrayList<>(sorted.size());
+        for (FoldRegion region : sorted) {
+            if (region.getStart() == region.getEnd()) {
+                continue;
+            }
+            if (unique.isEmpty() || unique.getLast().getStart() != region.getStart()) {
+                unique.add(region);
+            }
         }
-        boolean isFolded = foldedParagraphs.contains(startParagraphIndex);
-        FoldRegion newRegion = new FoldRegion(startParagraphIndex, endParagraphIndex, isFolded);
-        foldRegionMap.put(startParagraphIndex, newRegion);
-    }
 
-    public void remove(int paragraphIndex) {
-        // If not in the map, do nothing
-        if (!foldRegionMap.containsKey(paragraphIndex)) {
-            return;
-        }
-        foldRegionMap.remove(paragraphIndex);
+        foldRegionList = Collections.unmodifiableList(unique);
+        foldRegionTree = new FoldRegionTree(unique);
     }
 
     public void setFoldState(int paragraphIndex, boolean state) {
-        // If not in the map, do nothing
-        if (!foldRegionMap.containsKey(paragraphIndex)) {
-            return;
+        FoldRegion region = foldRegionTree.find(paragraphIndex);
+        // If not in the set, do nothing
+        if (region != null) {
+            region.setFoldedState(state);
         }
-        foldRegionMap.get(paragraphIndex).setFoldedState(state);
-    }
-
-    private int getParagraphIndex(int lineNumber) {
-        TwoDimensional.Position pos =
-                codeArea.offsetToPosition(lineNumber, TwoDimensional.Bias.Forward);
-
-        return pos.getMajor();
     }
 
     public Boolean isParagraphFoldable(int paragraphIndex) {
-        return foldRegionMap.containsKey(paragraphIndex);
-    }
-
-    public Boolean isLineFoldable(int lineNumber) {
-        return isParagraphFoldable(getParagraphIndex(lineNumber));
+        return foldRegionTree.find(paragraphIndex) != null;
     }
 
     public boolean isParagraphHidden(int paragraphIndex) {
-        for (FoldRegion region : foldRegionMap.values()) {
-            // Only consider folded regions
-            if (region.getFoldedState()) {
-                // Check if paragraphIndex is inside the folded range
-                if (region.isParagraphWithin(paragraphIndex)) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return foldRegionTree.isWithinFoldedRegion(paragraphIndex);
     }
 
     public Boolean isParagraphFolded(int paragraphIndex) {
-        if (!foldRegionMap.containsKey(paragraphIndex)) {
-            return false;
-        }
-
-        return foldRegionMap.get(paragraphIndex).getFoldedState();
+        FoldRegion region = foldRegionTree.find(paragraphIndex);
+        return region != null && region.getFoldedState();
     }
 
     public int getFoldedParagraphEnd(int paragraphIndex) {
-        if (!foldRegionMap.containsKey(paragraphIndex)) {
-            return paragraphIndex;
-        }
-
-        return foldRegionMap.get(paragraphIndex).getEnd();
-    }
-
-    public Boolean isLineFolded(int lineNumber) {
-        return isParagraphFolded(getParagraphIndex(lineNumber));
+        FoldRegion region = foldRegionTree.find(paragraphIndex);
+        return region == null ? paragraphIndex : region.getEnd();
     }
 
     @Override
     public Iterator<FoldRegion> iterator() {
-        return foldRegionMap.values().iterator();
+        return foldRegionList.iterator();
     }
 
     public Iterable<FoldRegion> values() {
-        return foldRegionMap.values();
+        return foldRegionList;
     }
 
 }
@@ -16,7 +16,6 @@ public class GutterFactory implements IntFunction<Node> {
 
     private final CodeArea codeArea;
     private final IFoldParser foldParser;
-    private FoldRegions foldRegions;
 
     // private final Text iconRight = FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.ARROW_CIRCLE_RIGHT, "12px");
     // private final Text iconDown = FontAwesomeIconFactory.get().createIcon(FontAwesomeIcon.ARROW_CIRCLE_DOWN, "12px");
@@ -31,8 +30,8 @@ public class GutterFactory implements IntFunction<Node> {
     @Override
     public Node apply(int paragraphIndex) {
 
-        // Refresh the folding state
-        foldRegions = foldParser.findFoldRegions(codeArea);
+        // Regions are computed in the background once per revision of the text, so this is only a lookup
+        FoldRegions foldRegions = foldParser.getFoldRegions();
 
         if(foldRegions.isParagraphHidden(paragraphIndex)) {
             return null;
@@ -52,14 +51,14 @@ public class GutterFactory implements IntFunction<Node> {
         // foldIndicator.setMinWidth(20);
         foldIndicator.getStyleClass().add("custom-fold-indicator");
 
-        setFoldIndicator(foldIndicator, paragraphIndex);
+        setFoldIndicator(foldIndicator, paragraphIndex, foldRegions);
 
         // Add the line number and fold indicator to the container and return
         box.getChildren().addAll(lineNo, foldIndicator);
         return box;
     }
 
-    private void setFoldIndicator(Label foldIndicator, int paragraphIndex) {
+    private void setFoldIndicator(Label foldIndicator, int paragraphIndex, FoldRegions foldRegions) {
         if (foldParser.isParagraphFolded(paragraphIndex)) {
 
             // foldIndicator.setGraphic(iconRight);
@@ -1,15 +1,29 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
-import org.fxmisc.richtext.CodeArea;
-
 /**
  * Interface describing a class that folds and unfolds regions of code
  */
 public interface IFoldParser {
     /**
-     * Returns foldable regions as (startParagraph, endParagraph) pairs.
+     * Finds the foldable regions in a snapshot of the text. Called on a background thread, so must not
+     * touch the code area.
+     */
+    FoldRegions findFoldRegions(String text);
+
+    /**
+     * Returns the fold regions found for the latest revision of the text. Only call on the FX thread.
+     */
+    FoldRegions getFoldRegions();
+
+    /**
+     * Recomputes the fold regions from the current text in the background
+     */
+    void refreshFoldRegions();
+
+    /**
+     * Switches folding on or off. While off the text is not parsed, so no regions are offered for folding.
      */
-    FoldRegions findFoldRegions(CodeArea codeArea);
+    void setFoldingEnabled(boolean enabled);
 
     boolean isParagraphFolded(int paragraphIndex);
     void foldParagraph(int startParagraphIndex);
@@ -11,4 +11,26 @@ public interface ISyntaxStyler {
     StyleSpans<Collection<String>> style(String text);
 
     String getStyleSheet(IDETheme theme);
+
+    /**
+     * Finds where to start restyling after an edit, such that styling the text from there gives the same
+     * result as styling the whole text. The default restyles from the start of the text.
+     * @param text the full text after the edit
+     * @param offset start of the edited range
+     * @return offset at or before the edit
+     */
+    default int getSafeRestyleStart(String text, int offset) {
+        return 0;
+    }
+
+    /**
+     * Finds where to stop restyling after an edit, such that the styling beyond it is unaffected by the edit.
+     * The default restyles to the end of the text.
+     * @param text the full text after the edit
+     * @param offset end of the edited range
+     * @return offset at or after the edit
+     */
+    default int getSafeRestyleEnd(String text, int offset) {
+        return text.length();
+    }
 }
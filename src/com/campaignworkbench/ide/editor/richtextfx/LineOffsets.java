@@ -0,0 +1,57 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.Arrays;
+
+/**
+ * Table of the offset each line starts at in a snapshot of text, used to turn character offsets into
+ * paragraph indexes without going through the code area, so it can be used off the FX thread
+ */
+public final class LineOffsets {
+
+    private final int[] lineStarts;
+
+    /**
+     * Constructor
+     * @param text the text to index
+     */
+    public LineOffsets(CharSequence text) {
+        int lineCount = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineCount++;
+            }
+        }
+
+        lineStarts = new int[lineCount];
+        int line = 1;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '\n') {
+                lineStarts[line++] = i + 1;
+            }
+        }
+    }
+
+    /**
+     * @param offset character offset into the text
+     * @return index of the line containing the offset. An offset at the start of a line belongs to that line.
+     */
+    public int lineOf(int offset) {
+        int index = Arrays.binarySearch(lineStarts, offset);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    /**
+     * @param line line index
+     * @return offset of the first character of the line
+     */
+    public int lineStart(int line) {
+        return lineStarts[line];
+    }
+
+    /**
+     * @return number of lines in the text
+     */
+    public int getLineCount() {
+        return lineStarts.length;
+    }
+}
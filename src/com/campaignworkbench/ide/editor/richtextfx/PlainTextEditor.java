@@ -0,0 +1,246 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import com.campaignworkbench.ide.IDETheme;
+import com.campaignworkbench.ide.IThemeable;
+import com.campaignworkbench.ide.LogPanel;
+import com.campaignworkbench.ide.ThemeManager;
+import com.campaignworkbench.ide.editor.FindStatus;
+import com.campaignworkbench.ide.editor.ICodeEditor;
+import com.campaignworkbench.ide.editor.SyntaxType;
+import javafx.application.Platform;
+import javafx.scene.Cursor;
+import javafx.scene.Node;
+import javafx.scene.control.IndexRange;
+import javafx.scene.layout.BorderPane;
+import org.fxmisc.flowless.VirtualizedScrollPane;
+import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
+import org.reactfx.EventSource;
+import org.reactfx.Subscription;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Lightweight ICodeEditor for files too large to highlight, using a RichTextFX code area with line numbers
+ * and no styling, folding or formatting. Find selects each match in turn rather than highlighting them all.
+ */
+public class PlainTextEditor implements ICodeEditor, IThemeable {
+
+    // Time without edits before the text is searched again
+    private static final Duration FIND_DELAY = Duration.ofMillis(250);
+
+    private final CodeArea codeArea;
+    private final BorderPane root;
+    private final SyntaxType syntaxType;
+
+    // Find, with the index null when nothing is being found. Only used on the FX thread.
+    private FindIndex findIndex;
+    private long textVersion;
+    private Future<?> pendingFind;
+    private final EventSource<FindStatus> findStatus = new EventSource<>();
+
+    /**
+     * Constructor
+     * @param syntaxType syntax of the text, used only to pick the editor style sheet
+     */
+    public PlainTextEditor(SyntaxType syntaxType) {
+        this.syntaxType = syntaxType;
+        codeArea = new CodeArea();
+        codeArea.setCursor(Cursor.TEXT);
+        codeArea.setParagraphGraphicFactory(SimpleLineNumberFactory.get(codeArea));
+
+        VirtualizedScrollPane<CodeArea> scrollPane = new VirtualizedScrollPane<>(codeArea);
+        root = new BorderPane(scrollPane);
+        root.getStyleClass().add("code-editor");
+
+        codeArea.multiPlainChanges().subscribe(this::applyChanges);
+        codeArea.multiPlainChanges()
+                .successionEnds(FIND_DELAY)
+                .subscribe(_ -> {
+                    if (findIndex != null) {
+                        searchAll(findIndex);
+                    }
+                });
+
+        Platform.runLater(() -> ThemeManager.register(this));
+    }
+
+    @Override
+    public Node getNode() {
+        return root;
+    }
+
+    @Override
+    public void refreshContent() {
+        // RichTextFX usually handles its own repainting
+    }
+
+    @Override
+    public void setText(String text) {
+        codeArea.replaceText(text.replace("\t", "  "));
+    }
+
+    @Override
+    public String getText() {
+        return codeArea.getText();
+    }
+
+    @Override
+    public void setEditable(boolean editable) {
+        codeArea.setEditable(editable);
+    }
+
+    @Override
+    public void requestFocus() {
+        codeArea.requestFocus();
+    }
+
+    @Override
+    public void setCaretAtStart() {
+        codeArea.moveTo(0);
+        codeArea.requestFollowCaret();
+    }
+
+    @Override
+    public void gotoLine(int line) {
+        if (line <= 0) return;
+        int paragraphIndex = Math.min(line - 1, codeArea.getParagraphs().size() - 1);
+        codeArea.moveTo(paragraphIndex, 0);
+        codeArea.selectLine();
+        codeArea.requestFollowCaret();
+    }
+
+    @Override
+    public void insertTextAtCaret(String text) {
+        if (text == null || text.isEmpty()) {
+            return;
+        }
+        int caretPos = codeArea.getCaretPosition();
+        codeArea.replaceSelection(text);
+        codeArea.moveTo(caretPos + text.length());
+    }
+
+    @Override
+    public void applyTheme(IDETheme theme) {
+        root.getStylesheets().clear();
+        root.getStylesheets().add(syntaxType == SyntaxType.XML
+                ? theme.getXmlSyntaxStyleSheet()
+                : theme.getCampaignSyntaxStyleSheet());
+    }
+
+    @Override
+    public void formatCode(int indentSize) {
+        // Formatting is not offered for files this large
+    }
+
+    @Override
+    public void foldAll() {
+        // Folding is not offered for files this large
+    }
+
+    @Override
+    public void unfoldAll() {
+        // Folding is not offered for files this large
+    }
+
+    @Override
+    public Subscription addTextChangeListener(Runnable listener) {
+        return codeArea.multiPlainChanges()
+                .subscribe(_ -> listener.run());
+    }
+
+    private void applyChanges(List<PlainTextChange> changes) {
+        textVersion++;
+        if (findIndex != null) {
+            for (PlainTextChange change : changes) {
+                findIndex.applyChange(change.getPosition(), change.getRemovalEnd(), change.getNetLength());
+            }
+        }
+    }
+
+    @Override
+    public void find(String textToFind, boolean regex) {
+        if (pendingFind != null) {
+            pendingFind.cancel(false);
+        }
+        findIndex = null;
+
+        if (textToFind == null || textToFind.isEmpty()) {
+            return;
+        }
+        try {
+            findIndex = regex ? FindIndex.regex(textToFind) : FindIndex.literal(textToFind);
+        } catch (PatternSyntaxException exception) {
+            findStatus.push(FindStatus.invalid(exception.getDescription()));
+            return;
+        }
+        searchAll(findIndex);
+    }
+
+    /**
+     * Searches the whole text for the find on the background executor
+     */
+    private void searchAll(FindIndex index) {
+        if (pendingFind != null) {
+            pendingFind.cancel(false);
+        }
+        String text = codeArea.getText();
+        long version = textVersion;
+
+        pendingFind = EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                FindIndex.Result found = index.search(text, 0, text.length());
+                Platform.runLater(() -> applyFind(version, index, found));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error finding text: " + exception.getMessage());
+            }
+        });
+    }
+
+    private void applyFind(long version, FindIndex index, FindIndex.Result found) {
+        // A newer find has replaced this one, or the text has changed and will be searched again
+        if (index != findIndex || version != textVersion) {
+            return;
+        }
+        index.replace(found);
+        publishFindStatus();
+    }
+
+    @Override
+    public void findNext() {
+        if (findIndex == null || findIndex.size() == 0) {
+            return;
+        }
+        int index = findIndex.indexStartingFrom(codeArea.getSelection().getEnd());
+        selectMatch(index < findIndex.size() ? index : 0);
+    }
+
+    @Override
+    public void findPrevious() {
+        if (findIndex == null || findIndex.size() == 0) {
+            return;
+        }
+        int index = findIndex.indexStartingFrom(codeArea.getSelection().getStart()) - 1;
+        selectMatch(index >= 0 ? index : findIndex.size() - 1);
+    }
+
+    private void selectMatch(int index) {
+        codeArea.selectRange(findIndex.getStart(index), findIndex.getEnd(index));
+        codeArea.requestFollowCaret();
+        publishFindStatus();
+    }
+
+    private void publishFindStatus() {
+        IndexRange selection = codeArea.getSelection();
+        findStatus.push(new FindStatus(findIndex.size(), findIndex.indexOf(selection.getStart(), selection.getEnd()), null));
+    }
+
+    @Override
+    public Subscription addFindStatusListener(Consumer<FindStatus> listener) {
+        return findStatus.subscribe(listener);
+    }
+}
@@ -1,9 +1,10 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
-import com.campaignworkbench.ide.IdeException;
 import com.campaignworkbench.ide.IDETheme;
 import com.campaignworkbench.ide.IThemeable;
+import com.campaignworkbench.ide.LogPanel;
 import com.campaignworkbench.ide.ThemeManager;
+import com.campaignworkbench.ide.editor.FindStatus;
 import com.campaignworkbench.ide.editor.ICodeEditor;
 import com.campaignworkbench.ide.editor.SyntaxType;
 import javafx.application.Platform;
@@ -15,29 +16,65 @@ import javafx.scene.input.KeyEvent;
 import javafx.scene.layout.BorderPane;
 import org.fxmisc.flowless.VirtualizedScrollPane;
 import org.fxmisc.richtext.CodeArea;
+import org.fxmisc.richtext.model.PlainTextChange;
 import org.fxmisc.richtext.model.StyleSpans;
+import org.fxmisc.richtext.model.StyleSpansBuilder;
 import org.fxmisc.richtext.model.TwoDimensional;
+import org.reactfx.EventSource;
 import org.reactfx.Subscription;
 
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
- * Implementation of ICodeEditor using the RichTextFX library
+ * Implementation of ICodeEditor using the RichTextFX library. In large file mode only the paragraphs around
+ * the viewport are highlighted, and folding is off until it is asked for.
  */
 public class RichTextFXEditor implements ICodeEditor, IThemeable {
 
+    // Time without edits before the edited text is restyled
+    private static final Duration HIGHLIGHT_DELAY = Duration.ofMillis(100);
+
+    private static final String FIND_STYLE = "find-text";
+
+    // Marks the matches and the text between them, to overlay on the existing styles
+    private static final Collection<String> MATCHED = List.of(FIND_STYLE);
+    private static final Collection<String> NOT_MATCHED = List.of();
+
+    // Paragraphs either side of the viewport that are highlighted in large file mode
+    private static final int VIEWPORT_MARGIN = 200;
+
+    // Most separate edits to make when applying formatting, beyond which the changed range is replaced whole
+    private static final int MAX_FORMAT_REPLACEMENTS = 1000;
+
     private final CodeArea codeArea;
     private final BorderPane root;
+    private final boolean largeFile;
 
     // Syntax highlighting
     private ISyntaxStyler syntaxStyler;
 
+    // Range of text edited since it was last styled, or -1 if there is none. Only used on the FX thread.
+    private int dirtyStart = -1;
+    private int dirtyEnd = -1;
+    private long textVersion;
+    private Future<?> pendingHighlight;
+
+    // Range highlighted since the text was last edited in large file mode, or -1 if there is none
+    private int highlightedStart = -1;
+    private int highlightedEnd = -1;
+
+    // Find, with the index null when nothing is being found. Only used on the FX thread.
+    private FindIndex findIndex;
+    private Future<?> pendingFind;
+    private final EventSource<FindStatus> findStatus = new EventSource<>();
+
     // Code Folding
     private IFoldParser foldParser;
 
@@ -48,6 +85,16 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
      * Constructor
      */
     public RichTextFXEditor(SyntaxType syntaxType) {
+        this(syntaxType, false);
+    }
+
+    /**
+     * Constructor
+     * @param syntaxType syntax of the text to edit
+     * @param largeFile whether to highlight only around the viewport and leave folding off until asked for
+     */
+    public RichTextFXEditor(SyntaxType syntaxType, boolean largeFile) {
+        this.largeFile = largeFile;
         codeArea = new CodeArea();
         codeArea.setCursor(Cursor.TEXT);
 
@@ -61,12 +108,18 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
         codeArea.setParagraphGraphicFactory(gutterFactory);
 
 
-        codeArea.textProperty().addListener((_, _, newText) -> {
-            StyleSpans<Collection<String>> computedStyleSpans = syntaxStyler.style(newText);
-            if (computedStyleSpans != null) {
-                codeArea.setStyleSpans(0, computedStyleSpans);
-            }
-        });
+        // Track every edit as it happens, but only restyle once typing pauses
+        codeArea.multiPlainChanges().subscribe(this::markDirty);
+        codeArea.multiPlainChanges()
+                .successionEnds(HIGHLIGHT_DELAY)
+                .subscribe(_ -> highlightDirtyRange());
+
+        if (largeFile) {
+            foldParser.setFoldingEnabled(false);
+            codeArea.viewportDirtyEvents()
+                    .successionEnds(HIGHLIGHT_DELAY)
+                    .subscribe(_ -> highlightViewport());
+        }
 
         codeArea.addEventFilter(KeyEvent.KEY_PRESSED, e -> {
             if (e.getCode() == KeyCode.TAB) {
@@ -118,11 +171,8 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
     public void setText(String text) {
         codeArea.clear();
         // Replace tab with 2 spaces
-        codeArea.replaceText(text.replaceAll("\t", "  "));
-        StyleSpans<Collection<String>> computedStyleSpans = syntaxStyler.style(codeArea.getText());
-        if (computedStyleSpans != null) {
-            codeArea.setStyleSpans(0, computedStyleSpans);
-        }
+        codeArea.replaceText(text.replace("\t", "  "));
+        highlightDirtyRange();
     }
 
     @Override
@@ -130,6 +180,154 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
         return codeArea.getText();
     }
 
+    /**
+     * Extends the dirty range to cover a set of edits, shifting it to account for text inserted or removed before it
+     */
+    private void markDirty(List<PlainTextChange> changes) {
+        textVersion++;
+        highlightedStart = -1;
+        highlightedEnd = -1;
+        for (PlainTextChange change : changes) {
+            if (findIndex != null) {
+                findIndex.applyChange(change.getPosition(), change.getRemovalEnd(), change.getNetLength());
+            }
+            if (dirtyStart == -1) {
+                dirtyStart = change.getPosition();
+                dirtyEnd = change.getInsertionEnd();
+            } else {
+                dirtyStart = Math.min(shiftOffset(dirtyStart, change), change.getPosition());
+                dirtyEnd = Math.max(shiftOffset(dirtyEnd, change), change.getInsertionEnd());
+            }
+        }
+    }
+
+    private static int shiftOffset(int offset, PlainTextChange change) {
+        if (offset <= change.getPosition()) {
+            return offset;
+        }
+        if (offset >= change.getRemovalEnd()) {
+            return offset + change.getNetLength();
+        }
+        return change.getInsertionEnd();
+    }
+
+    /**
+     * Restyles the dirty range on the background executor, extended by the styler to where its state is known.
+     * The text any find match could span is searched again at the same time.
+     */
+    private void highlightDirtyRange() {
+        if (dirtyStart == -1) {
+            return;
+        }
+        if (largeFile) {
+            // Copying the whole text on every edit is too slow, so find only searches the viewport as it's styled
+            highlightViewport();
+            return;
+        }
+        if (pendingHighlight != null) {
+            pendingHighlight.cancel(false);
+        }
+
+        String text = codeArea.getText();
+        long version = textVersion;
+        int editStart = dirtyStart;
+        int editEnd = Math.min(dirtyEnd, text.length());
+        ISyntaxStyler styler = syntaxStyler;
+        FindIndex index = findIndex;
+
+        pendingHighlight = EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                int start = styler.getSafeRestyleStart(text, editStart);
+                int end = styler.getSafeRestyleEnd(text, editEnd);
+                StyleSpans<Collection<String>> styleSpans = styler.style(text.substring(start, end));
+                FindIndex.Result found = index == null ? null : index.search(text, editStart, editEnd);
+                Platform.runLater(() -> applyHighlighting(version, start, styleSpans, index, found));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error highlighting text: " + exception.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Restyles the visible paragraphs and a margin either side on the background executor, unless they have been
+     * styled since the text was last edited. Used in large file mode, where styling starts at the first paragraph
+     * of the margin rather than where the styler's state is known, so may be wrong at the top of the margin.
+     */
+    private void highlightViewport() {
+        int paragraphCount = codeArea.getParagraphs().size();
+        int firstParagraph = 0;
+        int lastParagraph = Math.min(paragraphCount - 1, VIEWPORT_MARGIN);
+        if (!codeArea.getVisibleParagraphs().isEmpty()) {
+            firstParagraph = Math.max(0, codeArea.firstVisibleParToAllParIndex() - VIEWPORT_MARGIN);
+            lastParagraph = Math.min(paragraphCount - 1, codeArea.lastVisibleParToAllParIndex() + VIEWPORT_MARGIN);
+        }
+        int start = codeArea.getAbsolutePosition(firstParagraph, 0);
+        int end = codeArea.getAbsolutePosition(lastParagraph, codeArea.getParagraphLength(lastParagraph));
+        if (start >= end || (highlightedStart != -1 && start >= highlightedStart && end <= highlightedEnd)) {
+            return;
+        }
+        if (pendingHighlight != null) {
+            pendingHighlight.cancel(false);
+        }
+
+        String text = codeArea.getText(start, end);
+        long version = textVersion;
+        ISyntaxStyler styler = syntaxStyler;
+        FindIndex index = findIndex;
+
+        pendingHighlight = EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                StyleSpans<Collection<String>> styleSpans = styler.style(text);
+                FindIndex.Result found = index == null ? null : index.searchPart(text, start);
+                Platform.runLater(() -> applyViewportHighlighting(version, start, end, styleSpans, index, found));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error highlighting text: " + exception.getMessage());
+            }
+        });
+    }
+
+    private void applyViewportHighlighting(long version, int start, int end, StyleSpans<Collection<String>> styleSpans,
+                                           FindIndex index, FindIndex.Result found) {
+        if (version != textVersion) {
+            return;
+        }
+        applyHighlighting(version, start, styleSpans, index, found);
+
+        // Keep one range, so scrolling back within it doesn't restyle
+        if (highlightedStart == -1 || end < highlightedStart || start > highlightedEnd) {
+            highlightedStart = start;
+            highlightedEnd = end;
+        } else {
+            highlightedStart = Math.min(highlightedStart, start);
+            highlightedEnd = Math.max(highlightedEnd, end);
+        }
+    }
+
+    private void applyHighlighting(long version, int start, StyleSpans<Collection<String>> styleSpans,
+                                   FindIndex index, FindIndex.Result found) {
+        // Text edited since the snapshot is restyled by the next pass, which still covers this range
+        if (version != textVersion) {
+            return;
+        }
+        codeArea.setStyleSpans(start, styleSpans);
+        dirtyStart = -1;
+        dirtyEnd = -1;
+
+        // Restyling removed the find highlight, so put it back along with any matches found
+        if (findIndex == null) {
+            return;
+        }
+        int highlightStart = start;
+        int highlightEnd = start + styleSpans.length();
+        if (index == findIndex && found != null) {
+            findIndex.replace(found);
+            highlightStart = Math.min(highlightStart, found.start());
+            highlightEnd = Math.max(highlightEnd, found.end());
+            publishFindStatus();
+        }
+        highlightMatches(highlightStart, highlightEnd);
+    }
+
     private void setLanguageHelpers(SyntaxType syntax) {
         // Set the folding class instance
         if (Objects.requireNonNull(syntax) == SyntaxType.XML) {
@@ -137,7 +335,7 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
             syntaxStyler = new XmlStyler();
             foldParser = new XmlFoldParser(codeArea);
         } else {
-            codeFormatter = null;
+            codeFormatter = new CampaignFormatter();
             syntaxStyler = new CampaignStyler();
             foldParser = new CampaignFoldParser(codeArea);
         }
@@ -198,16 +396,45 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
 
     }
 
+    /**
+     * Formats the code on the background executor, then applies only the edits needed to reach the formatted
+     * text, so the caret, undo history and folds are kept
+     */
+    @Override
     public void formatCode(int indentSize) {
         if (codeFormatter == null) {
             return;
         }
-        try {
-            String formattedCode = codeFormatter.format(getText(), indentSize);
-            setText(formattedCode);
-        } catch (Exception ex) {
-            throw new IdeException("Error formatting code", ex);
+        String text = codeArea.getText();
+        long version = textVersion;
+        ICodeFormatter formatter = codeFormatter;
+
+        EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                String formattedText = formatter.format(text, indentSize);
+                List<TextDiff.Replacement> replacements = TextDiff.diff(text, formattedText, MAX_FORMAT_REPLACEMENTS);
+                Platform.runLater(() -> applyFormatting(version, replacements));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error formatting code: " + exception.getMessage());
+            }
+        });
+    }
+
+    private void applyFormatting(long version, List<TextDiff.Replacement> replacements) {
+        if (version != textVersion) {
+            LogPanel.appendLog(LogPanel.Level.WARNING, "The code was edited while it was being formatted, so the formatting was not applied");
+            return;
+        }
+        if (replacements.isEmpty()) {
+            return;
+        }
+        // Made from the end backwards, so each edit leaves the offsets of the ones still to make unchanged
+        var multi = codeArea.createMultiChange(replacements.size());
+        for (int i = replacements.size() - 1; i >= 0; i--) {
+            TextDiff.Replacement replacement = replacements.get(i);
+            multi.replaceText(replacement.start(), replacement.end(), replacement.text());
         }
+        multi.commit();
     }
 
     @Override
@@ -221,58 +448,155 @@ public class RichTextFXEditor implements ICodeEditor, IThemeable {
     }
 
     @Override
-    public Subscription addTextChangeListener(Consumer<String> listener) {
+    public Subscription addTextChangeListener(Runnable listener) {
         return codeArea.multiPlainChanges()
-                .subscribe(change -> listener.accept(codeArea.getText()));
+                .subscribe(_ -> listener.run());
     }
 
     @Override
-    public void find(String text) {
-        if (text == null || text.isEmpty()){
-            clearFindHighlight();
-            return;
+    public void find(String textToFind, boolean regex) {
+        if (pendingFind != null) {
+            pendingFind.cancel(false);
         }
+        clearFindHighlight();
 
-        String content = codeArea.getText();
-        Pattern pattern = Pattern.compile(Pattern.quote(text), Pattern.CASE_INSENSITIVE);
-        Matcher matcher = pattern.matcher(content);
+        if (textToFind == null || textToFind.isEmpty()) {
+            return;
+        }
+        try {
+            findIndex = regex ? FindIndex.regex(textToFind) : FindIndex.literal(textToFind);
+        } catch (PatternSyntaxException exception) {
+            findStatus.push(FindStatus.invalid(exception.getDescription()));
+            return;
+        }
+        searchAll(findIndex);
+    }
 
-        while (matcher.find()) {
-            int start = matcher.start();
-            int end = matcher.end();
-            for (int i = start; i < end; i++) {
-                codeArea.setStyle(i, i + 1, mergeStyles(codeArea.getStyleOfChar(i)));
+    /**
+     * Searches the whole text for the find on the background executor
+     */
+    private void searchAll(FindIndex index) {
+        String text = codeArea.getText();
+        long version = textVersion;
+
+        pendingFind = EditorExecutors.getBackgroundExecutor().submit(() -> {
+            try {
+                FindIndex.Result found = index.search(text, 0, text.length());
+                Platform.runLater(() -> applyFind(version, index, found));
+            } catch (RuntimeException exception) {
+                LogPanel.appendLog(LogPanel.Level.ERROR, "Error finding text: " + exception.getMessage());
             }
+        });
+    }
+
+    private void applyFind(long version, FindIndex index, FindIndex.Result found) {
+        // A newer find has replaced this one
+        if (index != findIndex) {
+            return;
+        }
+        // Matches from before an edit can't be trusted to line up with the text, so search again
+        if (version != textVersion) {
+            searchAll(index);
+            return;
+        }
+        index.replace(found);
+        if (index.size() > 0) {
+            highlightMatches(index.getStart(0), index.getEnd(index.size() - 1));
         }
+        publishFindStatus();
     }
 
+    /**
+     * Removes the highlight from the current find's matches and stops finding
+     */
     public void clearFindHighlight() {
+        FindIndex index = findIndex;
+        findIndex = null;
+        if (index != null && index.size() > 0) {
+            highlightMatches(index.getStart(0), index.getEnd(index.size() - 1));
+        }
+    }
 
-        int length = codeArea.getLength();
-
-        for (int i = 0; i < length; i++) {
+    /**
+     * Sets the find highlight on a range of the text in a single pass, overlaying the matches on the existing
+     * styles. The range is widened to take in any match crossing its ends. Anything in the range that is not a
+     * match has the highlight removed.
+     */
+    private void highlightMatches(int start, int end) {
+        StyleSpansBuilder<Collection<String>> matches = new StyleSpansBuilder<>();
+        int position = start;
+        if (findIndex != null) {
+            int first = findIndex.indexEndingAfter(start);
+            if (first < findIndex.size()) {
+                start = Math.min(start, findIndex.getStart(first));
+                position = start;
+            }
+            for (int i = first; i < findIndex.size() && findIndex.getStart(i) < end; i++) {
+                if (findIndex.getStart(i) > position) {
+                    matches.add(NOT_MATCHED, findIndex.getStart(i) - position);
+                }
+                matches.add(MATCHED, findIndex.getEnd(i) - findIndex.getStart(i));
+                position = findIndex.getEnd(i);
+            }
+            end = Math.max(end, position);
+        }
+        end = Math.min(end, codeArea.getLength());
+        if (position < end) {
+            matches.add(NOT_MATCHED, end - position);
+        }
+        if (start >= end) {
+            return;
+        }
 
-            Collection<String> styles = codeArea.getStyleOfChar(i);
+        StyleSpans<Collection<String>> styleSpans = codeArea.getStyleSpans(start, end);
+        codeArea.setStyleSpans(start, styleSpans.overlay(matches.create(), RichTextFXEditor::withFindStyle));
+    }
 
-            if (styles.contains("find-text")) {
+    private static Collection<String> withFindStyle(Collection<String> styles, Collection<String> match) {
+        boolean matched = match == MATCHED;
+        if (matched == styles.contains(FIND_STYLE)) {
+            return styles;
+        }
+        List<String> merged = new ArrayList<>(styles);
+        if (matched) {
+            merged.add(FIND_STYLE);
+        } else {
+            merged.remove(FIND_STYLE);
+        }
+        return merged;
+    }
 
-                List<String> cleaned =
-                        styles.stream()
-                                .filter(s -> !s.equals("find-text"))
-                                .toList();
+    @Override
+    public void findNext() {
+        if (findIndex == null || findIndex.size() == 0) {
+            return;
+        }
+        int index = findIndex.indexStartingFrom(codeArea.getSelection().getEnd());
+        selectMatch(index < findIndex.size() ? index : 0);
+    }
 
-                codeArea.setStyle(i, i + 1, cleaned);
-            }
+    @Override
+    public void findPrevious() {
+        if (findIndex == null || findIndex.size() == 0) {
+            return;
         }
+        int index = findIndex.indexStartingFrom(codeArea.getSelection().getStart()) - 1;
+        selectMatch(index >= 0 ? index : findIndex.size() - 1);
     }
 
-    /**
-     * Returns a new style collection containing the original styles plus the highlight
-     */
-    private Collection<String> mergeStyles(Collection<String> original) {
-        if (original.contains("find-text")) return original; // already highlighted
-        ArrayList<String> merged = new ArrayList<>(original);
-        merged.add("find-text");
-        return merged;
+    private void selectMatch(int index) {
+        codeArea.selectRange(findIndex.getStart(index), findIndex.getEnd(index));
+        codeArea.requestFollowCaret();
+        publishFindStatus();
+    }
+
+    private void publishFindStatus() {
+        IndexRange selection = codeArea.getSelection();
+        findStatus.push(new FindStatus(findIndex.size(), findIndex.indexOf(selection.getStart(), selection.getEnd()), null));
+    }
+
+    @Override
+    public Subscription addFindStatusListener(Consumer<FindStatus> listener) {
+        return findStatus.subscribe(listener);
     }
 }
@@ -0,0 +1,55 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+/**
+ * Helpers for stylers to find where restyling can safely start and end around an edit. Constructs that can
+ * span lines, such as comments, are described by their open and close delimiters. Constructs do not nest.
+ */
+final class StyleBoundaries {
+
+    private StyleBoundaries() {
+    }
+
+    /**
+     * @return offset of the start of the line containing the given offset
+     */
+    static int lineStart(String text, int offset) {
+        return text.lastIndexOf('\n', offset - 1) + 1;
+    }
+
+    /**
+     * @return offset just after the end of the line containing the given offset
+     */
+    static int lineEnd(String text, int offset) {
+        int newLine = text.indexOf('\n', offset);
+        return newLine == -1 ? text.length() : newLine + 1;
+    }
+
+    /**
+     * @return start of the construct the offset is inside, or the offset itself if it is not inside one
+     */
+    static int startOfEnclosing(String text, int offset, String open, String close) {
+        int lastOpen = text.lastIndexOf(open, offset - 1);
+        if (lastOpen == -1) {
+            return offset;
+        }
+        return lastOpen > text.lastIndexOf(close, offset - 1) ? lastOpen : offset;
+    }
+
+    /**
+     * Finds the end of the construct the offset is inside. A close delimiter that comes before the next open
+     * delimiter is also treated as enclosing the offset, as the edit may have just removed its open delimiter.
+     * @return end of the construct, or the offset itself if it is not inside one
+     */
+    static int endOfEnclosing(String text, int offset, String open, String close) {
+        boolean inside = startOfEnclosing(text, offset, open, close) < offset;
+        int nextClose = text.indexOf(close, offset);
+        if (nextClose == -1) {
+            return inside ? text.length() : offset;
+        }
+        int nextOpen = text.indexOf(open, offset);
+        if (inside || nextOpen == -1 || nextClose < nextOpen) {
+            return nextClose + close.length();
+        }
+        return offset;
+    }
+}
@@ -0,0 +1,89 @@
+package com.campaignworkbench.ide.editor.richtextfx;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Finds the edits that turn a text into a reformatted copy of it. Formatting mostly changes whitespace, so the
+ * texts are lined up on the characters that aren't whitespace, giving one edit for each run of whitespace that
+ * differs. From the first place anything else differs, the rest of the text is replaced in one edit.
+ */
+final class TextDiff {
+
+    /**
+     * Replaces part of the original text
+     * @param start offset in the original text of the first character replaced
+     * @param end offset in the original text after the last character replaced
+     * @param text the replacement
+     */
+    record Replacement(int start, int end, String text) {
+    }
+
+    private TextDiff() {
+    }
+
+    /**
+     * @param original the text before formatting
+     * @param revised the text after formatting
+     * @param maxReplacements most edits to return, beyond which the whole changed range is replaced in one edit
+     * @return edits in order of their offsets, which don't overlap, or an empty list if the texts are the same
+     */
+    static List<Replacement> diff(String original, String revised, int maxReplacements) {
+        int prefix = 0;
+        int maxPrefix = Math.min(original.length(), revised.length());
+        while (prefix < maxPrefix && original.charAt(prefix) == revised.charAt(prefix)) {
+            prefix++;
+        }
+        int suffix = 0;
+        int maxSuffix = maxPrefix - prefix;
+        while (suffix < maxSuffix
+                && original.charAt(original.length() - 1 - suffix) == revised.charAt(revised.length() - 1 - suffix)) {
+            suffix++;
+        }
+        int originalEnd = original.length() - suffix;
+        int revisedEnd = revised.length() - suffix;
+        if (prefix == originalEnd && prefix == revisedEnd) {
+            return List.of();
+        }
+
+        List<Replacement> replacements = new ArrayList<>();
+        int i = prefix;
+        int j = prefix;
+        while (i < originalEnd || j < revisedEnd) {
+            int whitespaceEnd = skipWhitespace(original, i, originalEnd);
+            int revisedWhitespaceEnd = skipWhitespace(revised, j, revisedEnd);
+            if (whitespaceEnd - i != revisedWhitespaceEnd - j
+                    || !original.regionMatches(i, revised, j, whitespaceEnd - i)) {
+                replacements.add(new Replacement(i, whitespaceEnd, revised.substring(j, revisedWhitespaceEnd)));
+            }
+            i = whitespaceEnd;
+            j = revisedWhitespaceEnd;
+
+            if (i == originalEnd && j == revisedEnd) {
+                break;
+            }
+            if (i == originalEnd || j == revisedEnd || original.charAt(i) != revised.charAt(j)) {
+                replacements.add(new Replacement(i, originalEnd, revised.substring(j, revisedEnd)));
+                break;
+            }
+            while (i < originalEnd && j < revisedEnd && original.charAt(i) == revised.charAt(j)
+                    && !Character.isWhitespace(original.charAt(i))) {
+                i++;
+                j++;
+            }
+        }
+
+        if (replacements.size() > maxReplacements) {
+            return List.of(new Replacement(prefix, originalEnd, revised.substring(prefix, revisedEnd)));
+        }
+        return replacements;
+    }
+
+    private static int skipWhitespace(String text, int start, int end) {
+        int i = start;
+        while (i < end && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -19,15 +19,16 @@ public class XmlFoldParser extends FoldParser implements IFoldParser {
         super(codeArea);
     }
 
-    public FoldRegions findFoldRegions(CodeArea codeArea) {
-
-        foldRegions = new FoldRegions(codeArea);
-        String text = codeArea.getText();
+    @Override
+    protected boolean parseRegions(String text, RegionCollector regions) {
 
         Matcher matcher = TAG_PATTERN.matcher(text);
         Deque<Tag> stack = new ArrayDeque<>();
+        boolean balanced = true;
+        int lastTagEnd = 0;
 
         while (matcher.find()) {
+            lastTagEnd = matcher.end();
 
             String slash = matcher.group(1);
             String name = matcher.group(2);
@@ -37,31 +38,54 @@ public class XmlFoldParser extends FoldParser implements IFoldParser {
 
             if (slash.isEmpty() && !selfClosing) {
                 // opening tag
-                stack.push(new Tag(name, matcher.start()));
+                stack.push(new Tag(name, matcher.start(), matcher.end()));
             } else if (!slash.isEmpty()) {
-                // closing tag
+                // closing tag, discarding any unclosed tags inside it
+                boolean matched = false;
                 while (!stack.isEmpty()) {
                     Tag open = stack.pop();
-                    int start = open.startOffset + 1;
-                    int end = matcher.end();
-                    if (open.name.equals(name) && start != end) {
-                        foldRegions.add(start, end, foldedParagraphs);
+                    if (open.name.equals(name)) {
+                        regions.add(open.startOffset, open.endOffset, matcher.start(), matcher.end());
+                        matched = true;
                         break;
                     }
+                    balanced = false;
+                }
+                if (!matched) {
+                    balanced = false;
                 }
             }
         }
 
-        return foldRegions;
+        return balanced && stack.isEmpty() && !hasUnterminatedTag(text, lastTagEnd);
+    }
+
+    /**
+     * A tag with no closing '>' in the span would run on into the text after it
+     */
+    private static boolean hasUnterminatedTag(String text, int from) {
+        for (int i = text.indexOf('<', from); i != -1; i = text.indexOf('<', i + 1)) {
+            int nameStart = i + 1 < text.length() && text.charAt(i + 1) == '/' ? i + 2 : i + 1;
+            if (nameStart >= text.length() || isNameChar(text.charAt(nameStart))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isNameChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == ':' || c == '_' || c == '-';
     }
 
     private static class Tag {
         final String name;
         final int startOffset;
+        final int endOffset;
 
-        Tag(String name, int startOffset) {
+        Tag(String name, int startOffset, int endOffset) {
             this.name = name;
             this.startOffset = startOffset;
+            this.endOffset = endOffset;
         }
     }
 }
@@ -1,60 +1,240 @@
 package com.campaignworkbench.ide.editor.richtextfx;
 
-import org.w3c.dom.Document;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-
-import javax.xml.parsers.DocumentBuilderFactory;
-import javax.xml.transform.OutputKeys;
-import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathFactory;
-import java.io.ByteArrayInputStream;
-import java.io.StringWriter;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.StringReader;
+import java.util.BitSet;
 
 /**
- * Implements an ICodeFormatter for XML files
+ * Implements an ICodeFormatter for XML files. The XML is streamed through a StAX reader and written out with
+ * each element, comment and processing instruction on its own line, indented by its depth. Whitespace-only
+ * text between markup is dropped, and elements containing text are kept as they were written. Memory used
+ * beyond the output grows only with the depth of the document. The XML declaration is omitted. Thread safe.
  */
 public class XmlFormatter implements ICodeFormatter {
 
+    // Needed for the JDK's reader to report CDATA sections separately from text
+    private static final String REPORT_CDATA_PROPERTY = "http://java.sun.com/xml/stream/properties/report-cdata-event";
+
+    private static final XMLInputFactory inputFactory = createInputFactory();
+
+    private static XMLInputFactory createInputFactory() {
+        XMLInputFactory factory = XMLInputFactory.newFactory();
+        factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+        // Keep CDATA sections as they are written, rather than merged with the text around them
+        factory.setProperty(XMLInputFactory.IS_COALESCING, false);
+        if (factory.isPropertySupported(REPORT_CDATA_PROPERTY)) {
+            factory.setProperty(REPORT_CDATA_PROPERTY, true);
+        }
+        return factory;
+    }
+
     public String format(String xml, int indent) {
         try {
-            // Turn xml string into a document
-            Document document = DocumentBuilderFactory.newInstance()
-                    .newDocumentBuilder()
-                    .parse(new InputSource(new ByteArrayInputStream(xml.getBytes("utf-8"))));
-
-            // Remove whitespaces outside tags
-            document.normalize();
-            XPath xPath = XPathFactory.newInstance().newXPath();
-            NodeList nodeList = (NodeList) xPath.evaluate("//text()[normalize-space()='']",
-                    document,
-                    XPathConstants.NODESET);
-
-            for (int i = 0; i < nodeList.getLength(); ++i) {
-                Node node = nodeList.item(i);
-                node.getParentNode().removeChild(node);
-            }
-
-            // Setup pretty print options
-            TransformerFactory transformerFactory = TransformerFactory.newInstance();
-            transformerFactory.setAttribute("indent-number", indent);
-            Transformer transformer = transformerFactory.newTransformer();
-            transformer.setOutputProperty(OutputKeys.ENCODING, "UTF-8");
-            transformer.setOutputProperty(OutputKeys.OMIT_XML_DECLARATION, "yes");
-            transformer.setOutputProperty(OutputKeys.INDENT, "yes");
-
-            // Return pretty print xml string
-            StringWriter stringWriter = new StringWriter();
-            transformer.transform(new DOMSource(document), new StreamResult(stringWriter));
-            return stringWriter.toString();
-        } catch (Exception e) {
+            XMLStreamReader reader = inputFactory.createXMLStreamReader(new StringReader(xml));
+            try {
+                return format(reader, indent, xml.length());
+            } finally {
+                reader.close();
+            }
+        } catch (XMLStreamException e) {
             throw new RuntimeException(e);
         }
     }
+
+    private static String format(XMLStreamReader reader, int indent, int sizeHint) throws XMLStreamException {
+        PrettyPrinter printer = new PrettyPrinter(indent, sizeHint);
+        while (reader.hasNext()) {
+            int event = reader.next();
+            switch (event) {
+                case XMLStreamConstants.START_ELEMENT -> {
+                    StringBuilder out = printer.startMarkup();
+                    out.append('<');
+                    appendName(out, reader.getPrefix(), reader.getLocalName());
+                    for (int i = 0; i < reader.getNamespaceCount(); i++) {
+                        String prefix = reader.getNamespacePrefix(i);
+                        out.append(prefix == null || prefix.isEmpty() ? " xmlns" : " xmlns:" + prefix).append("=\"");
+                        appendEscaped(out, reader.getNamespaceURI(i), true);
+                        out.append('"');
+                    }
+                    for (int i = 0; i < reader.getAttributeCount(); i++) {
+                        out.append(' ');
+                        appendName(out, reader.getAttributePrefix(i), reader.getAttributeLocalName(i));
+                        out.append("=\"");
+                        appendEscaped(out, reader.getAttributeValue(i), true);
+                        out.append('"');
+                    }
+                    printer.startElement();
+                }
+                case XMLStreamConstants.END_ELEMENT -> {
+                    StringBuilder out = printer.endElement();
+                    if (out != null) {
+                        out.append("</");
+                        appendName(out, reader.getPrefix(), reader.getLocalName());
+                        out.append('>');
+                    }
+                }
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.SPACE -> {
+                    if (reader.isWhiteSpace()) {
+                        printer.whitespace(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    } else {
+                        appendEscaped(printer.startText(), reader.getText(), false);
+                    }
+                }
+                case XMLStreamConstants.CDATA ->
+                        printer.startText().append("<![CDATA[").append(reader.getText()).append("]]>");
+                case XMLStreamConstants.COMMENT ->
+                        printer.startMarkup().append("<!--").append(reader.getText()).append("-->");
+                case XMLStreamConstants.PROCESSING_INSTRUCTION -> {
+                    StringBuilder out = printer.startMarkup().append("<?").append(reader.getPITarget());
+                    String data = reader.getPIData();
+                    if (data != null && !data.isEmpty()) {
+                        out.append(' ').append(data);
+                    }
+                    out.append("?>");
+                }
+                case XMLStreamConstants.DTD -> printer.startMarkup().append(reader.getText());
+                default -> {
+                    // Document start and end, and entity references, which the reader has already replaced
+                }
+            }
+        }
+        return printer.toString();
+    }
+
+    /**
+     * Writes the layout around each piece of the document. An element is inline once it has text in it, as
+     * whitespace is then significant, so the rest of its content, including any child elements, is written as
+     * it was read.
+     */
+    private static final class PrettyPrinter {
+
+        private final int indent;
+        private final StringBuilder out;
+
+        // Whitespace read since the last markup, only written if it is significant
+        private final StringBuilder pendingWhitespace = new StringBuilder();
+
+        // For each open element, whether it has markup in it, so its end tag goes on a new line
+        private final BitSet hasMarkup = new BitSet();
+
+        // For each open element, whether its content is written as it was read
+        private final BitSet inline = new BitSet();
+
+        private int depth;
+        private boolean startTagOpen;
+
+        PrettyPrinter(int indent, int sizeHint) {
+            this.indent = indent;
+            this.out = new StringBuilder(sizeHint + sizeHint / 4);
+        }
+
+        /**
+         * Starts an element, comment or other markup, on a new line unless its parent is inline
+         * @return the output to write the markup to
+         */
+        StringBuilder startMarkup() {
+            closeStartTag();
+            if (depth > 0 && inline.get(depth - 1)) {
+                out.append(pendingWhitespace);
+            } else {
+                if (!out.isEmpty()) {
+                    out.append('\n');
+                }
+                out.repeat(' ', indent * depth);
+                if (depth > 0) {
+                    hasMarkup.set(depth - 1);
+                }
+            }
+            pendingWhitespace.setLength(0);
+            return out;
+        }
+
+        /**
+         * Records that the markup just written is the start tag of an element, left open so an empty element
+         * can be closed with /&gt;
+         */
+        void startElement() {
+            hasMarkup.clear(depth);
+            inline.set(depth, depth > 0 && inline.get(depth - 1));
+            depth++;
+            startTagOpen = true;
+        }
+
+        /**
+         * Ends an element, closing it with /&gt; if it is empty
+         * @return the output to write the end tag to, or null if the element has been closed
+         */
+        StringBuilder endElement() {
+            depth--;
+            if (startTagOpen) {
+                startTagOpen = false;
+                pendingWhitespace.setLength(0);
+                out.append("/>");
+                return null;
+            }
+            if (inline.get(depth)) {
+                out.append(pendingWhitespace);
+            } else if (hasMarkup.get(depth)) {
+                out.append('\n').repeat(' ', indent * depth);
+            }
+            pendingWhitespace.setLength(0);
+            return out;
+        }
+
+        void whitespace(char[] text, int start, int length) {
+            pendingWhitespace.append(text, start, length);
+        }
+
+        /**
+         * Starts some text, which makes the element it is in inline
+         * @return the output to write the text to
+         */
+        StringBuilder startText() {
+            closeStartTag();
+            out.append(pendingWhitespace);
+            pendingWhitespace.setLength(0);
+            if (depth > 0) {
+                inline.set(depth - 1);
+            }
+            return out;
+        }
+
+        private void closeStartTag() {
+            if (startTagOpen) {
+                out.append('>');
+                startTagOpen = false;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return out.toString();
+        }
+    }
+
+    private static void appendName(StringBuilder out, String prefix, String localName) {
+        if (prefix != null && !prefix.isEmpty()) {
+            out.append(prefix).append(':');
+        }
+        out.append(localName);
+    }
+
+    private static void appendEscaped(StringBuilder out, String text, boolean attribute) {
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            switch (c) {
+                case '&' -> out.append("&amp;");
+                case '<' -> out.append("&lt;");
+                case '>' -> out.append("&gt;");
+                case '"' -> out.append(attribute ? "&quot;" : "\"");
+                case '\n' -> out.append(attribute ? "&#10;" : "\n");
+                case '\r' -> out.append("&#13;");
+                case '\t' -> out.append(attribute ? "&#9;" : "\t");
+                default -> out.append(c);
+            }
+        }
+    }
 }
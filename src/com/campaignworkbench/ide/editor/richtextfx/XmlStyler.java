@@ -130,4 +130,21 @@ public class XmlStyler implements ISyntaxStyler {
     public String getStyleSheet(IDETheme theme) {
         return theme.getXmlSyntaxStyleSheet();
     }
+
+    @Override
+    public int getSafeRestyleStart(String text, int offset) {
+        // Back out of any comment or tag the edit is in, as either can span lines
+        int start = Math.min(
+                StyleBoundaries.startOfEnclosing(text, offset, "<!--", "-->"),
+                StyleBoundaries.startOfEnclosing(text, offset, "<", ">"));
+        return StyleBoundaries.lineStart(text, start);
+    }
+
+    @Override
+    public int getSafeRestyleEnd(String text, int offset) {
+        int end = Math.max(
+                StyleBoundaries.endOfEnclosing(text, offset, "<!--", "-->"),
+                StyleBoundaries.endOfEnclosing(text, offset, "<", ">"));
+        return StyleBoundaries.lineEnd(text, end);
+    }
 }
\ No newline at end of file
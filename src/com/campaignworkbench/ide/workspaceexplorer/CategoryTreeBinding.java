@@ -0,0 +1,106 @@
+package com.campaignworkbench.ide.workspaceexplorer;
+
+import javafx.beans.value.ChangeListener;
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+import javafx.scene.control.TreeItem;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * Keeps the children of a category node in the explorer tree in step with a list of workspace files. The tree
+ * items for the files are only created when the category is first expanded, until then a placeholder child
+ * shows that the category can be expanded. Each change to the list updates the tree in one batch.
+ */
+final class CategoryTreeBinding<T> {
+
+    private final ObservableList<T> list;
+    private final TreeItem<Object> categoryRoot;
+    private final Function<T, TreeItem<Object>> mapper;
+
+    private final ListChangeListener<T> listListener = this::listChanged;
+    private final ChangeListener<Boolean> expandedListener = (_, _, expanded) -> {
+        if (expanded) {
+            populate();
+        }
+    };
+
+    private boolean populated;
+
+    /**
+     * Binds the children of a category node to a list
+     * @param list the files in the category
+     * @param categoryRoot the category node
+     * @param mapper creates the tree item for a file
+     */
+    CategoryTreeBinding(ObservableList<T> list, TreeItem<Object> categoryRoot, Function<T, TreeItem<Object>> mapper) {
+        this.list = list;
+        this.categoryRoot = categoryRoot;
+        this.mapper = mapper;
+
+        if (categoryRoot.isExpanded()) {
+            populate();
+        } else {
+            updatePlaceholder();
+        }
+        list.addListener(listListener);
+        categoryRoot.expandedProperty().addListener(expandedListener);
+    }
+
+    /**
+     * Stops following the list and removes the category's children
+     */
+    void unbind() {
+        list.removeListener(listListener);
+        categoryRoot.expandedProperty().removeListener(expandedListener);
+        categoryRoot.getChildren().clear();
+    }
+
+    private void populate() {
+        if (populated) {
+            return;
+        }
+        populated = true;
+        categoryRoot.getChildren().setAll(list.stream().map(mapper).toList());
+    }
+
+    private void updatePlaceholder() {
+        if (list.isEmpty()) {
+            categoryRoot.getChildren().clear();
+        } else if (categoryRoot.getChildren().isEmpty()) {
+            categoryRoot.getChildren().add(WorkspaceExplorerItem.createTextTreeItem("Loading..."));
+        }
+    }
+
+    private void listChanged(ListChangeListener.Change<? extends T> change) {
+        if (!populated) {
+            updatePlaceholder();
+            return;
+        }
+
+        while (change.next()) {
+            if (change.wasRemoved()) {
+                Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+                removed.addAll(change.getRemoved());
+                categoryRoot.getChildren().removeIf(child ->
+                        removed.contains(child.getValue()) ||
+                                (child.getValue() instanceof WorkspaceExplorerItem.WorkspaceFileTreeItem wft &&
+                                        removed.contains(wft.workspaceFile))
+                );
+            }
+
+            if (change.wasAdded()) {
+                List<TreeItem<Object>> added = new ArrayList<>(change.getAddedSize());
+                for (T item : change.getAddedSubList()) {
+                    added.add(mapper.apply(item));
+                }
+                categoryRoot.getChildren().addAll(added);
+            }
+        }
+    }
+}
@@ -12,8 +12,6 @@ import javafx.beans.property.SimpleObjectProperty;
 import javafx.beans.property.SimpleStringProperty;
 import javafx.beans.property.StringProperty;
 import javafx.beans.value.ObservableValue;
-import javafx.collections.ListChangeListener;
-import javafx.collections.ObservableList;
 import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseButton;
@@ -29,7 +27,6 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.Optional;
 import java.util.function.Consumer;
-import java.util.function.Function;
 
 /**
  * User interface control to explore and navigate the files in a workspace
@@ -45,11 +42,11 @@ public class WorkspaceExplorer implements IJavaFxNode {
     private final StringProperty workspaceName = new SimpleStringProperty("No workspace selected");
     private final ObjectProperty<Workspace> workspace = new SimpleObjectProperty<>();
 
-    // Change listeners
-    private ListChangeListener<Template> templatesListener;
-    private ListChangeListener<EtmModule> modulesListener;
-    private ListChangeListener<PersoBlock> blocksListener;
-    private ListChangeListener<ContextXml> contextsListener;
+    // Bindings of the category nodes to the workspace lists
+    private CategoryTreeBinding<Template> templatesBinding;
+    private CategoryTreeBinding<EtmModule> modulesBinding;
+    private CategoryTreeBinding<PersoBlock> blocksBinding;
+    private CategoryTreeBinding<ContextXml> contextsBinding;
 
     // Root structures of the tree view
     private TreeView<Object> treeView;
@@ -101,6 +98,10 @@ public class WorkspaceExplorer implements IJavaFxNode {
     }
 
     public void setWorkspace(Workspace workspace) {
+        Workspace previousWorkspace = getWorkspace();
+        if (previousWorkspace != null && previousWorkspace != workspace) {
+            previousWorkspace.close();
+        }
         this.workspace.setValue(workspace);
     }
 
@@ -111,19 +112,19 @@ public class WorkspaceExplorer implements IJavaFxNode {
     private void bindWorkspace() {
         workspace.addListener((obs, oldWorkspace, newWorkspace) -> {
 
-            // Remove old listeners
+            // Remove old bindings
             if (oldWorkspace != null) {
-                if (templatesListener != null)
-                    oldWorkspace.getTemplates().removeListener(templatesListener);
+                if (templatesBinding != null)
+                    templatesBinding.unbind();
 
-                if (modulesListener != null)
-                    oldWorkspace.getModules().removeListener(modulesListener);
+                if (modulesBinding != null)
+                    modulesBinding.unbind();
 
-                if (blocksListener != null)
-                    oldWorkspace.getBlocks().removeListener(blocksListener);
+                if (blocksBinding != null)
+                    blocksBinding.unbind();
 
-                if (contextsListener != null)
-                    oldWorkspace.getContexts().removeListener(contextsListener);
+                if (contextsBinding != null)
+                    contextsBinding.unbind();
             }
 
             // Clear tree
@@ -138,60 +139,24 @@ public class WorkspaceExplorer implements IJavaFxNode {
             } else {
                 workspaceName.bind(newWorkspace.getNameProperty());
 
-                // Bind children to workspace.templates
-                templatesListener = bindListToTree(newWorkspace.getTemplates(), templateRoot, template ->
+                // Bind children to workspace.templates. Tree items are created when a category is first expanded.
+                templatesBinding = new CategoryTreeBinding<>(newWorkspace.getTemplates(), templateRoot, template ->
                         WorkspaceExplorerItem.createTemplateTreeItem(template, this::deleteExistingFile)
                 );
 
-                modulesListener = bindListToTree(newWorkspace.getModules(), moduleRoot, module ->
+                modulesBinding = new CategoryTreeBinding<>(newWorkspace.getModules(), moduleRoot, module ->
                         WorkspaceExplorerItem.createModuleTreeItem(module, this::insertIntoCode, this::deleteExistingFile)
                 );
-                blocksListener = bindListToTree(newWorkspace.getBlocks(), blockRoot, block ->
+                blocksBinding = new CategoryTreeBinding<>(newWorkspace.getBlocks(), blockRoot, block ->
                         WorkspaceExplorerItem.createBlockTreeItem(block, this::insertIntoCode, this::deleteExistingFile)
                 );
-                contextsListener = bindListToTree(newWorkspace.getContexts(), contextRoot, context ->
+                contextsBinding = new CategoryTreeBinding<>(newWorkspace.getContexts(), contextRoot, context ->
                         WorkspaceExplorerItem.createContextTreeItem(context, this::deleteExistingFile)
                 );
             }
         });
     }
 
-    private <T> ListChangeListener<T> bindListToTree(
-            ObservableList<T> list,
-            TreeItem<Object> parentRoot,
-            Function<T, TreeItem<Object>> mapper) {
-
-        // Initial population
-        parentRoot.getChildren().clear();
-        for (T item : list) {
-            parentRoot.getChildren().add(mapper.apply(item));
-        }
-
-        ListChangeListener<T> listener = change -> {
-            while (change.next()) {
-
-                if (change.wasRemoved()) {
-                    for (T removed : change.getRemoved()) {
-                        parentRoot.getChildren().removeIf(child ->
-                                child.getValue() == removed ||
-                                        (child.getValue() instanceof WorkspaceExplorerItem.WorkspaceFileTreeItem wft &&
-                                                wft.workspaceFile == removed)
-                        );
-                    }
-                }
-
-                if (change.wasAdded()) {
-                    for (T added : change.getAddedSubList()) {
-                        parentRoot.getChildren().add(mapper.apply(added));
-                    }
-                }
-            }
-        };
-
-        list.addListener(listener);
-        return listener;
-    }
-
     private void createUi(String labelText) {
         // Create the UI
         Label explorerLabel = new Label(labelText);
@@ -365,8 +330,8 @@ public class WorkspaceExplorer implements IJavaFxNode {
 
         if (Files.exists(expectedJsonFile) && Files.isRegularFile(expectedJsonFile)) {
             System.out.println("File exists: " + expectedJsonFile);
+            // The constructor loads the workspace
             setWorkspace(new Workspace(folderName, false));
-            getWorkspace().load();
         } else {
             // Not a valid workspace
             throw new IdeException("Selected folder is not a valid workspace!", null);
@@ -384,7 +349,9 @@ public class WorkspaceExplorer implements IJavaFxNode {
     }
 
     public void closeWorkspace() {
-
+        if (getWorkspace() != null) {
+            getWorkspace().close();
+        }
     }
 
     public void createNewFile(WorkspaceFileType workspaceFileType) {
@@ -0,0 +1,40 @@
+package com.campaignworkbench.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+/**
+ * The modified time and size of a file at a point in time, used to tell cheaply whether a file has changed
+ * since something was derived from it
+ * @param lastModified modified time of the file, or null if the file could not be read
+ * @param size size of the file in bytes, or -1 if the file could not be read
+ */
+public record FileStamp(FileTime lastModified, long size) {
+
+    private static final FileStamp MISSING = new FileStamp(null, -1);
+
+    /**
+     * Reads the current stamp of a file
+     * @param path full path to the file
+     * @return the stamp, which for a missing or unreadable file only matches other missing files
+     */
+    public static FileStamp of(Path path) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            return new FileStamp(attributes.lastModifiedTime(), attributes.size());
+        } catch (IOException ioe) {
+            return MISSING;
+        }
+    }
+
+    /**
+     * @param path full path to the file
+     * @return true if the file still has this stamp
+     */
+    public boolean matches(Path path) {
+        return equals(of(path));
+    }
+}
@@ -0,0 +1,42 @@
+package com.campaignworkbench.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Provides methods for hashing content, so that caches can be keyed on what a file contains rather than its name
+ */
+public final class HashUtil {
+
+    private static final String ALGORITHM = "SHA-256";
+
+    private HashUtil() {}
+
+    /**
+     * Creates a single hash over one or more strings. Each string is delimited, so that
+     * ("ab", "c") and ("a", "bc") produce different hashes. Null strings are permitted.
+     * @param contents the strings to hash
+     * @return hex encoded SHA-256 hash
+     */
+    public static String sha256(String... contents) {
+        MessageDigest digest = newDigest();
+        for (String content : contents) {
+            if (content != null) {
+                digest.update(content.getBytes(StandardCharsets.UTF_8));
+            }
+            digest.update((byte) 0);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            // Every JVM is required to support SHA-256
+            throw new IllegalStateException("Hash algorithm not available: " + ALGORITHM, e);
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package com.campaignworkbench.util;
 
+import tools.jackson.core.JsonParser;
 import tools.jackson.databind.ObjectMapper;
 import tools.jackson.databind.json.JsonMapper;
 
@@ -31,6 +32,17 @@ public final class JsonUtil {
             mapper.writerWithDefaultPrettyPrinter().writeValue(filePath.toFile(), value);
     }
 
+    /**
+     * Writes an object as pretty printed JSON.
+     *
+     * @param value Object to serialize
+     * @param <T>   Type of object
+     * @return UTF-8 encoded JSON
+     */
+    public static <T> byte[] writeToJsonBytes(T value) {
+            return mapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(value);
+    }
+
     /**
      * Reads an object from a JSON file.
      *
@@ -43,4 +55,15 @@ public final class JsonUtil {
     public static <T> T readFromJson(Path filePath, Class<T> type) throws IOException {
             return mapper.readValue(filePath.toFile(), type);
     }
+
+    /**
+     * Creates a streaming parser over a JSON file, for files too large to read into objects quickly.
+     * The caller must close the parser.
+     *
+     * @param filePath Full path to the JSON file
+     * @return Parser positioned before the first token
+     */
+    public static JsonParser createParser(Path filePath) {
+            return mapper.createParser(filePath.toFile());
+    }
 }
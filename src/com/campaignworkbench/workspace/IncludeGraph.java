@@ -0,0 +1,229 @@
+package com.campaignworkbench.workspace;
+
+import com.campaignworkbench.ide.IdeException;
+import javafx.collections.ListChangeListener;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Graph of the include directives between the templates, modules and blocks in a workspace, along with the
+ * context files used by templates and modules. The graph is built by scanning every file once, then kept up
+ * to date as files are added, removed and changed, so it can say which templates are affected by a change
+ * without rescanning the workspace.
+ * <p>
+ * Files are scanned on a background thread, first when the graph is created, then as files are added, removed
+ * and changed. The graph can be queried from any thread, and holds what has been scanned so far. Use
+ * {@link #whenReady} to query it once it is built and earlier changes have been scanned.
+ * <p>
+ * Includes are recorded by name, as a directive names the file it includes. This means an include of a file
+ * that is later added to the workspace is already in the graph.
+ */
+public class IncludeGraph {
+
+    /**
+     * A reference to a file by its type and base name, as used by include directives
+     * @param fileType type of the file
+     * @param baseName file name without the extension
+     */
+    public record IncludeReference(WorkspaceFileType fileType, String baseName) {
+
+        /**
+         * @param workspaceFile the file to refer to
+         * @return reference to the file
+         */
+        public static IncludeReference of(WorkspaceFile workspaceFile) {
+            return new IncludeReference(workspaceFile.getFileType(), workspaceFile.getBaseFileName());
+        }
+    }
+
+    private static final ExecutorService scanExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "include-graph");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static final Pattern INCLUDE_PATTERN = Pattern.compile(
+            "<%@\\s*include\\b[^%]*?\\b(module|view)=(['\"])(.*?)\\2"
+    );
+
+    private final Map<WorkspaceFile, Set<IncludeReference>> includes = new HashMap<>();
+    private final Map<IncludeReference, Set<WorkspaceFile>> includedBy = new HashMap<>();
+    private final Map<WorkspaceFile, Set<String>> contextsUsed = new HashMap<>();
+    private final Map<String, Set<WorkspaceFile>> contextUsedBy = new HashMap<>();
+
+    private final ListChangeListener<WorkspaceFile> listChangeListener = change -> {
+        while (change.next()) {
+            change.getRemoved().forEach(this::remove);
+            change.getAddedSubList().forEach(this::update);
+        }
+    };
+
+    /**
+     * Constructor. Scans every template, module and block in the workspace in the background, and listens for
+     * files being added to and removed from it. Must be called on the thread that changes the workspace lists.
+     * @param workspace the workspace to build the graph for
+     */
+    public IncludeGraph(Workspace workspace) {
+        List<WorkspaceFile> workspaceFiles = new ArrayList<>(workspace.getTemplates());
+        workspaceFiles.addAll(workspace.getModules());
+        workspaceFiles.addAll(workspace.getBlocks());
+        scanExecutor.execute(() -> workspaceFiles.forEach(this::scan));
+
+        workspace.getTemplates().addListener(listChangeListener);
+        workspace.getModules().addListener(listChangeListener);
+        workspace.getBlocks().addListener(listChangeListener);
+    }
+
+    /**
+     * Runs an action on the background thread once the graph is built and the changes made before this call
+     * have been scanned
+     * @param action the action to run, given this graph
+     */
+    public void whenReady(Consumer<IncludeGraph> action) {
+        scanExecutor.execute(() -> action.accept(this));
+    }
+
+    /**
+     * Rescans a file in the background, replacing its includes and contexts in the graph
+     * @param workspaceFile the file that has changed
+     */
+    public void update(WorkspaceFile workspaceFile) {
+        if (workspaceFile instanceof ContextXml) {
+            return;
+        }
+        scanExecutor.execute(() -> scan(workspaceFile));
+    }
+
+    /**
+     * Removes a file and the references it makes from the graph in the background. References to the file are kept.
+     * @param workspaceFile the file that has been removed
+     */
+    public void remove(WorkspaceFile workspaceFile) {
+        scanExecutor.execute(() -> removeFile(workspaceFile));
+    }
+
+    private void scan(WorkspaceFile workspaceFile) {
+        // Read outside the lock, so queries aren't held up by the disk
+        Set<IncludeReference> references = scanIncludes(workspaceFile);
+        synchronized (this) {
+            addFile(workspaceFile, references);
+        }
+    }
+
+    private void addFile(WorkspaceFile workspaceFile, Set<IncludeReference> references) {
+        removeFile(workspaceFile);
+
+        includes.put(workspaceFile, references);
+        for (IncludeReference reference : references) {
+            includedBy.computeIfAbsent(reference, _ -> new HashSet<>()).add(workspaceFile);
+        }
+
+        Set<String> contextFileNames = new HashSet<>();
+        if (workspaceFile instanceof WorkspaceContextFile contextFile && contextFile.isDataContextSet()) {
+            contextFileNames.add(contextFile.getDataContextFile().getFileName());
+        }
+        if (workspaceFile instanceof Template template && template.isMessageContextSet()) {
+            contextFileNames.add(template.getMessageContextFileName());
+        }
+        contextsUsed.put(workspaceFile, contextFileNames);
+        for (String contextFileName : contextFileNames) {
+            contextUsedBy.computeIfAbsent(contextFileName, _ -> new HashSet<>()).add(workspaceFile);
+        }
+    }
+
+    private synchronized void removeFile(WorkspaceFile workspaceFile) {
+        Set<IncludeReference> references = includes.remove(workspaceFile);
+        if (references != null) {
+            for (IncludeReference reference : references) {
+                removeEdge(includedBy, reference, workspaceFile);
+            }
+        }
+
+        Set<String> contextFileNames = contextsUsed.remove(workspaceFile);
+        if (contextFileNames != null) {
+            for (String contextFileName : contextFileNames) {
+                removeEdge(contextUsedBy, contextFileName, workspaceFile);
+            }
+        }
+    }
+
+    /**
+     * @param workspaceFile a template, module or block
+     * @return references to the modules and blocks the file includes directly
+     */
+    public synchronized Set<IncludeReference> getIncludes(WorkspaceFile workspaceFile) {
+        return Set.copyOf(includes.getOrDefault(workspaceFile, Set.of()));
+    }
+
+    /**
+     * @param workspaceFile a module or block
+     * @return the templates, modules and blocks that include the file directly
+     */
+    public synchronized Set<WorkspaceFile> getIncludedBy(WorkspaceFile workspaceFile) {
+        return Set.copyOf(includedBy.getOrDefault(IncludeReference.of(workspaceFile), Set.of()));
+    }
+
+    /**
+     * Finds the templates whose output may change when a file changes. That is the templates that include the
+     * file directly or through other modules and blocks, or that use it as a context, either themselves or
+     * through an included module.
+     * @param workspaceFile the file that has changed
+     * @return the affected templates, including the file itself if it is a template
+     */
+    public synchronized Set<Template> getAffectedTemplates(WorkspaceFile workspaceFile) {
+        Set<Template> affectedTemplates = new LinkedHashSet<>();
+        Set<WorkspaceFile> visited = new HashSet<>();
+        Deque<WorkspaceFile> pending = new ArrayDeque<>();
+
+        if (workspaceFile instanceof ContextXml) {
+            pending.addAll(contextUsedBy.getOrDefault(workspaceFile.getFileName(), Set.of()));
+        } else {
+            pending.add(workspaceFile);
+        }
+
+        while (!pending.isEmpty()) {
+            WorkspaceFile current = pending.poll();
+            if (!visited.add(current)) {
+                continue;
+            }
+            if (current instanceof Template template) {
+                affectedTemplates.add(template);
+            }
+            pending.addAll(includedBy.getOrDefault(IncludeReference.of(current), Set.of()));
+        }
+        return affectedTemplates;
+    }
+
+    private static Set<IncludeReference> scanIncludes(WorkspaceFile workspaceFile) {
+        String content;
+        try {
+            content = workspaceFile.getWorkspaceFileContent();
+        } catch (IdeException ideException) {
+            // A missing file includes nothing
+            return Set.of();
+        }
+
+        Set<IncludeReference> references = new HashSet<>();
+        Matcher matcher = INCLUDE_PATTERN.matcher(content);
+        while (matcher.find()) {
+            WorkspaceFileType fileType = matcher.group(1).equals("module") ? WorkspaceFileType.MODULE : WorkspaceFileType.BLOCK;
+            references.add(new IncludeReference(fileType, matcher.group(3)));
+        }
+        return references;
+    }
+
+    private static <K> void removeEdge(Map<K, Set<WorkspaceFile>> edges, K key, WorkspaceFile workspaceFile) {
+        Set<WorkspaceFile> files = edges.get(key);
+        if (files != null) {
+            files.remove(workspaceFile);
+            if (files.isEmpty()) {
+                edges.remove(key);
+            }
+        }
+    }
+}
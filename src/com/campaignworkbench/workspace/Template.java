@@ -33,6 +33,7 @@ public class Template extends WorkspaceContextFile {
 
         this.messageContextFile = messageContextFile;
         messageContextFileProperty.setValue(messageContextFile);
+        notifyChanged();
     }
 
     public void clearMessageContext() {
@@ -1,6 +1,7 @@
 package com.campaignworkbench.workspace;
 
 import com.campaignworkbench.ide.IdeException;
+import com.campaignworkbench.util.FileUtil;
 import com.campaignworkbench.util.JsonUtil;
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonIgnore;
@@ -17,6 +18,8 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 
 /**
  * Class to support a working area with appropriate files
@@ -32,6 +35,10 @@ public class Workspace {
     private static final String workspacesRootName = "Campaign Workbench Workspaces";
     private static final Path workspacesRootPath = Paths.get(System.getProperty("user.home")).resolve(workspacesRootName);
 
+    // File content is reused until the file changes
+    private static final int CONTENT_CACHE_MAX_ENTRIES = 1024;
+    private static final long CONTENT_CACHE_MAX_CHARS = 64L * 1024 * 1024;
+
     // Observable lists to allow WorkspaceExplorer to auto update
     @JsonIgnore
     private final ObservableList<Template> templates =
@@ -49,9 +56,54 @@ public class Workspace {
     private final ObservableList<ContextXml> contexts =
             FXCollections.observableArrayList();
 
+    // Lookups by name, kept in step with the lists above
+    @JsonIgnore
+    private final WorkspaceFileIndex<Template> templateIndex = new WorkspaceFileIndex<>(templates);
+
+    @JsonIgnore
+    private final WorkspaceFileIndex<EtmModule> moduleIndex = new WorkspaceFileIndex<>(modules);
+
+    @JsonIgnore
+    private final WorkspaceFileIndex<PersoBlock> blockIndex = new WorkspaceFileIndex<>(blocks);
+
+    @JsonIgnore
+    private final WorkspaceFileIndex<ContextXml> contextIndex = new WorkspaceFileIndex<>(contexts);
+
     @JsonIgnore
     private final StringProperty nameProperty = new SimpleStringProperty();
 
+    // Built on first use, so workspaces read only to copy their lists never scan their files
+    @JsonIgnore
+    private IncludeGraph includeGraph;
+
+    @JsonIgnore
+    private WorkspaceSearchIndex searchIndex;
+
+    @JsonIgnore
+    private final List<Consumer<WorkspaceFile>> fileChangeListeners = new CopyOnWriteArrayList<>();
+
+    // Held while the file lists are changed or written to JSON, so the JSON can be written on another thread
+    @JsonIgnore
+    private final Object filesLock = new Object();
+
+    @JsonIgnore
+    private final List<Consumer<Path>> saveListeners = new CopyOnWriteArrayList<>();
+
+    @JsonIgnore
+    private final List<Consumer<IdeException>> saveFailureListeners = new CopyOnWriteArrayList<>();
+
+    @JsonIgnore
+    private final WorkspacePersistence persistence =
+            new WorkspacePersistence(this::getConfigFileAbsolutePath, this::toJson, this::saved, this::saveFailed);
+
+    // Created on first use, when the workspace folders start being watched
+    @JsonIgnore
+    private WorkspaceContentCache contentCache;
+
+    // Set once closed, after which files are read directly and the folders aren't watched again
+    @JsonIgnore
+    private boolean closed;
+
     // JSON visible properties
     @JsonProperty("templates")
     private List<Template> getTemplatesForJson() {
@@ -102,6 +154,9 @@ public class Workspace {
         } else {
             load();
         }
+
+        // Scanned in the background, so it's ready by the time files are edited and rendered
+        getIncludeGraph();
     }
 
     public Workspace() {
@@ -121,6 +176,168 @@ public class Workspace {
         return contexts;
     }
     public StringProperty getNameProperty() { return nameProperty; }
+
+    /**
+     * @return graph of the includes between files in the workspace, created when the workspace is opened and
+     * built in the background
+     */
+    public synchronized IncludeGraph getIncludeGraph() {
+        if (includeGraph == null) {
+            includeGraph = new IncludeGraph(this);
+        }
+        return includeGraph;
+    }
+
+    /**
+     * @return full text index of the workspace's files, built in the background from first use and updated as
+     * files are saved or changed on disk, or null if the workspace has been closed
+     */
+    public synchronized WorkspaceSearchIndex getSearchIndex() {
+        if (closed) {
+            return null;
+        }
+        if (searchIndex == null) {
+            searchIndex = new WorkspaceSearchIndex(this);
+            getContentCache().addChangeListener(searchIndex::fileChangedOnDisk);
+        }
+        return searchIndex;
+    }
+
+    /**
+     * @return cache of the content of the workspace's files, for access to hit and miss statistics, or null if
+     * the workspace has been closed. The workspace folders are watched from first use until the workspace is closed.
+     */
+    public synchronized WorkspaceContentCache getContentCache() {
+        if (closed) {
+            return null;
+        }
+        if (contentCache == null) {
+            contentCache = new WorkspaceContentCache(CONTENT_CACHE_MAX_ENTRIES, CONTENT_CACHE_MAX_CHARS);
+            List<Path> folders = new ArrayList<>();
+            for (WorkspaceFileType fileType : WorkspaceFileType.values()) {
+                folders.add(getRootFolderPath().resolve(fileType.getFolderName()));
+            }
+            contentCache.watch("workspace-watcher-" + getName(), folders);
+        }
+        return contentCache;
+    }
+
+    /**
+     * Writes any pending changes to the workspace JSON file, stops watching the workspace folders and releases
+     * the cached file content. Files are still read, directly, by anything that was using the workspace.
+     */
+    public void close() {
+        flush();
+        closeContentCache();
+    }
+
+    private synchronized void closeContentCache() {
+        closed = true;
+        if (contentCache != null) {
+            contentCache.close();
+            contentCache = null;
+        }
+        if (searchIndex != null) {
+            searchIndex.close();
+            searchIndex = null;
+        }
+    }
+
+    /**
+     * Reads a file in the workspace, through the content cache unless the workspace has been closed. Thread safe.
+     * @param path full path to the file
+     * @return the content of the file
+     */
+    String readFile(Path path) {
+        WorkspaceContentCache cache = getContentCache();
+        return cache != null ? cache.read(path) : FileUtil.read(path);
+    }
+
+    /**
+     * Drops a file written by the workspace from the content cache, if the workspace is open. Thread safe.
+     * @param path full path to the file
+     */
+    void fileWritten(Path path) {
+        WorkspaceContentCache cache = getContentCache();
+        if (cache != null) {
+            cache.invalidate(path);
+        }
+    }
+
+    /**
+     * Adds a listener that is called whenever a file in the workspace is saved, removed, or has its contexts changed
+     * @param listener the listener to add
+     */
+    public void addFileChangeListener(Consumer<WorkspaceFile> listener) {
+        fileChangeListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeFileChangeListener(Consumer<WorkspaceFile> listener) {
+        fileChangeListeners.remove(listener);
+    }
+
+    /**
+     * Adds a listener that is called with the path of the workspace JSON file each time it is written, on the
+     * thread writing it
+     * @param listener the listener to add
+     */
+    public void addSaveListener(Consumer<Path> listener) {
+        saveListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeSaveListener(Consumer<Path> listener) {
+        saveListeners.remove(listener);
+    }
+
+    private void saved(Path jsonFilePath) {
+        saveListeners.forEach(listener -> listener.accept(jsonFilePath));
+    }
+
+    /**
+     * Adds a listener that is called, on the save thread, when saving the workspace JSON file in the background
+     * fails. The save is tried again on the next request to save.
+     * @param listener the listener to add
+     */
+    public void addSaveFailureListener(Consumer<IdeException> listener) {
+        saveFailureListeners.add(listener);
+    }
+
+    /**
+     * @param listener the listener to remove
+     */
+    public void removeSaveFailureListener(Consumer<IdeException> listener) {
+        saveFailureListeners.remove(listener);
+    }
+
+    private void saveFailed(IdeException exception) {
+        saveFailureListeners.forEach(listener -> listener.accept(exception));
+    }
+
+    /**
+     * Updates the include graph and search index for a changed file, and notifies the file change listeners
+     * @param workspaceFile the file that has changed
+     */
+    public void fileChanged(WorkspaceFile workspaceFile) {
+        IncludeGraph graph;
+        WorkspaceSearchIndex index;
+        synchronized (this) {
+            graph = includeGraph;
+            index = searchIndex;
+        }
+        if (graph != null) {
+            graph.update(workspaceFile);
+        }
+        if (index != null) {
+            index.update(workspaceFile);
+        }
+        fileChangeListeners.forEach(listener -> listener.accept(workspaceFile));
+    }
     public String getName() { return nameProperty.getValue(); }
     public Path getRootFolderPath() {
         return workspacesRootPath.resolve(nameProperty.getValue());
@@ -171,34 +388,51 @@ public class Workspace {
             throw new IdeException("An error occurred creating the new workspace: " + getConfigFileAbsolutePath(), ioe.getCause());
         }
 
-        save();
+        // The workspace can't be opened until its JSON file exists
+        flush();
     }
 
     public void load() {
         readFromJson();
     }
 
+    /**
+     * Saves the workspace JSON file shortly, on a background thread. Saves requested close together are written
+     * once, and not at all if nothing has changed since the last save.
+     */
     public void save() {
-        writeToJson();
+        persistence.requestSave();
+    }
+
+    /**
+     * Saves the workspace JSON file now, on the calling thread, if anything has changed since the last save
+     * @throws IdeException if the file can't be written
+     */
+    public void flush() throws IdeException {
+        persistence.flush();
     }
 
+    /**
+     * Finds a file by its base name, as used by include directives. Thread safe.
+     * @param fileName file name without the extension
+     * @param fileType type of the file
+     * @return the file, or null if there is no such file in the workspace
+     */
     public WorkspaceFile getWorkspaceFile(String fileName, WorkspaceFileType fileType) {
 
         if (fileName == null) {
             return null;
         }
+        return getIndex(fileType).getByBaseFileName(fileName);
+    }
 
-        ObservableList<? extends WorkspaceFile> fileList = switch(fileType) {
-            case TEMPLATE -> templates;
-            case MODULE -> modules;
-            case BLOCK -> blocks;
-            case CONTEXT -> contexts;
+    private WorkspaceFileIndex<? extends WorkspaceFile> getIndex(WorkspaceFileType fileType) {
+        return switch(fileType) {
+            case TEMPLATE -> templateIndex;
+            case MODULE -> moduleIndex;
+            case BLOCK -> blockIndex;
+            case CONTEXT -> contextIndex;
         };
-
-        return fileList.stream()
-                .filter(t -> fileName.equals(t.getBaseFileName()))
-                .findFirst()
-                .orElse(null);
     }
 
     public void createNewWorkspaceFile(String fileName, WorkspaceFileType fileType) throws IdeException {
@@ -213,7 +447,6 @@ public class Workspace {
             throw new IdeException("An error occurred creating the new workspace file: " + filePath, ioe.getCause());
         }
         addWorkspaceFile(fileName, fileType);
-        save();
     }
 
     public void addWorkspaceFile(String fileName, WorkspaceFileType fileType) {
@@ -221,11 +454,13 @@ public class Workspace {
         if(fileExistsInWorkspace(fileName, fileType)) {
             return;
         }
-        switch (fileType) {
-            case TEMPLATE -> templates.add(new Template(fileName, this));
-            case MODULE -> modules.add(new EtmModule(fileName, this));
-            case BLOCK -> blocks.add(new PersoBlock(fileName, this));
-            case CONTEXT -> contexts.add(new ContextXml(fileName, this));
+        synchronized (filesLock) {
+            switch (fileType) {
+                case TEMPLATE -> templates.add(new Template(fileName, this));
+                case MODULE -> modules.add(new EtmModule(fileName, this));
+                case BLOCK -> blocks.add(new PersoBlock(fileName, this));
+                case CONTEXT -> contexts.add(new ContextXml(fileName, this));
+            }
         }
         save();
     }
@@ -236,21 +471,24 @@ public class Workspace {
             fileToRemove.deleteFromFileSystem();
         }
 
-        switch (fileToRemove.getFileType()) {
-            case TEMPLATE:
-                templates.remove(fileToRemove);
-                break;
-            case MODULE:
-                modules.remove(fileToRemove);
-                break;
-            case BLOCK:
-                blocks.remove(fileToRemove);
-                break;
-            case CONTEXT:
-                contexts.remove(fileToRemove);
-                break;
+        synchronized (filesLock) {
+            switch (fileToRemove.getFileType()) {
+                case TEMPLATE:
+                    templates.remove(fileToRemove);
+                    break;
+                case MODULE:
+                    modules.remove(fileToRemove);
+                    break;
+                case BLOCK:
+                    blocks.remove(fileToRemove);
+                    break;
+                case CONTEXT:
+                    contexts.remove(fileToRemove);
+                    break;
+            }
         }
         save();
+        fileChanged(fileToRemove);
     }
 
 
@@ -269,13 +507,7 @@ public class Workspace {
     }
 
     private boolean fileExistsInWorkspace(String fileName, WorkspaceFileType fileType) {
-        return switch (fileType) {
-            case TEMPLATE -> templates.stream().anyMatch(template -> template.getFileName().equals(fileName));
-            case MODULE -> modules.stream().anyMatch(module -> module.getFileName().equals(fileName));
-            case BLOCK -> blocks.stream().anyMatch(block -> block.getFileName().equals(fileName));
-            case CONTEXT -> contexts.stream().anyMatch(context -> context.getFileName().equals(fileName));
-            default -> false;
-        };
+        return fileName != null && getIndex(fileType).getByFileName(fileName) != null;
     }
 
     private Path getFilePath(String fileName, WorkspaceFileType fileType) {
@@ -283,33 +515,26 @@ public class Workspace {
     }
 
     // JSON methods for load and save
-    public void writeToJson(Path jsonFilePath) {
+    /**
+     * @return the workspace as JSON. Thread safe.
+     */
+    private byte[] toJson() {
         try {
-            JsonUtil.writeToJson(jsonFilePath, this);
-            System.out.println("Saved workspace JSON file: " + jsonFilePath);
-        } catch (IOException ioe) {
-            throw new IdeException("An error occurred saving the workspace JSON file: " + jsonFilePath, ioe.getCause());
+            synchronized (filesLock) {
+                return JsonUtil.writeToJsonBytes(this);
+            }
         } catch (Exception e) {
-            throw new IdeException("An unknown occurred saving the workspace JSON file: " + jsonFilePath, e);
+            throw new IdeException("An unknown occurred saving the workspace JSON file: " + getConfigFileAbsolutePath(), e);
         }
     }
 
-    private void writeToJson() {
-        writeToJson(getConfigFileAbsolutePath());
-    }
-
     private void readFromJson() {
         try {
             Path jsonFilePath = getConfigFileAbsolutePath();
-            Workspace newWorkspace = JsonUtil.readFromJson(jsonFilePath, Workspace.class);
+            WorkspaceJsonReader.WorkspaceFiles files = WorkspaceJsonReader.read(jsonFilePath);
 
-            this.templates.setAll(newWorkspace.templates);
-            this.modules.setAll(newWorkspace.modules);
-            this.blocks.setAll(newWorkspace.blocks);
-            this.contexts.setAll(newWorkspace.contexts);
-
-            // Restore back-references
-            this.templates.forEach(template -> {
+            // Restore back-references, before the files are seen by listeners on the lists
+            files.templates().forEach(template -> {
                 template.setWorkspace(this);
                 if(template.getMessageContextFile() != null) {
                     template.getMessageContextFile().setWorkspace(this);
@@ -318,19 +543,27 @@ public class Workspace {
                     template.getDataContextFile().setWorkspace(this);
                 }
             });
-            this.modules.forEach(module -> {
+            files.modules().forEach(module -> {
                 module.setWorkspace(this);
                 if(module.getDataContextFile() != null) {
                     module.getDataContextFile().setWorkspace(this);
                 }
             });
-            this.blocks.forEach(block -> block.setWorkspace(this));
-            this.contexts.forEach(context -> context.setWorkspace(this));
+            files.blocks().forEach(block -> block.setWorkspace(this));
+            files.contexts().forEach(context -> context.setWorkspace(this));
+
+            // One change per list, so listeners update once rather than for each file
+            synchronized (filesLock) {
+                this.templates.setAll(files.templates());
+                this.modules.setAll(files.modules());
+                this.blocks.setAll(files.blocks());
+                this.contexts.setAll(files.contexts());
+            }
 
             nameProperty.setValue(jsonFilePath.getParent().getFileName().toString());
 
         } catch (IOException ioe) {
-            throw new IdeException("An error occurred loading the workspace JSON file: " + getConfigFileAbsolutePath(), ioe.getCause());
+            throw new IdeException("An error occurred loading the workspace JSON file: " + getConfigFileAbsolutePath(), ioe);
         } catch (Exception e) {
             throw new IdeException("An unknown occurred loading the workspace JSON file: " + getConfigFileAbsolutePath(), e);
         }
@@ -0,0 +1,229 @@
+package com.campaignworkbench.workspace;
+
+import com.campaignworkbench.util.FileStamp;
+import com.campaignworkbench.util.FileUtil;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * LRU cache of the content of workspace files, keyed on the file path, so a file read by every render is only
+ * read from disk when it changes. A cached file is checked against its modified time and size before it is
+ * reused. The workspace folders are also watched, and a file is dropped from the cache as soon as it is changed,
+ * which catches changes that leave the modified time and size as they were. All methods are thread safe.
+ */
+public final class WorkspaceContentCache {
+
+    private record CacheEntry(FileStamp fileStamp, String content) {}
+
+    private final int maxEntries;
+    private final long maxChars;
+    private final LinkedHashMap<Path, CacheEntry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    private long currentChars;
+    private long hitCount;
+    private long missCount;
+    private long charsRead;
+    private long charsSaved;
+    private long invalidationCount;
+
+    private WatchService watchService;
+    private final List<Consumer<Path>> changeListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Constructor
+     * @param maxEntries maximum number of files to hold
+     * @param maxChars maximum total length of the files to hold
+     */
+    public WorkspaceContentCache(int maxEntries, long maxChars) {
+        this.maxEntries = maxEntries;
+        this.maxChars = maxChars;
+    }
+
+    /**
+     * Returns the content of a file, reading it from disk if it is not cached or has changed
+     * @param path full path to the file
+     * @return string of file content
+     */
+    public String read(Path path) {
+        FileStamp fileStamp = FileStamp.of(path);
+
+        synchronized (this) {
+            CacheEntry entry = entries.get(path);
+            if (entry != null && entry.fileStamp().equals(fileStamp)) {
+                hitCount++;
+                charsSaved += entry.content().length();
+                return entry.content();
+            }
+            missCount++;
+        }
+
+        // Read outside the lock, so a large file does not hold up reads of other files
+        String content = FileUtil.read(path);
+        put(path, new CacheEntry(fileStamp, content));
+        return content;
+    }
+
+    private synchronized void put(Path path, CacheEntry entry) {
+        charsRead += entry.content().length();
+        if (entry.content().length() > maxChars) {
+            return;
+        }
+
+        CacheEntry previous = entries.put(path, entry);
+        if (previous != null) {
+            currentChars -= previous.content().length();
+        }
+        currentChars += entry.content().length();
+
+        Iterator<Map.Entry<Path, CacheEntry>> iterator = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || currentChars > maxChars) && iterator.hasNext()) {
+            currentChars -= iterator.next().getValue().content().length();
+            iterator.remove();
+        }
+    }
+
+    /**
+     * Drops a file from the cache, so it is read from disk the next time
+     * @param path full path to the file
+     */
+    public synchronized void invalidate(Path path) {
+        CacheEntry removed = entries.remove(path);
+        if (removed != null) {
+            currentChars -= removed.content().length();
+            invalidationCount++;
+        }
+    }
+
+    /**
+     * Removes all files from the cache. Statistics are retained.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        currentChars = 0;
+    }
+
+    /**
+     * Starts watching folders on a daemon thread, dropping each file from the cache as it changes. Folders that
+     * don't exist are skipped. If the folders can't be watched, files are still checked before they are reused.
+     * @param name name of the watcher thread
+     * @param folders the folders holding the cached files
+     */
+    public synchronized void watch(String name, List<Path> folders) {
+        if (watchService != null) {
+            return;
+        }
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+            for (Path folder : folders) {
+                if (Files.isDirectory(folder)) {
+                    folder.register(watchService,
+                            StandardWatchEventKinds.ENTRY_CREATE,
+                            StandardWatchEventKinds.ENTRY_MODIFY,
+                            StandardWatchEventKinds.ENTRY_DELETE);
+                }
+            }
+        } catch (IOException ioe) {
+            System.out.println("Unable to watch workspace folders, changes will be found when files are read: " + ioe.getMessage());
+            close();
+            return;
+        }
+
+        WatchService service = watchService;
+        Thread thread = new Thread(() -> processEvents(service), name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void processEvents(WatchService service) {
+        try {
+            while (true) {
+                WatchKey key = service.take();
+                Path folder = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        // Some events were lost, so nothing cached can be trusted
+                        clear();
+                        changeListeners.forEach(listener -> listener.accept(null));
+                    } else if (event.context() instanceof Path fileName) {
+                        Path path = folder.resolve(fileName);
+                        invalidate(path);
+                        changeListeners.forEach(listener -> listener.accept(path));
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException closed) {
+            // The workspace has been closed
+        }
+    }
+
+    /**
+     * Adds a listener that is called on the watcher thread whenever a file in the watched folders changes
+     * @param listener called with the full path to the changed file, or null if changes were lost and any
+     * file may have changed
+     */
+    public void addChangeListener(Consumer<Path> listener) {
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Stops watching the folders and removes all files from the cache
+     */
+    public synchronized void close() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException ioe) {
+                System.out.println("Error closing workspace watcher: " + ioe.getMessage());
+            }
+            watchService = null;
+        }
+        clear();
+    }
+
+    /**
+     * @return number of reads served from the cache
+     */
+    public synchronized long getHitCount() { return hitCount; }
+
+    /**
+     * @return number of reads that had to go to disk
+     */
+    public synchronized long getMissCount() { return missCount; }
+
+    /**
+     * @return number of characters read from disk
+     */
+    public synchronized long getCharsRead() { return charsRead; }
+
+    /**
+     * @return number of characters served from the cache rather than read from disk
+     */
+    public synchronized long getCharsSaved() { return charsSaved; }
+
+    /**
+     * @return number of cached files dropped because they changed
+     */
+    public synchronized long getInvalidationCount() { return invalidationCount; }
+
+    /**
+     * @return number of files currently held
+     */
+    public synchronized int size() { return entries.size(); }
+
+    @Override
+    public synchronized String toString() {
+        return "Workspace file cache: " + entries.size() + " files (~" + (currentChars * 2 / 1024) + " KB), "
+                + hitCount + " hits, " + missCount + " misses, ~" + (charsSaved / 1024) + " KB not read from disk, "
+                + invalidationCount + " invalidations";
+    }
+}
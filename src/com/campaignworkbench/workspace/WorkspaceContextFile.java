@@ -32,6 +32,7 @@ public class WorkspaceContextFile extends WorkspaceFile {
         // System.out.println("New value: " + dataContextFile);
         this.dataContextFile = dataContextFile;
         dataContextFileProperty.setValue(dataContextFile);
+        notifyChanged();
 
     }
 
@@ -84,11 +84,12 @@ public class WorkspaceFile {
     }
 
     /**
-     * @return string content of the given file. To be used by this and derived classes.
+     * @return string content of the given file, from the workspace's content cache where possible. To be used
+     * by this and derived classes.
      */
     protected String getFileContent(Path absoluteFilePath) throws IdeException {
         try {
-            return FileUtil.read(absoluteFilePath);
+            return workspace != null ? workspace.readFile(absoluteFilePath) : FileUtil.read(absoluteFilePath);
         } catch (RuntimeException rte) {
             throw new IdeException("An error occurred loading the file: " + absoluteFilePath, rte);
         }
@@ -96,16 +97,29 @@ public class WorkspaceFile {
 
     public void saveWorkspaceFileContent(String contentText) throws IdeException {
         saveFileContent(getAbsoluteFilePath(), contentText);
+        notifyChanged();
     }
 
     public void saveFileContent(Path absoluteFilePath, String contentText) {
         try {
             FileUtil.write(absoluteFilePath, contentText);
+            if (workspace != null) {
+                workspace.fileWritten(absoluteFilePath);
+            }
         } catch (RuntimeException rte) {
             throw new IdeException("An error occurred saving the file: " + absoluteFilePath, rte);
         }
     }
 
+    /**
+     * Tells the workspace this file has changed, so anything derived from it can be refreshed
+     */
+    protected void notifyChanged() {
+        if (workspace != null) {
+            workspace.fileChanged(this);
+        }
+    }
+
     public void deleteFromFileSystem() throws IdeException{
         Path deleteFileAbsolutePath = getAbsoluteFilePath();
         System.out.println("Deleting: " + deleteFileAbsolutePath);
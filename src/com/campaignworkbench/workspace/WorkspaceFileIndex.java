@@ -0,0 +1,90 @@
+package com.campaignworkbench.workspace;
+
+import javafx.collections.ListChangeListener;
+import javafx.collections.ObservableList;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Index of the files of one type in a workspace, by base file name and by file name, kept in step with the
+ * workspace's list of those files. Where several files share a name, the first in the list is found, as with
+ * a scan of the list. The list must only be changed on one thread at a time, but lookups are thread safe, so
+ * background renders can resolve includes while the list is being changed.
+ */
+final class WorkspaceFileIndex<T extends WorkspaceFile> {
+
+    private final ObservableList<T> files;
+    private final Map<String, T> byBaseFileName = new ConcurrentHashMap<>();
+    private final Map<String, T> byFileName = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor
+     * @param files the list of files to index
+     */
+    WorkspaceFileIndex(ObservableList<T> files) {
+        this.files = files;
+        files.forEach(this::add);
+        files.addListener((ListChangeListener<T>) change -> {
+            while (change.next()) {
+                change.getRemoved().forEach(this::remove);
+                change.getAddedSubList().forEach(this::add);
+            }
+        });
+    }
+
+    /**
+     * @param baseFileName file name without the extension
+     * @return the file with the base name, or null if there isn't one
+     */
+    T getByBaseFileName(String baseFileName) {
+        return byBaseFileName.get(baseFileName);
+    }
+
+    /**
+     * @param fileName file name including the extension
+     * @return the file with the name, or null if there isn't one
+     */
+    T getByFileName(String fileName) {
+        return byFileName.get(fileName);
+    }
+
+    private void add(T workspaceFile) {
+        // Files read from JSON may not have a name
+        if (workspaceFile.getFileName() == null) {
+            return;
+        }
+        byBaseFileName.putIfAbsent(workspaceFile.getBaseFileName(), workspaceFile);
+        byFileName.putIfAbsent(workspaceFile.getFileName(), workspaceFile);
+    }
+
+    private void remove(T workspaceFile) {
+        if (workspaceFile.getFileName() == null) {
+            return;
+        }
+        remove(byBaseFileName, workspaceFile.getBaseFileName(), workspaceFile, WorkspaceFile::getBaseFileName);
+        remove(byFileName, workspaceFile.getFileName(), workspaceFile, WorkspaceFile::getFileName);
+    }
+
+    /**
+     * Removes a file from the index, putting back any other file in the list with the same name
+     */
+    private void remove(Map<String, T> index, String name, T workspaceFile, Function<WorkspaceFile, String> nameOf) {
+        if (index.get(name) != workspaceFile) {
+            return;
+        }
+        T replacement = null;
+        for (T file : files) {
+            if (file != workspaceFile && name.equals(nameOf.apply(file))) {
+                replacement = file;
+                break;
+            }
+        }
+        if (replacement == null) {
+            index.remove(name, workspaceFile);
+        } else {
+            index.put(name, replacement);
+        }
+    }
+}
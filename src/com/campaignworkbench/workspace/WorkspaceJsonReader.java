@@ -0,0 +1,108 @@
+package com.campaignworkbench.workspace;
+
+import com.campaignworkbench.util.JsonUtil;
+import tools.jackson.core.JsonParser;
+import tools.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Reads the file lists from a workspace JSON file with the streaming parser, creating each file directly rather
+ * than through reflection, so a workspace with many thousands of files opens quickly. Reads the format written
+ * by Workspace, skipping any properties it doesn't use. The files are returned without a workspace set.
+ */
+final class WorkspaceJsonReader {
+
+    /**
+     * The files read from a workspace JSON file, in the order they appear in it
+     */
+    record WorkspaceFiles(List<Template> templates, List<EtmModule> modules, List<PersoBlock> blocks, List<ContextXml> contexts) {}
+
+    private WorkspaceJsonReader() {}
+
+    /**
+     * @param jsonFilePath full path to the workspace JSON file
+     * @return the files listed in the workspace
+     * @throws IOException if the file is not a workspace JSON file
+     */
+    static WorkspaceFiles read(Path jsonFilePath) throws IOException {
+        WorkspaceFiles files = new WorkspaceFiles(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(), new ArrayList<>());
+
+        try (JsonParser parser = JsonUtil.createParser(jsonFilePath)) {
+            expect(parser, parser.nextToken(), JsonToken.START_OBJECT);
+
+            String propertyName;
+            while ((propertyName = parser.nextName()) != null) {
+                JsonToken token = parser.nextToken();
+                switch (propertyName) {
+                    case "templates" -> readFiles(parser, token, files.templates(), fileName -> new Template(fileName, null));
+                    case "modules" -> readFiles(parser, token, files.modules(), fileName -> new EtmModule(fileName, null));
+                    case "blocks" -> readFiles(parser, token, files.blocks(), fileName -> new PersoBlock(fileName, null));
+                    case "contexts" -> readFiles(parser, token, files.contexts(), fileName -> new ContextXml(fileName, null));
+                    default -> parser.skipChildren();
+                }
+            }
+        }
+        return files;
+    }
+
+    private static <T extends WorkspaceFile> void readFiles(JsonParser parser, JsonToken token, List<T> files,
+                                                            Function<String, T> createFile) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return;
+        }
+        expect(parser, token, JsonToken.START_ARRAY);
+
+        while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+            expect(parser, token, JsonToken.START_OBJECT);
+            files.add(readFile(parser, createFile));
+        }
+    }
+
+    /**
+     * Reads a file object, positioned on its start
+     */
+    private static <T extends WorkspaceFile> T readFile(JsonParser parser, Function<String, T> createFile) throws IOException {
+        String fileName = null;
+        ContextXml dataContextFile = null;
+        ContextXml messageContextFile = null;
+
+        String propertyName;
+        while ((propertyName = parser.nextName()) != null) {
+            JsonToken token = parser.nextToken();
+            switch (propertyName) {
+                case "fileName" -> fileName = parser.getValueAsString();
+                case "dataContextFile" -> dataContextFile = readContextFile(parser, token);
+                case "messageContextFile" -> messageContextFile = readContextFile(parser, token);
+                default -> parser.skipChildren();
+            }
+        }
+
+        T workspaceFile = createFile.apply(fileName);
+        if (dataContextFile != null && workspaceFile instanceof WorkspaceContextFile contextFile) {
+            contextFile.setDataContextFile(dataContextFile);
+        }
+        if (messageContextFile != null && workspaceFile instanceof Template template) {
+            template.setMessageContextFile(messageContextFile);
+        }
+        return workspaceFile;
+    }
+
+    private static ContextXml readContextFile(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(parser, token, JsonToken.START_OBJECT);
+        return readFile(parser, fileName -> new ContextXml(fileName, null));
+    }
+
+    private static void expect(JsonParser parser, JsonToken token, JsonToken expected) throws IOException {
+        if (token != expected) {
+            throw new IOException("Expected " + expected + " but found " + token + " at " + parser.currentLocation());
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.campaignworkbench.workspace;
+
+import com.campaignworkbench.ide.IdeException;
+
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Saves a workspace's JSON file on a background thread. Requests to save made close together are coalesced into
+ * one write, which is skipped if the JSON is the same as was last written. The file is written to a temporary
+ * file beside it and moved over it, so it is never left half written. A failed background save is reported to the
+ * failure callback and tried again on the next request to save.
+ */
+final class WorkspacePersistence {
+
+    // Time after a request to save before the file is written, during which further requests are coalesced
+    private static final long SAVE_DELAY_MILLIS = 500;
+
+    private static final ScheduledExecutorService saveExecutor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<Path> jsonFilePath;
+    private final Supplier<byte[]> serializer;
+    private final Consumer<Path> onSaved;
+    private final Consumer<IdeException> onSaveFailed;
+
+    // Guarded by this
+    private ScheduledFuture<?> pendingSave;
+
+    // Guarded by writeLock
+    private final Object writeLock = new Object();
+    private byte[] lastWritten;
+
+    /**
+     * Constructor
+     * @param jsonFilePath gives the path of the workspace JSON file
+     * @param serializer gives the workspace JSON. Called on the save thread, so must be thread safe.
+     * @param onSaved called with the path of the file each time it is written, on the thread writing it
+     * @param onSaveFailed called on the save thread when a background save fails
+     */
+    WorkspacePersistence(Supplier<Path> jsonFilePath, Supplier<byte[]> serializer, Consumer<Path> onSaved,
+                         Consumer<IdeException> onSaveFailed) {
+        this.jsonFilePath = jsonFilePath;
+        this.serializer = serializer;
+        this.onSaved = onSaved;
+        this.onSaveFailed = onSaveFailed;
+    }
+
+    /**
+     * Saves the workspace shortly, on the save thread, unless a save is already pending
+     */
+    synchronized void requestSave() {
+        if (pendingSave == null) {
+            pendingSave = saveExecutor.schedule(this::runPendingSave, SAVE_DELAY_MILLIS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runPendingSave() {
+        // Cleared before the JSON is taken, so a change made while writing is saved by another request
+        synchronized (this) {
+            pendingSave = null;
+        }
+        try {
+            saveIfChanged();
+        } catch (IdeException ideException) {
+            // The last written JSON is left as it was, so the next request writes it again
+            onSaveFailed.accept(ideException);
+        }
+    }
+
+    /**
+     * Saves the workspace on the calling thread, in place of any pending save
+     * @throws IdeException if the file can't be written
+     */
+    void flush() throws IdeException {
+        synchronized (this) {
+            if (pendingSave != null) {
+                pendingSave.cancel(false);
+                pendingSave = null;
+            }
+        }
+        saveIfChanged();
+    }
+
+    private void saveIfChanged() throws IdeException {
+        synchronized (writeLock) {
+            byte[] json = serializer.get();
+            if (Arrays.equals(json, lastWritten)) {
+                return;
+            }
+            Path path = jsonFilePath.get();
+            writeAtomically(path, json);
+            lastWritten = json;
+            onSaved.accept(path);
+        }
+    }
+
+    /**
+     * Writes a file by writing a temporary file beside it and moving it into place, so the file is either
+     * left as it was or entirely replaced
+     * @param path full path to the file
+     * @param content the content to write
+     * @throws IdeException if the file can't be written
+     */
+    static void writeAtomically(Path path, byte[] content) throws IdeException {
+        Path tempPath = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Files.write(tempPath, content);
+            try {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException atomicMoveNotSupported) {
+                Files.move(tempPath, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ioe) {
+            throw new IdeException("An error occurred saving the workspace JSON file: " + path, ioe);
+        }
+    }
+}
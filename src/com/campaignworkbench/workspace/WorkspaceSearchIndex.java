@@ -0,0 +1,436 @@
+package com.campaignworkbench.workspace;
+
+import com.campaignworkbench.util.FileUtil;
+import javafx.collections.ListChangeListener;
+
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Full text index of the templates, modules, blocks and context XML in a workspace, so text can be found across
+ * every file without reading them. Each file is indexed by the three character sequences (trigrams) it contains,
+ * ignoring case. A search only looks in the files that contain every trigram of the text searched for.
+ * <p>
+ * The files are read and indexed on a background thread, first when the index is created, then as files are
+ * added, saved, or changed on disk. Searches can be made from any thread, and find what has been indexed so far.
+ */
+public class WorkspaceSearchIndex {
+
+    /**
+     * A line containing the text searched for
+     * @param workspaceFile the file containing the line
+     * @param line the line number (1-indexed)
+     * @param lineText the text of the line, trimmed and shortened if long
+     */
+    public record SearchMatch(WorkspaceFile workspaceFile, int line, String lineText) {}
+
+    /**
+     * An indexed file, with the key it is listed in search results by, of its type then its name ignoring case
+     */
+    private record Document(WorkspaceFile workspaceFile, String content, String sortKey) {
+
+        Document(WorkspaceFile workspaceFile, String content) {
+            this(workspaceFile, content, workspaceFile.getFileType().ordinal() + workspaceFile.getFileName().toLowerCase(Locale.ROOT));
+        }
+    }
+
+    // Longest line text kept in a match
+    private static final int MAX_LINE_TEXT_LENGTH = 200;
+
+    // Removed files left in the postings before they are rebuilt
+    private static final int MIN_DEAD_DOCUMENTS_TO_COMPACT = 1024;
+
+    private static final ExecutorService indexExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "workspace-search-index");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Workspace workspace;
+
+    // Files in the workspace, by path, kept in step with the workspace lists on the thread changing them
+    private final Map<Path, WorkspaceFile> files = new HashMap<>();
+
+    // Documents by id, null once removed. A changed file gets a new id, so ids in each posting list are ascending.
+    private final List<Document> documents = new ArrayList<>();
+    private final Map<WorkspaceFile, Integer> documentIds = new HashMap<>();
+    private final Map<Long, IntList> postings = new HashMap<>();
+    private int deadDocumentCount;
+
+    // Position of each document id in search results, built when first needed after the documents change
+    private int[] ranks;
+
+    private final AtomicInteger pendingUpdates = new AtomicInteger();
+    private volatile boolean closed;
+
+    private final ListChangeListener<WorkspaceFile> listChangeListener = change -> {
+        while (change.next()) {
+            change.getRemoved().forEach(this::fileRemoved);
+            change.getAddedSubList().forEach(this::fileAdded);
+        }
+    };
+
+    /**
+     * Constructor. Indexes every file in the workspace in the background, and listens for files being added to
+     * and removed from it.
+     * @param workspace the workspace to index
+     */
+    public WorkspaceSearchIndex(Workspace workspace) {
+        this.workspace = workspace;
+        workspace.getTemplates().forEach(this::fileAdded);
+        workspace.getModules().forEach(this::fileAdded);
+        workspace.getBlocks().forEach(this::fileAdded);
+        workspace.getContexts().forEach(this::fileAdded);
+
+        workspace.getTemplates().addListener(listChangeListener);
+        workspace.getModules().addListener(listChangeListener);
+        workspace.getBlocks().addListener(listChangeListener);
+        workspace.getContexts().addListener(listChangeListener);
+    }
+
+    private void fileAdded(WorkspaceFile workspaceFile) {
+        synchronized (this) {
+            files.put(workspaceFile.getAbsoluteFilePath(), workspaceFile);
+        }
+        update(workspaceFile);
+    }
+
+    private void fileRemoved(WorkspaceFile workspaceFile) {
+        synchronized (this) {
+            files.remove(workspaceFile.getAbsoluteFilePath(), workspaceFile);
+        }
+        submit(() -> removeDocument(workspaceFile));
+    }
+
+    /**
+     * Reads and indexes a file again in the background. Files no longer in the workspace are ignored.
+     * @param workspaceFile the file that has changed
+     */
+    public void update(WorkspaceFile workspaceFile) {
+        submit(() -> index(workspaceFile));
+    }
+
+    /**
+     * Reads and indexes a changed file again in the background, if it is in the workspace
+     * @param path full path to the file, or null if any file may have changed
+     */
+    public void fileChangedOnDisk(Path path) {
+        List<WorkspaceFile> changedFiles;
+        synchronized (this) {
+            if (path == null) {
+                changedFiles = List.copyOf(files.values());
+            } else {
+                WorkspaceFile workspaceFile = files.get(path);
+                changedFiles = workspaceFile == null ? List.of() : List.of(workspaceFile);
+            }
+        }
+        changedFiles.forEach(this::update);
+    }
+
+    private void submit(Runnable task) {
+        pendingUpdates.incrementAndGet();
+        indexExecutor.submit(() -> {
+            try {
+                if (!closed) {
+                    task.run();
+                }
+            } finally {
+                pendingUpdates.decrementAndGet();
+            }
+        });
+    }
+
+    private void index(WorkspaceFile workspaceFile) {
+        synchronized (this) {
+            if (files.get(workspaceFile.getAbsoluteFilePath()) != workspaceFile) {
+                return;
+            }
+        }
+
+        // Read directly rather than through the content cache, so indexing doesn't push out the files being edited
+        String content;
+        try {
+            content = FileUtil.read(workspaceFile.getAbsoluteFilePath());
+        } catch (RuntimeException rte) {
+            // A missing file contains nothing
+            content = "";
+        }
+        Set<Long> trigrams = trigramsOf(content);
+
+        synchronized (this) {
+            Integer id = documentIds.get(workspaceFile);
+            if (id != null && documents.get(id).content().equals(content)) {
+                return;
+            }
+            removeDocument(workspaceFile);
+
+            int newId = documents.size();
+            documents.add(new Document(workspaceFile, content));
+            ranks = null;
+            documentIds.put(workspaceFile, newId);
+            for (Long trigram : trigrams) {
+                postings.computeIfAbsent(trigram, _ -> new IntList()).add(newId);
+            }
+        }
+    }
+
+    /**
+     * Marks a file's document as removed, rebuilding the postings once removed documents build up
+     */
+    private synchronized void removeDocument(WorkspaceFile workspaceFile) {
+        Integer id = documentIds.remove(workspaceFile);
+        if (id == null) {
+            return;
+        }
+        documents.set(id, null);
+        deadDocumentCount++;
+        if (deadDocumentCount >= MIN_DEAD_DOCUMENTS_TO_COMPACT && deadDocumentCount > documentIds.size()) {
+            compact();
+        }
+    }
+
+    private void compact() {
+        List<Document> liveDocuments = documents.stream().filter(Objects::nonNull).toList();
+        documents.clear();
+        documentIds.clear();
+        postings.clear();
+        deadDocumentCount = 0;
+        ranks = null;
+
+        for (Document document : liveDocuments) {
+            int id = documents.size();
+            documents.add(document);
+            documentIds.put(document.workspaceFile(), id);
+            for (Long trigram : trigramsOf(document.content())) {
+                postings.computeIfAbsent(trigram, _ -> new IntList()).add(id);
+            }
+        }
+    }
+
+    /**
+     * Finds the lines containing some text, ignoring case. Files are searched in order of type and name, and
+     * each line is reported once however many times it contains the text.
+     * @param query the text to find
+     * @param maxMatches most matches to return
+     * @return the matching lines
+     */
+    public List<SearchMatch> search(String query, int maxMatches) {
+        List<SearchMatch> matches = new ArrayList<>();
+        if (query.isEmpty()) {
+            return matches;
+        }
+
+        // Documents are never changed once indexed, so their content is scanned without holding the lock
+        for (Document document : findCandidates(query)) {
+            if (matches.size() >= maxMatches) {
+                break;
+            }
+            findLines(document, query, matches, maxMatches);
+        }
+        return matches;
+    }
+
+    /**
+     * @return the documents that may contain the query, in result order
+     */
+    private synchronized List<Document> findCandidates(String query) {
+        IntList candidateIds;
+        if (query.length() < 3) {
+            // Too short for a trigram, so every file has to be searched
+            candidateIds = new IntList();
+            for (int id = 0; id < documents.size(); id++) {
+                candidateIds.add(id);
+            }
+        } else {
+            candidateIds = findCandidateIds(query);
+        }
+
+        // Put the candidates in result order, packing each rank with its id so they sort as numbers
+        int[] ranks = getRanks();
+        long[] rankedIds = new long[candidateIds.size];
+        int candidateCount = 0;
+        for (int i = 0; i < candidateIds.size; i++) {
+            int id = candidateIds.values[i];
+            if (documents.get(id) != null) {
+                rankedIds[candidateCount++] = (long) ranks[id] << 32 | id;
+            }
+        }
+        Arrays.sort(rankedIds, 0, candidateCount);
+
+        List<Document> candidates = new ArrayList<>(candidateCount);
+        for (int i = 0; i < candidateCount; i++) {
+            candidates.add(documents.get((int) rankedIds[i]));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return rank of each document id, ordering documents by type then name
+     */
+    private int[] getRanks() {
+        if (ranks == null) {
+            List<Document> liveDocuments = new ArrayList<>(documents.stream().filter(Objects::nonNull).toList());
+            liveDocuments.sort(Comparator.comparing(Document::sortKey));
+            ranks = new int[documents.size()];
+            for (int rank = 0; rank < liveDocuments.size(); rank++) {
+                ranks[documentIds.get(liveDocuments.get(rank).workspaceFile())] = rank;
+            }
+        }
+        return ranks;
+    }
+
+    /**
+     * @return ids of the documents containing every trigram of the query, ascending
+     */
+    private IntList findCandidateIds(String query) {
+        List<IntList> lists = new ArrayList<>();
+        for (Long trigram : trigramsOf(query)) {
+            IntList list = postings.get(trigram);
+            if (list == null) {
+                return new IntList();
+            }
+            lists.add(list);
+        }
+
+        // Intersect starting from the shortest list, so the candidates shrink as quickly as possible
+        lists.sort(Comparator.comparingInt(list -> list.size));
+        IntList candidateIds = lists.getFirst();
+        for (int i = 1; i < lists.size() && candidateIds.size > 0; i++) {
+            candidateIds = candidateIds.intersect(lists.get(i));
+        }
+        return candidateIds;
+    }
+
+    private static void findLines(Document document, String query, List<SearchMatch> matches, int maxMatches) {
+        String content = document.content();
+        int line = 1;
+        int lineStart = 0;
+        int searchFrom = 0;
+        int lastStart = content.length() - query.length();
+
+        for (int i = 0; i <= lastStart; i++) {
+            if (!content.regionMatches(true, i, query, 0, query.length())) {
+                continue;
+            }
+            for (int j = searchFrom; j < i; j++) {
+                if (content.charAt(j) == '\n') {
+                    line++;
+                    lineStart = j + 1;
+                }
+            }
+            int lineEnd = content.indexOf('\n', i);
+            if (lineEnd < 0) {
+                lineEnd = content.length();
+            }
+            String lineText = content.substring(lineStart, lineEnd).strip();
+            if (lineText.length() > MAX_LINE_TEXT_LENGTH) {
+                lineText = lineText.substring(0, MAX_LINE_TEXT_LENGTH) + "...";
+            }
+            matches.add(new SearchMatch(document.workspaceFile(), line, lineText));
+            if (matches.size() >= maxMatches) {
+                return;
+            }
+
+            // Carry on from the next line
+            searchFrom = lineEnd;
+            i = lineEnd;
+        }
+    }
+
+    /**
+     * @return the trigrams of some text, each packed into a long, with the case of letters folded as
+     * String.regionMatches ignores it
+     */
+    private static Set<Long> trigramsOf(String text) {
+        Set<Long> trigrams = new HashSet<>();
+        if (text.length() < 3) {
+            return trigrams;
+        }
+        long first = fold(text.charAt(0));
+        long second = fold(text.charAt(1));
+        for (int i = 2; i < text.length(); i++) {
+            long third = fold(text.charAt(i));
+            trigrams.add(first << 32 | second << 16 | third);
+            first = second;
+            second = third;
+        }
+        return trigrams;
+    }
+
+    private static char fold(char c) {
+        return Character.toLowerCase(Character.toUpperCase(c));
+    }
+
+    /**
+     * @return true while files are waiting to be read and indexed, so a search may miss some matches
+     */
+    public boolean isIndexing() {
+        return pendingUpdates.get() > 0;
+    }
+
+    /**
+     * @return number of files indexed
+     */
+    public synchronized int getIndexedFileCount() {
+        return documentIds.size();
+    }
+
+    /**
+     * Stops indexing and releases the index
+     */
+    public synchronized void close() {
+        closed = true;
+        workspace.getTemplates().removeListener(listChangeListener);
+        workspace.getModules().removeListener(listChangeListener);
+        workspace.getBlocks().removeListener(listChangeListener);
+        workspace.getContexts().removeListener(listChangeListener);
+        files.clear();
+        documents.clear();
+        documentIds.clear();
+        postings.clear();
+        deadDocumentCount = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "Workspace search index: " + documentIds.size() + " files, " + postings.size() + " trigrams"
+                + (isIndexing() ? ", indexing" : "");
+    }
+
+    /**
+     * Growable list of document ids, in ascending order
+     */
+    private static final class IntList {
+
+        private int[] values = new int[4];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        IntList intersect(IntList other) {
+            IntList result = new IntList();
+            int i = 0;
+            int j = 0;
+            while (i < size && j < other.size) {
+                if (values[i] < other.values[j]) {
+                    i++;
+                } else if (values[i] > other.values[j]) {
+                    j++;
+                } else {
+                    result.add(values[i]);
+                    i++;
+                    j++;
+                }
+            }
+            return result;
+        }
+    }
+}